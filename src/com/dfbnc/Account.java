@@ -29,6 +29,7 @@ import com.dfbnc.commands.CommandManager;
 import com.dfbnc.config.Config;
 import com.dfbnc.config.ConfigChangeListener;
 import com.dfbnc.config.ConfigFileConfig;
+import com.dfbnc.config.ConfigWriter;
 import com.dfbnc.config.DefaultsConfig;
 import com.dfbnc.servers.ServerType;
 import com.dfbnc.servers.ServerTypeNotFound;
@@ -43,6 +44,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -81,8 +85,14 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
     private final Map<Config,String> subClientConfigKeys = new HashMap<>();
     /** Configuration change listeners. */
     private final Map<String, List<AccountConfigChangeListener>> listeners = new HashMap<>();
-    /** Reconnect Timer. */
-    private Timer reconnectTimer;
+    /** Read markers for each subclient, by target. */
+    private final Map<String, Map<String, Long>> readMarkers = new HashMap<>();
+    /** Lock held while writing read marker files. */
+    private final Object readMarkerFileLock = new Object();
+    /** Pending reconnect attempt. */
+    private volatile ConnectScheduler.Attempt reconnectAttempt;
+    /** Delays between reconnect attempts. */
+    private final ConnectScheduler.Backoff reconnectBackoff = DFBnc.getConnectScheduler().newBackoff();
     /** Is the next disconnect intentional? */
     private boolean disconnectWanted;
 
@@ -355,6 +365,131 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
     public void save() {
         config.save();
         subClientConfigs.values().stream().forEach(Config::save);
+        synchronized (readMarkers) {
+            readMarkers.keySet().forEach(this::scheduleReadMarkers);
+        }
+    }
+
+    /**
+     * Get the time up to which the given subclient has read the given target.
+     *
+     * @param subclient Subclient to check, or null for the main account
+     * @param target Normalised name of the target to check
+     * @return Time of the read marker, or 0 if there isn't one.
+     */
+    public long getReadMarker(final String subclient, final String target) {
+        synchronized (readMarkers) {
+            final Long marker = getReadMarkers(subclient).get(target);
+            return (marker == null) ? 0 : marker;
+        }
+    }
+
+    /**
+     * Update the times up to which the given subclient has read the given
+     * targets. They are saved shortly afterwards in the background.
+     *
+     * @param subclient Subclient to update, or null for the main account
+     * @param markers Map of normalised target names to read marker times
+     */
+    public void setReadMarkers(final String subclient, final Map<String, Long> markers) {
+        synchronized (readMarkers) {
+            getReadMarkers(subclient).putAll(markers);
+            scheduleReadMarkers(getReadMarkerKey(subclient));
+        }
+    }
+
+    /**
+     * Get the read markers for the given subclient, loading them if needed.
+     *
+     * @param subclient Subclient to get the markers for, or null for the main
+     *                  account
+     * @return Map of read markers
+     */
+    private Map<String, Long> getReadMarkers(final String subclient) {
+        return readMarkers.computeIfAbsent(getReadMarkerKey(subclient), key -> {
+            final Map<String, Long> markers = new HashMap<>();
+            final File file = getReadMarkerFile(key);
+            if (file.exists()) {
+                try {
+                    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                        final String[] bits = line.split(" ", 2);
+                        if (bits.length == 2) {
+                            markers.put(bits[1], Long.parseLong(bits[0]));
+                        }
+                    }
+                } catch (final IOException | NumberFormatException ex) {
+                    Logger.error("Unable to load read markers: " + file.getName() + " (" + ex.getMessage() + ")");
+                }
+            }
+            return markers;
+        });
+    }
+
+    /**
+     * Schedule the read markers for the given subclient to be saved by the
+     * {@link ConfigWriter}, so that frequent updates are coalesced and
+     * nothing waits on the disk.
+     *
+     * @param key Read marker key for the subclient
+     */
+    private void scheduleReadMarkers(final String key) {
+        ConfigWriter.schedule(getReadMarkerFile(key).toPath(), () -> writeReadMarkers(key));
+    }
+
+    /**
+     * Write the read markers for the given subclient to disk.
+     *
+     * @param key Read marker key for the subclient
+     * @throws IOException If the markers could not be written
+     */
+    private void writeReadMarkers(final String key) throws IOException {
+        final List<String> lines;
+        synchronized (readMarkers) {
+            final Map<String, Long> markers = readMarkers.get(key);
+            if (markers == null) { return; }
+            lines = markers.entrySet().stream()
+                    .map(e -> e.getValue() + " " + e.getKey())
+                    .collect(Collectors.toList());
+        }
+
+        final File file = getReadMarkerFile(key);
+        if (!file.getAbsoluteFile().getParentFile().isDirectory()) {
+            // The account has been deleted, so don't recreate it.
+            return;
+        }
+
+        // Write to a temporary file first so that a crash part way through
+        // doesn't lose every marker.
+        synchronized (readMarkerFileLock) {
+            final Path temp = file.toPath().resolveSibling(file.getName() + ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Util.replaceFile(temp, file.toPath());
+        }
+    }
+
+    /**
+     * Get the key used for the read markers of the given subclient.
+     *
+     * @param subclient Subclient name, or null for the main account
+     * @return Key for the subclient, empty for the main account.
+     */
+    private String getReadMarkerKey(final String subclient) {
+        return (subclient == null) ? "" : subclient.toLowerCase().replaceAll("[^a-z0-9_-]", "");
+    }
+
+    /**
+     * Get the file that read markers for the given subclient are saved in,
+     * next to its config file.
+     *
+     * @param key Read marker key for the subclient
+     * @return File for the read markers
+     */
+    private File getReadMarkerFile(final String key) {
+        if (key.isEmpty()) {
+            return new File(getConfigDirectory(), myName + ".markers");
+        } else {
+            return new File(getConfigDirectory(), key + ".scmarkers");
+        }
     }
 
     /**
@@ -680,6 +815,39 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
         return subClientConfigs.get(subName);
     }
 
+    /**
+     * Delete the given sub client, along with its config and read markers.
+     *
+     * @param subclientName The name of the subclient to delete.
+     * @return True if the subclient existed and all of its files were deleted.
+     */
+    public boolean deleteSubClient(final String subclientName) {
+        if (subclientName == null || subclientName.isEmpty()) { return false; }
+        final String subName = subclientName.replaceAll("[^a-z0-9_-]", "");
+        final Config subConfig = subClientConfigs.remove(subName);
+        if (subConfig == null) { return false; }
+
+        subClientConfigKeys.remove(subConfig);
+        subConfig.removeListener(this);
+
+        final String key = getReadMarkerKey(subName);
+        synchronized (readMarkers) {
+            readMarkers.remove(key);
+        }
+
+        boolean deleted = true;
+        for (File file : new File[]{new File(getConfigDirectory(), subName + ".scconf"), getReadMarkerFile(key)}) {
+            ConfigWriter.cancel(file.toPath());
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (final IOException ex) {
+                Logger.error("Unable to delete sub-client file: " + file.getName() + " (" + ex.getMessage() + ")");
+                deleted = false;
+            }
+        }
+        return deleted;
+    }
+
     /**
      * Get all the subclient Configs
      *
@@ -769,22 +937,42 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
     /**
      * Are we currently trying to reconnect?
      *
-     * @return True if there is a reconnectTimer around
+     * @return True if there is a reconnect attempt pending
      */
     public boolean isReconnecting() {
-        return reconnectTimer != null;
+        return reconnectAttempt != null;
     }
 
     /**
      * Cancel any ongoing reconnection attempts.
      */
     public void cancelReconnect() {
-        if (reconnectTimer != null) {
-            reconnectTimer.cancel();
-            reconnectTimer = null;
+        final ConnectScheduler.Attempt attempt = reconnectAttempt;
+        if (attempt != null) {
+            attempt.cancel();
+            reconnectAttempt = null;
         }
     }
 
+    /**
+     * Get a key identifying where this account connects to.
+     *
+     * @return Destination of this account's connections
+     */
+    public String getConnectDestination() {
+        final ServerType type = getServerType();
+        return type == null ? "" : type.getConnectDestination(this);
+    }
+
+    /**
+     * Called by the connection handler once it has finished registering with
+     * the server. Reconnect delays only start again from scratch once a
+     * registered connection has stayed up for long enough.
+     */
+    public void handlerRegistered() {
+        reconnectBackoff.connected();
+    }
+
     /**
      * Calling this will prevent the next disconnect causing a reconnect.
      */
@@ -803,34 +991,33 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
 
         myConnectionHandler = null;
         if (!disconnectWanted && config.getOptionBool("server", "reconnect")) {
-            reconnectTimer = new Timer("Reconnect Timer - " + getName());
-
-            reconnectTimer.schedule(new TimerTask(){
-                @Override
-                public void run() {
-                    try {
-                        sendBotMessage("Attempting reconnect...");
-                        if (oldHandler == null) {
-                            sendBotMessage("Reconnect failed. No handler to reconnect.");
-                            myConnectionHandler = null;
-                        } else {
-                            final ConnectionHandler newHandler = oldHandler.newInstance();
-                            setConnectionHandler(newHandler);
-                        }
-                    } catch (final UnableToConnectException ex) {
-                        sendBotMessage("Unable to reconnect: %s", ex.getMessage());
+            final ConnectScheduler scheduler = DFBnc.getConnectScheduler();
+            final long delay = reconnectBackoff.nextDelay();
+
+            cancelReconnect();
+            reconnectAttempt = scheduler.schedule(getConnectDestination(), delay, () -> {
+                reconnectAttempt = null;
+                try {
+                    sendBotMessage("Attempting reconnect...");
+                    if (oldHandler == null) {
+                        sendBotMessage("Reconnect failed. No handler to reconnect.");
                         myConnectionHandler = null;
-                        // This is not the place to try again, this exception
-                        // happens if the params we have are not valid for
-                        // creating a connection.
-                        // Errors actually trying to make the connection will
-                        // result in a handlerDisconnected() call.
-                    } catch (final Throwable t) {
-                        reportException(t, "Unhandled Exception");
+                    } else {
+                        final ConnectionHandler newHandler = oldHandler.newInstance();
+                        setConnectionHandler(newHandler);
                     }
-                    cancelReconnect();
+                } catch (final UnableToConnectException ex) {
+                    sendBotMessage("Unable to reconnect: %s", ex.getMessage());
+                    myConnectionHandler = null;
+                    // This is not the place to try again, this exception
+                    // happens if the params we have are not valid for
+                    // creating a connection.
+                    // Errors actually trying to make the connection will
+                    // result in a handlerDisconnected() call.
+                } catch (final Throwable t) {
+                    reportException(t, "Unhandled Exception");
                 }
-            }, 5000);
+            });
         }
 
         if (config.getOptionBool("server", "userdisconnect")) {
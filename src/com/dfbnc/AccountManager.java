@@ -33,9 +33,14 @@ import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Manages the list of accounts.
@@ -43,10 +48,25 @@ import java.util.Random;
 public class AccountManager {
 
     /** List of loaded Accounts */
-    private final Map<String, Account> accounts = new HashMap<>();
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    /** Names of accounts that are still being loaded. */
+    private final Set<String> loadingAccounts = ConcurrentHashMap.newKeySet();
+    /** Loads the account stored in a directory. */
+    private final Function<File, Account> loader;
 
     /** Prevent public instantiation of AccountManager. Use {@link DFBnc#getAccountManager()}. */
     AccountManager() {
+        this.loader = this::loadAccount;
+    }
+
+    /**
+     * Creates a new AccountManager.
+     *
+     * @param loader Loads the account stored in a directory, returning null
+     *               if it could not be loaded
+     */
+    AccountManager(final Function<File, Account> loader) {
+        this.loader = loader;
     }
 
     /**
@@ -119,7 +139,9 @@ public class AccountManager {
         Logger.debug2("createAccount: Saving user as: " + username.replace('.', '_').toLowerCase());
         synchronized (accounts) {
             Account acc = null;
-            if (!exists(accountName)) {
+            if (isLoading(accountName)) {
+                Logger.error("Not creating account " + accountName + " as it is still being loaded.");
+            } else if (!exists(accountName)) {
                 Logger.debug2("Creating new account: "+accountName);
                 try {
                     acc = new Account(accountName);
@@ -173,34 +195,106 @@ public class AccountManager {
     }
 
     /**
-     * Load all the accounts from the config
+     * Load all the accounts from the config.
+     * <p>
+     * Accounts are loaded in parallel, and each is made available as soon as
+     * it has been loaded. Accounts that autoconnect are handed to the
+     * {@link ConnectScheduler} once they have loaded, so that we do not
+     * connect to everything at once.
      */
     public void loadAccounts() {
         final File directory = new File(DFBnc.getConfigDirName());
-        final File[] directories = directory.listFiles();
+        final File[] directories = directory.listFiles((dir, name) -> !DFBnc.getConfigFileName().equals(name));
         if (directories == null) {
             return;
         }
+
+        loadAccounts(directories, DFBnc.getBNC().getConfig().getOptionInt("general", "accountloaders"));
+    }
+
+    /**
+     * Load the accounts stored in the given directories, using the given
+     * number of threads, and wait for them all to finish.
+     *
+     * @param directories Directories containing the accounts
+     * @param threads Number of accounts to load at once
+     */
+    void loadAccounts(final File[] directories, final int threads) {
+        // Mark everything as loading before starting, so that nothing can be
+        // created in the meantime.
         for (File file : directories) {
-            if (!DFBnc.getConfigFileName().equals(file.getName())) {
+            loadingAccounts.add(file.getName());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> new Thread(r, "Account Loader"));
+        for (File file : directories) {
+            executor.submit(() -> {
                 try {
-                   Account acc = new Account(file.getName());
-                   accounts.put(acc.getName(), acc);
-
-                    if (acc.getAccountConfig().getOptionBool("server", "autoconnect")) {
-                       final ServerType type = acc.getServerType();
-                       if (type != null) {
-                           try {
-                              final ConnectionHandler handler = type.newConnectionHandler(acc, -1);
-                              acc.setConnectionHandler(handler);
-                           }  catch (UnableToConnectException ex) {
-                               Logger.error("Unable to autoconnect account: " + file.getName());
-                           }
-                       }
-                   }
-               } catch (IOException | InvalidConfigFileException ex) {
-                   Logger.error("Unable to load account: " + file.getName() + "(" + ex.getMessage() + ")");
-               }
+                    final Account acc = loader.apply(file);
+                    if (acc != null && acc.getAccountConfig().getOptionBool("server", "autoconnect")) {
+                        DFBnc.getConnectScheduler().schedule(acc.getConnectDestination(), 0, () -> autoconnect(acc));
+                    }
+                } catch (RuntimeException ex) {
+                    Logger.error("Unable to load account: " + file.getName() + "(" + ex + ")");
+                } finally {
+                    loadingAccounts.remove(file.getName());
+                }
+            });
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Check if the given account is still being loaded.
+     *
+     * @param username Name of the account
+     * @return True if the account is still being loaded.
+     */
+    boolean isLoading(final String username) {
+        return loadingAccounts.contains(username.replace('.', '_').toLowerCase());
+    }
+
+    /**
+     * Load the account stored in the given directory.
+     *
+     * @param file Directory containing the account
+     * @return The loaded account, or null if it could not be loaded
+     */
+    private Account loadAccount(final File file) {
+        try {
+            final Account acc = new Account(file.getName());
+            accounts.put(acc.getName(), acc);
+            return acc;
+        } catch (IOException | InvalidConfigFileException ex) {
+            Logger.error("Unable to load account: " + file.getName() + "(" + ex.getMessage() + ")");
+            return null;
+        }
+    }
+
+    /**
+     * Connect the given account, unless it has been connected or removed
+     * since it was loaded.
+     *
+     * @param acc Account to connect
+     */
+    private void autoconnect(final Account acc) {
+        if (accounts.get(acc.getName()) != acc || acc.getConnectionHandler() != null) {
+            return;
+        }
+
+        final ServerType type = acc.getServerType();
+        if (type != null) {
+            try {
+                final ConnectionHandler handler = type.newConnectionHandler(acc, -1);
+                acc.setConnectionHandler(handler);
+            } catch (UnableToConnectException ex) {
+                Logger.error("Unable to autoconnect account: " + acc.getName());
             }
         }
     }
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc;
+
+import com.dfbnc.config.Config;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Schedules outbound connection attempts.
+ * <p>
+ * Attempts are metered both globally and per destination using token
+ * buckets, so that when many accounts want to connect at once (such as after
+ * a restart, or when a network drops everyone) they are spread out rather
+ * than all being made together. Reconnect delays back off exponentially,
+ * with jitter so that accounts that disconnected together do not retry
+ * together.
+ * <p>
+ * The scheduler thread only decides when each attempt may go ahead. The
+ * attempts themselves are handed to a small pool of worker threads, so that
+ * one slow connection does not hold up the others.
+ */
+public class ConnectScheduler {
+
+    /** Delay before the first reconnect attempt, in milliseconds. */
+    private static final long RECONNECT_BASE_DELAY = 5000;
+    /** Most destination buckets to keep around before pruning idle ones. */
+    private static final int MAX_IDLE_BUCKETS = 256;
+    /** Most connection attempts to make at once. */
+    private static final int CONNECT_THREADS = 4;
+    /** How long idle worker threads are kept, in seconds. */
+    private static final long CONNECT_THREAD_KEEPALIVE = 30;
+
+    /** Executor used to decide when attempts may be made. */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Connect Scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Executor used to make connection attempts. */
+    private final Executor connector;
+    /** Bucket limiting all connection attempts. */
+    private final TokenBucket globalBucket = new TokenBucket();
+    /** Buckets limiting attempts to each destination. */
+    private final Map<String, TokenBucket> destinationBuckets = new HashMap<>();
+    /** Where to read the rate limit settings from. */
+    private final Supplier<Config> config;
+    /** Source of the current time, in milliseconds. */
+    private final LongSupplier clock;
+    /** Source of random numbers between 0 (inclusive) and 1 (exclusive). */
+    private final DoubleSupplier random;
+
+    /** Prevent public instantiation of ConnectScheduler. Use {@link DFBnc#getConnectScheduler()}. */
+    ConnectScheduler() {
+        this(() -> DFBnc.getBNC() == null ? null : DFBnc.getBNC().getConfig(),
+                System::currentTimeMillis, () -> ThreadLocalRandom.current().nextDouble(), createConnector());
+    }
+
+    /**
+     * Creates a new ConnectScheduler.
+     *
+     * @param config Where to read the rate limit settings from
+     * @param clock Source of the current time, in milliseconds
+     * @param random Source of random numbers between 0 (inclusive) and 1
+     *               (exclusive)
+     * @param connector Executor used to make connection attempts
+     */
+    ConnectScheduler(final Supplier<Config> config, final LongSupplier clock, final DoubleSupplier random,
+            final Executor connector) {
+        this.config = config;
+        this.clock = clock;
+        this.random = random;
+        this.connector = connector;
+    }
+
+    /**
+     * Creates the default executor used to make connection attempts.
+     *
+     * @return New executor
+     */
+    private static Executor createConnector() {
+        final ThreadPoolExecutor connector = new ThreadPoolExecutor(CONNECT_THREADS, CONNECT_THREADS,
+                CONNECT_THREAD_KEEPALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r, "Connect Worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        connector.allowCoreThreadTimeOut(true);
+        return connector;
+    }
+
+    /**
+     * Schedules a connection attempt. The attempt will be made no sooner than
+     * the given delay, and later if too many attempts have been made recently.
+     *
+     * @param destination Key identifying where the connection will be made
+     * @param delay Minimum delay in milliseconds
+     * @param task Task that makes the connection
+     * @return The scheduled attempt, which can be used to cancel it
+     */
+    public Attempt schedule(final String destination, final long delay, final Runnable task) {
+        final Attempt attempt = new Attempt(destination, task);
+        attempt.schedule(delay);
+        return attempt;
+    }
+
+    /**
+     * Gets the delay to wait before reconnecting after the given number of
+     * consecutive failed attempts. This doubles with each failure up to
+     * {@link #getMaxBackoffDelay()}, and is randomised to between half and all
+     * of that value.
+     *
+     * @param failures Number of consecutive failures
+     * @return Delay in milliseconds
+     */
+    public long getBackoffDelay(final int failures) {
+        final long max = getMaxBackoffDelay();
+        final long delay = Math.min(max, RECONNECT_BASE_DELAY << Math.min(Math.max(failures, 0), 20));
+        return delay / 2 + (long) (random.getAsDouble() * (delay / 2 + 1));
+    }
+
+    /**
+     * Creates a new tracker for the reconnect delays of one account.
+     *
+     * @return New backoff tracker
+     */
+    public Backoff newBackoff() {
+        return new Backoff();
+    }
+
+    /**
+     * Gets the longest delay that {@link #getBackoffDelay(int)} will return.
+     *
+     * @return Maximum delay in milliseconds
+     */
+    public long getMaxBackoffDelay() {
+        final Integer max = getLimit("reconnectmaxdelay");
+        return Math.max(RECONNECT_BASE_DELAY, max == null ? 0 : max * 1000L);
+    }
+
+    /**
+     * Hands the given attempt to the connector if the rate limits allow,
+     * otherwise reschedules it for when they next will.
+     *
+     * @param attempt Attempt to run
+     */
+    private void run(final Attempt attempt) {
+        if (attempt.isCancelled()) { return; }
+
+        final long wait = acquire(attempt.destination);
+        if (wait > 0) {
+            // Add a little jitter so that waiting attempts don't all wake up
+            // together.
+            attempt.schedule(wait + (long) (random.getAsDouble() * (wait / 4 + 1)));
+            return;
+        }
+
+        connector.execute(() -> {
+            if (attempt.isCancelled()) { return; }
+            try {
+                attempt.task.run();
+            } catch (final RuntimeException ex) {
+                Logger.error("Unhandled exception making connection to " + attempt.destination + ": " + ex);
+            }
+        });
+    }
+
+    /**
+     * Takes a token for a connection to the given destination if the rate
+     * limits allow one to be made now.
+     *
+     * @param destination Key identifying where the connection will be made
+     * @return 0 if a token was taken, otherwise the time in milliseconds
+     *         until one might be available.
+     */
+    synchronized long acquire(final String destination) {
+        final long now = clock.getAsLong();
+        final int globalRate = getRate("connectsperminute");
+        final int globalBurst = getRate("connectburst");
+        final int destinationRate = getRate("destinationconnectsperminute");
+        final int destinationBurst = getRate("destinationconnectburst");
+
+        final TokenBucket destinationBucket = destinationBuckets.computeIfAbsent(destination, d -> new TokenBucket());
+        final long wait = Math.max(globalBucket.getWait(now, globalRate, globalBurst),
+                destinationBucket.getWait(now, destinationRate, destinationBurst));
+        if (wait > 0) {
+            return wait;
+        }
+
+        globalBucket.take(globalRate);
+        destinationBucket.take(destinationRate);
+        if (destinationBuckets.size() > MAX_IDLE_BUCKETS) {
+            destinationBuckets.values().removeIf(b -> b.isFull(now, destinationRate, destinationBurst));
+        }
+        return 0;
+    }
+
+    /**
+     * Gets a rate limit setting.
+     *
+     * @param setting Name of the setting
+     * @return Value of the setting, or 0 (no limit) if it isn't set.
+     */
+    private int getRate(final String setting) {
+        final Integer value = getLimit(setting);
+        return value == null ? 0 : Math.max(0, value);
+    }
+
+    /**
+     * Gets an integer setting from the general domain of the BNC config.
+     *
+     * @param setting Name of the setting
+     * @return Value of the setting, or null if it isn't set.
+     */
+    private Integer getLimit(final String setting) {
+        final Config config = this.config.get();
+        if (config == null || !config.hasOption("general", setting)) {
+            return null;
+        }
+        return config.getOptionInt("general", setting);
+    }
+
+    /**
+     * A scheduled connection attempt.
+     */
+    public final class Attempt {
+
+        /** Key identifying where the connection will be made. */
+        private final String destination;
+        /** Task that makes the connection. */
+        private final Runnable task;
+        /** Has this attempt been cancelled? */
+        private volatile boolean cancelled;
+        /** The next scheduled run of this attempt. */
+        private ScheduledFuture<?> future;
+
+        /**
+         * Creates a new attempt.
+         *
+         * @param destination Key identifying where the connection will be made
+         * @param task Task that makes the connection
+         */
+        private Attempt(final String destination, final Runnable task) {
+            this.destination = destination;
+            this.task = task;
+        }
+
+        /**
+         * Schedules this attempt to be checked after the given delay.
+         *
+         * @param delay Delay in milliseconds
+         */
+        private synchronized void schedule(final long delay) {
+            if (!cancelled) {
+                future = executor.schedule(() -> run(this), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Cancels this attempt, if it has not already been made.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * Has this attempt been cancelled?
+         *
+         * @return True if this attempt has been cancelled.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Tracks the reconnect delays for one account. Delays back off with each
+     * failed attempt, and start again from scratch once a connection has
+     * stayed up for longer than the longest delay.
+     */
+    public final class Backoff {
+
+        /** Number of reconnect attempts since we last had a lasting connection. */
+        private int failures;
+        /** Time that the last connection was made, or 0 if none has been since the last delay. */
+        private long connectedTime;
+
+        /**
+         * Creates a new backoff tracker.
+         */
+        private Backoff() {
+        }
+
+        /**
+         * Records that a connection has been made.
+         */
+        public synchronized void connected() {
+            connectedTime = clock.getAsLong();
+        }
+
+        /**
+         * Gets the delay before the next reconnect attempt, and counts it as
+         * a failure until a connection stays up for long enough.
+         *
+         * @return Delay in milliseconds
+         */
+        public synchronized long nextDelay() {
+            if (connectedTime != 0 && clock.getAsLong() - connectedTime > getMaxBackoffDelay()) {
+                failures = 0;
+            }
+            connectedTime = 0;
+            return getBackoffDelay(failures++);
+        }
+    }
+
+    /**
+     * A token bucket that refills at a fixed rate up to a maximum burst size.
+     * A rate of 0 means there is no limit.
+     */
+    private static class TokenBucket {
+
+        /** Number of tokens currently available. */
+        private double tokens;
+        /** Time the bucket was last refilled, or 0 if it is new. */
+        private long lastRefill;
+
+        /**
+         * Refills the bucket for the time that has passed.
+         *
+         * @param now Current time
+         * @param rate Tokens added per minute
+         * @param burst Maximum number of tokens
+         */
+        private void refill(final long now, final int rate, final int burst) {
+            final int capacity = Math.max(1, burst);
+            if (lastRefill == 0) {
+                tokens = capacity;
+            } else {
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 60000.0);
+            }
+            lastRefill = now;
+        }
+
+        /**
+         * Gets how long until a token will be available.
+         *
+         * @param now Current time
+         * @param rate Tokens added per minute
+         * @param burst Maximum number of tokens
+         * @return Time in milliseconds until a token is available, or 0 if
+         *         one is available now.
+         */
+        public long getWait(final long now, final int rate, final int burst) {
+            if (rate <= 0) { return 0; }
+            refill(now, rate, burst);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 60000.0 / rate);
+        }
+
+        /**
+         * Takes a token from the bucket. {@link #getWait} must have been
+         * called first to check one is available.
+         *
+         * @param rate Tokens added per minute
+         */
+        public void take(final int rate) {
+            if (rate > 0) {
+                tokens -= 1;
+            }
+        }
+
+        /**
+         * Is this bucket full, and so equivalent to a new bucket?
+         *
+         * @param now Current time
+         * @param rate Tokens added per minute
+         * @param burst Maximum number of tokens
+         * @return True if the bucket is full.
+         */
+        public boolean isFull(final long now, final int rate, final int burst) {
+            if (rate <= 0) { return true; }
+            refill(now, rate, burst);
+            return tokens >= Math.max(1, burst);
+        }
+    }
+}
@@ -95,6 +95,23 @@ public interface ConnectionHandler {
      */
     RollingList<BackbufferMessage> getBackbufferList(final String channel);
 
+    /**
+     * Send stored history for the given channel to the given user.
+     *
+     * Only messages after {@code after} and before {@code before} are sent,
+     * and at most {@code limit} of them, taken from the newest end of that
+     * range if {@code newest} is true, or the oldest end otherwise.
+     *
+     * @param user User to send history to
+     * @param target Channel to send history for
+     * @param after Only send messages after this time, or 0 for no limit.
+     * @param before Only send messages before this time, or 0 for no limit.
+     * @param limit Maximum number of messages to send.
+     * @param newest Send the newest messages in the range, not the oldest.
+     * @return False if history can not be sent for the given target.
+     */
+    boolean sendHistory(final UserSocket user, final String target, final long after, final long before, final int limit, final boolean newest);
+
     /**
      * Called to make the BNC fake lines to the client on disconnect.
      *
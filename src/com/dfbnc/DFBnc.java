@@ -28,9 +28,11 @@ import com.dfbnc.commands.admin.*;
 import com.dfbnc.commands.user.*;
 import com.dfbnc.config.Config;
 import com.dfbnc.config.ConfigFileConfig;
+import com.dfbnc.config.ConfigWriter;
 import com.dfbnc.config.DefaultsConfig;
 import com.dfbnc.config.ReadOnlyConfig;
 import com.dfbnc.servers.ServerTypeManager;
+import com.dfbnc.servers.logging.LogWriter;
 import com.dfbnc.sockets.NewSocketReadyHandler;
 import com.dfbnc.sockets.ListenSocket;
 import com.dfbnc.sockets.UserSocket;
@@ -93,6 +95,9 @@ public class DFBnc implements NewSocketReadyHandler {
     /** The account manager for this bnc */
     private static AccountManager accountManager = new AccountManager();
 
+    /** The connect scheduler for this bnc */
+    private static ConnectScheduler connectScheduler = new ConnectScheduler();
+
     /** The provider manager for this bnc */
     private static AuthProviderManager authProviderManager = new AuthProviderManager();
 
@@ -314,12 +319,13 @@ public class DFBnc implements NewSocketReadyHandler {
             Logger.warning("`-----------------------------------------------------'");
         }
 
-        // By now, we will have forked if required.
+        // By now, we will have forked if required. Open the listen sockets
+        // first so that users can attach to accounts as soon as they load.
+        openListenSockets();
+
         Logger.info("Loading Accounts..");
         accountManager.loadAccounts();
 
-        openListenSockets();
-
         // Check UserSockets every FREQUENCY seconds for inactivity, with a
         // threshold of THRESHOLD.
         // This will cause sockets to send an initial PING once the threshold has been hit
@@ -544,11 +550,13 @@ public class DFBnc implements NewSocketReadyHandler {
         Logger.info("Saving Accounts");
         accountManager.shutdown();
         accountManager.saveAccounts();
+        LogWriter.awaitShutdown(5000);
 
         if (config != null) {
             Logger.info("Saving config to '"+configFile+"'");
             config.save();
         }
+        ConfigWriter.flush();
 
         if (DFBncDaemon.canFork() && daemon.isDaemonized()) {
             if (!pidFile.isEmpty()) {
@@ -643,6 +651,15 @@ public class DFBnc implements NewSocketReadyHandler {
         return accountManager;
     }
 
+    /**
+     * Get the ConnectScheduler
+     *
+     * @return The ConnectScheduler
+     */
+    public static ConnectScheduler getConnectScheduler() {
+        return connectScheduler;
+    }
+
     /**
      * Get the AuthProviderManager
      *
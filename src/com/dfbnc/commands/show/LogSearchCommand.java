@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.commands.show;
+
+import com.dfbnc.commands.Command;
+import com.dfbnc.commands.CommandManager;
+import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.servers.logging.LogIndex;
+import com.dfbnc.servers.logging.ServerLogger;
+import com.dfbnc.sockets.UserSocket;
+import com.dfbnc.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This file represents the 'logsearch' show command
+ */
+public class LogSearchCommand extends Command {
+
+    /** Maximum number of lines to show. */
+    private static final int MAX_RESULTS = 20;
+
+    /**
+     * Handle a LogSearch command.
+     *
+     * @param user the UserSocket that performed this command
+     * @param params Params for command (param 0 is the command name)
+     * @param output CommandOutputBuffer where output from this command should go.
+     */
+    @Override
+    public void handle(final UserSocket user, final String[] params, final CommandOutputBuffer output) {
+        if (params.length < 3) {
+            output.addBotMessage("You need to specify something to search for.");
+            output.addBotMessage("Syntax: /dfbnc %s %s <words>", params[0], params[1]);
+            return;
+        }
+
+        final ServerLogger logger = user.getAccount().getServerLogger();
+        if (logger == null) {
+            output.addBotMessage("Logging is not enabled for this account.");
+            return;
+        }
+
+        final String query = Util.joinString(params, " ", 2, 2);
+        final long start = System.currentTimeMillis();
+        final List<LogIndex.Match> matches;
+        try {
+            matches = logger.searchLogs(query, MAX_RESULTS);
+        } catch (final IOException ex) {
+            output.addBotMessage("Unable to search logs: %s", ex.getMessage());
+            return;
+        }
+
+        if (matches == null) {
+            output.addBotMessage("Logs are not being indexed, enable them with: /dfbnc serverset logindex true");
+        } else if (matches.isEmpty()) {
+            output.addBotMessage("No log lines matched '%s'.", query);
+        } else {
+            output.addBotMessage("Most recent %s log lines matching '%s' (%sms):", matches.size(), query, System.currentTimeMillis() - start);
+            output.addBotMessage("");
+            for (LogIndex.Match match : matches) {
+                output.addBotMessage("    %s: %s", new File(match.getFilename()).getName(), match.getLine());
+            }
+        }
+    }
+
+    /**
+     * What does this Command handle.
+     *
+     * @return String[] with the names of the tokens we handle.
+     */
+    @Override
+    public String[] handles() {
+        return new String[]{"logsearch"};
+    }
+
+    /**
+     * Create a new instance of the Command Object
+     *
+     * @param manager CommandManager that is in charge of this Command
+     */
+    public LogSearchCommand(final CommandManager manager) { super(manager); }
+
+    /**
+     * Get a description of what this command does
+     *
+     * @param command The command to describe (incase one Command does multiple
+     *                things under different names)
+     * @return A description of what this command does
+     */
+    @Override
+    public String getDescription(final String command) {
+        return "This command searches your server-side logs";
+    }
+}
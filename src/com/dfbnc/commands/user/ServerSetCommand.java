@@ -58,8 +58,18 @@ public class ServerSetCommand extends AbstractSetCommand {
         validParams.put("privatebackbuffer", new ParamInfo("Number of lines to store as backbuffer for private messages (0 to disable).", ParamType.INT, true));
         validParams.put("privatebackbuffertimeout", new ParamInfo("How long in seconds to permit messages to be stored in the private message backbuffer (0 to disable).", ParamType.INT, true));
         validParams.put("privatebackbuffertimestamp", new ParamInfo("Force timestamp prepends on private message backbuffers?", ParamType.BOOL, true));
+        validParams.put("backbuffersincelastseen", new ParamInfo("Only send backbuffer received since this client was last connected?", ParamType.BOOL, true));
+        validParams.put("backbufferstorage", new ParamInfo("How to store backbuffers in memory (memory, compact or mapped to keep them on disk across restarts).", ParamType.WORD, false));
         validParams.put("userdisconnect", new ParamInfo("Disconnect user if the server disconnects us.", ParamType.BOOL, false));
         validParams.put("logging", new ParamInfo("Enable server-side logging of events.", ParamType.BOOL, false));
+        validParams.put("logdurability", new ParamInfo("How often to write log lines to disk (buffered, flush after each batch, or sync after each batch).", ParamType.WORD, false));
+        validParams.put("logmaxopenfiles", new ParamInfo("Maximum number of log files to keep open at once.", ParamType.INT, false));
+        validParams.put("logidletime", new ParamInfo("How long in seconds to keep unused log files open.", ParamType.INT, false));
+        validParams.put("logrotate", new ParamInfo("When to rotate and compress log files (none, daily, or size).", ParamType.WORD, false));
+        validParams.put("logrotatesize", new ParamInfo("Size in KB to rotate log files at, if logrotate is size.", ParamType.INT, false));
+        validParams.put("logindex", new ParamInfo("Index server-side logs so they can be searched with 'show logsearch'.", ParamType.BOOL, false));
+        validParams.put("logrecords", new ParamInfo("Also log events in a structured binary format (takes effect on reconnect).", ParamType.BOOL, false));
+        validParams.put("logsegments", new ParamInfo("Number of rotated log segments to keep for each log (0 to keep them all).", ParamType.INT, false));
     }
 
     /**
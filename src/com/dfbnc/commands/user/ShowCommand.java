@@ -29,6 +29,7 @@ import com.dfbnc.commands.CommandOutputBuffer;
 import com.dfbnc.commands.show.ConnectionsCommand;
 import com.dfbnc.commands.show.FirstTimeCommand;
 import com.dfbnc.commands.show.ListUsersCommand;
+import com.dfbnc.commands.show.LogSearchCommand;
 import com.dfbnc.commands.show.LoggingCommand;
 import com.dfbnc.commands.show.ShowCommandsCommand;
 import com.dfbnc.commands.show.SystemCommand;
@@ -142,6 +143,7 @@ public class ShowCommand extends Command {
         showManager.addCommand(new ConnectionsCommand(showManager));
         showManager.addCommand(new SystemCommand(showManager));
         showManager.addCommand(new LoggingCommand(showManager));
+        showManager.addCommand(new LogSearchCommand(showManager));
         showManager.addCommand(new Command(showManager){
 
             @Override
@@ -172,6 +172,41 @@ public interface Config {
      */
     public Integer getOptionInt(final String domain, final String option);
 
+    /**
+     * Gets a cached handle to the specified option as a boolean. The handle
+     * is kept up to date as the option changes.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     * <p/>
+     * @return Handle to the option, whose value is false if it is not set
+     */
+    public ConfigKey<Boolean> boolKey(final String domain, final String option);
+
+    /**
+     * Gets a cached handle to the specified option as an integer. The handle
+     * is kept up to date as the option changes.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     * <p/>
+     * @return Handle to the option, whose value is null if it is not set or
+     *         is not a valid integer
+     */
+    public ConfigKey<Integer> intKey(final String domain, final String option);
+
+    /**
+     * Gets a cached handle to the specified option as a list. The handle is
+     * kept up to date as the option changes.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     * <p/>
+     * @return Handle to the option, whose value is an unmodifiable list that
+     *         is empty if the option is not set
+     */
+    public ConfigKey<List<String>> listKey(final String domain, final String option);
+
     /**
      * Determines if this source has a value for the specified option which
      * matches the specified validator.
@@ -25,9 +25,15 @@ package com.dfbnc.config;
 import com.dmdirc.util.io.ConfigFile;
 import com.dmdirc.util.io.InvalidConfigFileException;
 import com.dmdirc.util.validators.Validator;
+import com.dfbnc.util.Util;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -40,6 +46,10 @@ public class ConfigFileConfig extends ConfigImpl {
      * User level configuration file, overrides defaults.
      */
     private final ConfigFile config;
+    /**
+     * File this config is saved to, or null if it was read from a stream.
+     */
+    private final Path file;
 
     /**
      * Creates a new configuration file, creating the file is needed.
@@ -58,7 +68,8 @@ public class ConfigFileConfig extends ConfigImpl {
             }
          }
 
-        this.config = new ConfigFile(file.toPath());
+        this.file = file.toPath();
+        this.config = new ConfigFile(this.file);
 
         init();
     }
@@ -70,6 +81,7 @@ public class ConfigFileConfig extends ConfigImpl {
      */
     public ConfigFileConfig(final InputStream stream) throws IOException, InvalidConfigFileException {
         super();
+        this.file = null;
         this.config = new ConfigFile(stream);
 
         init();
@@ -77,12 +89,9 @@ public class ConfigFileConfig extends ConfigImpl {
 
     @Override
     public String getOption(final String domain, final String option, final Validator<String> validator) {
-        String value = null;
-        try {
-            value = config.getKeyDomain(domain).get(option);
-        } catch (final Exception e) { /** Option not found in this config. */ }
+        String value = config.hasDomain(domain) ? config.getKeyDomain(domain).get(option) : null;
 
-        if (validator.validate(value).isFailure()) {
+        if (value != null && validator.validate(value).isFailure()) {
             value = null;
         }
 
@@ -95,14 +104,20 @@ public class ConfigFileConfig extends ConfigImpl {
 
     @Override
     public void setOption(final String domain, final String option, final String value) {
-        config.getKeyDomain(domain).put(option, value);
+        synchronized (config) {
+            config.getKeyDomain(domain).put(option, value);
+        }
+        save();
 
         callListeners(domain, option);
     }
 
     @Override
     public void unsetOption(final String domain, final String option) {
-        config.getKeyDomain(domain).remove(option);
+        synchronized (config) {
+            config.getKeyDomain(domain).remove(option);
+        }
+        save();
 
         callListeners(domain, option);
     }
@@ -124,13 +139,55 @@ public class ConfigFileConfig extends ConfigImpl {
         return config.getKeyDomains().keySet();
     }
 
+    /**
+     * Schedules this config to be written to disk shortly. Changes are also
+     * saved automatically, so this only needs to be called to force a write
+     * of an unchanged config. Use {@link ConfigWriter#flush()} to write any
+     * pending changes immediately.
+     */
     @Override
     public void save() {
-        try {
-            config.write();
-        } catch (IOException ex) {
-            //Oh shit.
+        if (file != null) {
+            ConfigWriter.schedule(this);
+        }
+    }
+
+    /**
+     * Gets the file this config is saved to.
+     *
+     * @return File path, or null if this config was read from a stream
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Writes this config to disk. The config is written to a temporary file
+     * which is synced and then moved over the existing file, so a crash part
+     * way through can not leave a truncated config behind.
+     *
+     * @throws IOException If the config could not be written
+     */
+    synchronized void writeFile() throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            // The config has been deleted along with its directory (e.g. the
+            // account was deleted), so don't recreate it.
+            return;
+        }
+
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        final ConfigFile copy = new ConfigFile(temp);
+        synchronized (config) {
+            for (Map.Entry<String, List<String>> entry : config.getFlatDomains().entrySet()) {
+                copy.addDomain(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+            for (Map.Entry<String, Map<String, String>> entry : config.getKeyDomains().entrySet()) {
+                copy.addDomain(entry.getKey(), new HashMap<>(entry.getValue()));
+            }
         }
+        copy.write();
+        Util.replaceFile(temp, file);
     }
 
     /**
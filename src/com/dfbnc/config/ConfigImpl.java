@@ -28,9 +28,12 @@ import com.dmdirc.util.validators.Validator;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Single layer configuration
@@ -45,6 +48,12 @@ public abstract class ConfigImpl implements Config {
      * Configuration change listeners.
      */
     private final Map<String, List<ConfigChangeListener>> listeners = new HashMap<>();
+    /** Cached boolean handles. */
+    private final KeyTable<Boolean> boolKeys = new KeyTable<>();
+    /** Cached integer handles. */
+    private final KeyTable<Integer> intKeys = new KeyTable<>();
+    /** Cached list handles. */
+    private final KeyTable<List<String>> listKeys = new KeyTable<>();
 
     /**
      * Creates a new configuration file, creating the file is needed.
@@ -124,6 +133,35 @@ public abstract class ConfigImpl implements Config {
         return getOptionInt(domain, option, permissiveValidator);
     }
 
+    @Override
+    public ConfigKey<Boolean> boolKey(final String domain, final String option) {
+        return boolKeys.get(domain, option, () -> hasOption(domain, option) && getOptionBool(domain, option));
+    }
+
+    @Override
+    public ConfigKey<Integer> intKey(final String domain, final String option) {
+        return intKeys.get(domain, option, () -> hasOption(domain, option) ? getOptionInt(domain, option) : null);
+    }
+
+    @Override
+    public ConfigKey<List<String>> listKey(final String domain, final String option) {
+        return listKeys.get(domain, option, () -> hasOption(domain, option)
+                ? Collections.unmodifiableList(getOptionList(domain, option))
+                : Collections.<String>emptyList());
+    }
+
+    /**
+     * Re-reads any cached handles for the given option.
+     *
+     * @param domain the domain that changed
+     * @param option the option that changed
+     */
+    protected void refreshKeys(final String domain, final String option) {
+        boolKeys.refresh(domain, option);
+        intKeys.refresh(domain, option);
+        listKeys.refresh(domain, option);
+    }
+
     @Override
     public String getOption(final String domain, final String option) {
         return getOption(domain, option, permissiveValidator);
@@ -177,6 +215,8 @@ public abstract class ConfigImpl implements Config {
      * @param option the option that changed
      */
     protected void callListeners(final String domain, final String option) {
+        refreshKeys(domain, option);
+
         if (listeners.containsKey(domain)) {
             for (final ConfigChangeListener listener : listeners.get(domain)) {
                 listener.configChanged(this, domain, option);
@@ -193,4 +233,54 @@ public abstract class ConfigImpl implements Config {
             }
         }
     }
+
+    /**
+     * Cached handles of a single type, by domain then option name.
+     *
+     * @param <T> Type of the handles' values
+     */
+    private static class KeyTable<T> {
+
+        /** Handles, by domain then option name. */
+        private final Map<String, Map<String, ConfigKey<T>>> keys = new ConcurrentHashMap<>();
+
+        /**
+         * Gets the handle for the given option, creating it if needed.
+         *
+         * @param domain The domain of the option
+         * @param option The name of the option
+         * @param reader Reads and parses the current value of the option
+         * @return Handle for the option
+         */
+        public ConfigKey<T> get(final String domain, final String option, final Supplier<T> reader) {
+            final Map<String, ConfigKey<T>> options = keys.computeIfAbsent(domain, d -> new ConcurrentHashMap<>());
+            ConfigKey<T> key = options.get(option);
+            if (key == null) {
+                final ConfigKey<T> newKey = new ConfigKey<>(reader);
+                newKey.refresh();
+                key = options.putIfAbsent(option, newKey);
+                if (key == null) {
+                    // Read the value again now the key is visible, in case
+                    // the option changed before it could be refreshed.
+                    newKey.refresh();
+                    key = newKey;
+                }
+            }
+            return key;
+        }
+
+        /**
+         * Re-reads the handle for the given option, if there is one.
+         *
+         * @param domain The domain of the option
+         * @param option The name of the option
+         */
+        public void refresh(final String domain, final String option) {
+            final Map<String, ConfigKey<T>> options = keys.get(domain);
+            final ConfigKey<T> key = options == null ? null : options.get(option);
+            if (key != null) {
+                key.refresh();
+            }
+        }
+    }
 }
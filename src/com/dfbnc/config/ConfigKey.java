@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.config;
+
+import java.util.function.Supplier;
+
+/**
+ * A cached, pre-parsed handle to a single config option.
+ * <p>
+ * The value is read and parsed once, and then re-read whenever the owning
+ * config reports that the option has changed, so {@link #get()} is just a
+ * field read.
+ *
+ * @param <T> Type of the option's value
+ */
+public final class ConfigKey<T> {
+
+    /** Reads and parses the current value of the option. */
+    private final Supplier<T> reader;
+    /** Current parsed value. */
+    private volatile T value;
+
+    /**
+     * Creates a new config key. The key is not populated until
+     * {@link #refresh()} is called.
+     *
+     * @param reader Reads and parses the current value of the option
+     */
+    ConfigKey(final Supplier<T> reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Gets the current value of this option.
+     *
+     * @return The parsed value of the option
+     */
+    public T get() {
+        return value;
+    }
+
+    /**
+     * Re-reads the value of this option from the config.
+     */
+    synchronized void refresh() {
+        value = reader.get();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable, flattened view of the options visible through a config at the
+ * time it was taken.
+ */
+final class ConfigSnapshot {
+
+    /** Empty snapshot. */
+    static final ConfigSnapshot EMPTY = new ConfigSnapshot(Collections.emptyMap());
+
+    /** Resolved options, by domain then option name. */
+    private final Map<String, Map<String, String>> domains;
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param domains Resolved options, by domain then option name. This map
+     *                and its values must not be modified afterwards.
+     */
+    private ConfigSnapshot(final Map<String, Map<String, String>> domains) {
+        this.domains = domains;
+    }
+
+    /**
+     * Creates a new snapshot of the given config, with any options it
+     * contains overriding those in this snapshot.
+     *
+     * @param config Config to overlay on this snapshot
+     * @return A new snapshot containing the combined options
+     */
+    ConfigSnapshot overlay(final Config config) {
+        final Map<String, Map<String, String>> result = new HashMap<>();
+        domains.forEach((domain, options) -> result.put(domain, new HashMap<>(options)));
+
+        for (final String domain : config.getDomains()) {
+            final Map<String, String> options = config.getOptions(domain);
+            if (options == null || options.isEmpty()) {
+                continue;
+            }
+            final Map<String, String> target = result.computeIfAbsent(domain, d -> new HashMap<>());
+            options.forEach((option, value) -> {
+                if (value != null) {
+                    target.put(option, value);
+                }
+            });
+        }
+
+        result.replaceAll((domain, options) -> Collections.unmodifiableMap(options));
+        return new ConfigSnapshot(Collections.unmodifiableMap(result));
+    }
+
+    /**
+     * Creates a new snapshot with a single option changed. Only the map for
+     * the option's domain is copied.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     * @param value The new value of the option, or null to remove it
+     * @return A new snapshot containing the changed option
+     */
+    ConfigSnapshot with(final String domain, final String option, final String value) {
+        final Map<String, String> current = domains.get(domain);
+        if (Objects.equals(current == null ? null : current.get(option), value)) {
+            return this;
+        }
+
+        final Map<String, String> options = current == null ? new HashMap<>() : new HashMap<>(current);
+        if (value == null) {
+            options.remove(option);
+        } else {
+            options.put(option, value);
+        }
+
+        final Map<String, Map<String, String>> result = new HashMap<>(domains);
+        if (options.isEmpty()) {
+            result.remove(domain);
+        } else {
+            result.put(domain, Collections.unmodifiableMap(options));
+        }
+        return new ConfigSnapshot(Collections.unmodifiableMap(result));
+    }
+
+    /**
+     * Gets the value of the given option.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     * @return The value of the option, or null if it is not set
+     */
+    String get(final String domain, final String option) {
+        final Map<String, String> options = domains.get(domain);
+        return options == null ? null : options.get(option);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.config;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Writes changed config files to disk in the background.
+ *
+ * Changes to a config file are coalesced over a short window, so that a burst
+ * of changes (such as joining many channels at once) results in a single
+ * write. Other small files that change often, such as read markers, can be
+ * written the same way using {@link #schedule(Path, FileWrite)}.
+ */
+public final class ConfigWriter {
+
+    /** How long to wait after a change before writing, in milliseconds. */
+    private static final long WRITE_DELAY = 2000;
+    /** How long to wait before retrying a failed write, in milliseconds. */
+    private static final long RETRY_DELAY = 60 * 1000;
+    /** Executor used to write config files. */
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Config Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Files that have changes waiting to be written, and how to write them. */
+    private static final Map<Path, FileWrite> PENDING = new ConcurrentHashMap<>();
+
+    /**
+     * Prevent instantiation.
+     */
+    private ConfigWriter() {
+    }
+
+    /**
+     * Schedules the given config to be written, unless a write is already
+     * pending.
+     *
+     * @param config Config to write
+     */
+    static void schedule(final ConfigFileConfig config) {
+        schedule(config.getFile(), config::writeFile);
+    }
+
+    /**
+     * Schedules the given file to be written, unless a write is already
+     * pending. The write should save the latest state at the time it is run,
+     * as later changes to the file will not schedule another write until
+     * this one has started.
+     *
+     * @param file File that will be written
+     * @param write Writes the file
+     */
+    public static void schedule(final Path file, final FileWrite write) {
+        schedule(file.toAbsolutePath().normalize(), write, WRITE_DELAY);
+    }
+
+    /**
+     * Schedules the given file to be written after the given delay, unless a
+     * write is already pending.
+     *
+     * @param file Normalised path of the file that will be written
+     * @param write Writes the file
+     * @param delay Delay in milliseconds
+     */
+    private static void schedule(final Path file, final FileWrite write, final long delay) {
+        if (PENDING.putIfAbsent(file, write) == null) {
+            EXECUTOR.schedule(() -> write(file), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Cancels any pending write of the given file, such as when it is about
+     * to be deleted.
+     *
+     * @param file File to cancel the write of
+     */
+    public static void cancel(final Path file) {
+        PENDING.remove(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Checks if the given config has changes waiting to be written.
+     *
+     * @param config Config to check
+     * @return True if a write is pending
+     */
+    static boolean isPending(final ConfigFileConfig config) {
+        return PENDING.containsKey(config.getFile().toAbsolutePath().normalize());
+    }
+
+    /**
+     * Immediately writes every config that has pending changes, on the
+     * calling thread.
+     */
+    public static void flush() {
+        new ArrayList<>(PENDING.keySet()).forEach(ConfigWriter::write);
+    }
+
+    /**
+     * Writes the given file, if it still has pending changes. Failures are
+     * reported and the write is retried later.
+     *
+     * @param file Normalised path of the file to write
+     */
+    private static void write(final Path file) {
+        final FileWrite write = PENDING.remove(file);
+        if (write == null) {
+            // Already written by a flush, or cancelled.
+            return;
+        }
+
+        try {
+            write.write();
+        } catch (final IOException | RuntimeException ex) {
+            Logger.error("Unable to save file '" + file + "': " + ex.getMessage());
+            schedule(file, write, RETRY_DELAY);
+        }
+    }
+
+    /**
+     * Writes a file scheduled with {@link ConfigWriter}.
+     */
+    @FunctionalInterface
+    public interface FileWrite {
+
+        /**
+         * Writes the file.
+         *
+         * @throws IOException If the file could not be written
+         */
+        void write() throws IOException;
+    }
+}
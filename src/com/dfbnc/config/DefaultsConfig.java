@@ -25,8 +25,11 @@ package com.dfbnc.config;
 import com.dmdirc.util.io.InvalidConfigFileException;
 import com.dmdirc.util.validators.Validator;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Single layer configuration
@@ -41,6 +44,15 @@ public class DefaultsConfig extends ConfigImpl {
      * System level configuration file used for defaults.
      */
     private final Config defaults;
+    /**
+     * Resolved view of both configs, rebuilt whenever either changes.
+     */
+    private volatile ConfigSnapshot snapshot = ConfigSnapshot.EMPTY;
+    /**
+     * Configs that use this one as their defaults. These are held weakly so
+     * that subclient configs that are no longer used can be collected.
+     */
+    private final List<WeakReference<DefaultsConfig>> dependents = new CopyOnWriteArrayList<>();
 
     /**
      * Creates a new configuration file, creating the file is needed.
@@ -55,26 +67,109 @@ public class DefaultsConfig extends ConfigImpl {
         }
 
         init();
+
+        final ConfigChangeListener listener = (changed, domain, setting) -> layerChanged(domain, setting);
+        config.addChangeListener(listener);
+        if (defaults instanceof DefaultsConfig) {
+            ((DefaultsConfig) defaults).dependents.add(new WeakReference<>(this));
+        } else {
+            defaults.addChangeListener(listener);
+        }
+        rebuildSnapshot();
     }
 
-    @Override
-    public String getOption(final String domain, final String option, final Validator<String> validator) {
-        String value = null;
-        try {
-            value = config.getOption(domain, option, validator);
-        } catch (final NullPointerException npe) { }
+    /**
+     * Called when an option changes in either layer, or anywhere beneath
+     * them. This updates the resolved values of this config and any configs
+     * that depend on it, without notifying listeners of inherited changes.
+     *
+     * @param domain the domain that changed
+     * @param option the option that changed
+     */
+    private void layerChanged(final String domain, final String option) {
+        if (domain == null || option == null) {
+            rebuildSnapshot();
+        } else {
+            updateSnapshot(domain, option);
+        }
+        refreshKeys(domain, option);
+
+        for (WeakReference<DefaultsConfig> reference : dependents) {
+            final DefaultsConfig dependent = reference.get();
+            if (dependent == null) {
+                dependents.remove(reference);
+            } else {
+                dependent.layerChanged(domain, option);
+            }
+        }
+    }
 
+    /**
+     * Updates the resolved value of a single option in the snapshot.
+     *
+     * @param domain the domain of the option
+     * @param option the name of the option
+     */
+    private synchronized void updateSnapshot(final String domain, final String option) {
+        String value = getLayerValue(config, domain, option);
         if (value == null) {
-            try {
-                value = defaults.getOption(domain, option, validator);
-            } catch (final NullPointerException npe) { }
+            value = defaults instanceof DefaultsConfig
+                    ? ((DefaultsConfig) defaults).snapshot.get(domain, option)
+                    : getLayerValue(defaults, domain, option);
         }
+        snapshot = snapshot.with(domain, option, value);
+    }
 
-        if (value == null) {
-            throw new NullPointerException("No such config option: " + domain + "." + option);
+    /**
+     * Gets the value of an option set directly in the given config.
+     *
+     * @param layer Config to look in
+     * @param domain the domain of the option
+     * @param option the name of the option
+     * @return The value of the option, or null if it is not set.
+     */
+    private static String getLayerValue(final Config layer, final String domain, final String option) {
+        final Map<String, String> options = layer.getOptions(domain);
+        return options == null ? null : options.get(option);
+    }
+
+    /**
+     * Gets the number of configs that use this one as their defaults and
+     * have not been collected yet.
+     *
+     * @return Number of dependent configs.
+     */
+    int getDependentCount() {
+        dependents.removeIf(reference -> reference.get() == null);
+        return dependents.size();
+    }
+
+    /**
+     * Rebuilds the resolved snapshot from the current contents of both
+     * configs. When the defaults are themselves a {@link DefaultsConfig} its
+     * own snapshot is used, so that inherited values are included.
+     */
+    private synchronized void rebuildSnapshot() {
+        final ConfigSnapshot base = defaults instanceof DefaultsConfig
+                ? ((DefaultsConfig) defaults).snapshot
+                : ConfigSnapshot.EMPTY.overlay(defaults);
+        snapshot = base.overlay(config);
+    }
+
+    @Override
+    public String getOption(final String domain, final String option, final Validator<String> validator) {
+        final String value = snapshot.get(domain, option);
+        if (value != null && !validator.validate(value).isFailure()) {
+            return value;
         }
 
-        return value;
+        // The resolved value failed validation, see if the defaults have one
+        // that passes instead.
+        if (value != null && !config.hasOption(domain, option, validator) && defaults.hasOption(domain, option, validator)) {
+            return defaults.getOption(domain, option, validator);
+        }
+
+        throw new NullPointerException("No such config option: " + domain + "." + option);
     }
 
     @Override
@@ -93,7 +188,12 @@ public class DefaultsConfig extends ConfigImpl {
 
     @Override
     public boolean hasOption(final String domain, final String option, final Validator<String> validator) {
-        return config.hasOption(domain, option, validator) || defaults.hasOption(domain, option, validator);
+        final String value = snapshot.get(domain, option);
+        if (value == null) {
+            return false;
+        }
+        return !validator.validate(value).isFailure()
+                || config.hasOption(domain, option, validator) || defaults.hasOption(domain, option, validator);
     }
 
      @Override
@@ -79,6 +79,21 @@ public class ReadOnlyConfig implements Config {
         return config.getOptionInt(domain, option);
     }
 
+    @Override
+    public ConfigKey<Boolean> boolKey(final String domain, final String option) {
+        return config.boolKey(domain, option);
+    }
+
+    @Override
+    public ConfigKey<Integer> intKey(final String domain, final String option) {
+        return config.intKey(domain, option);
+    }
+
+    @Override
+    public ConfigKey<List<String>> listKey(final String domain, final String option) {
+        return config.listKey(domain, option);
+    }
+
     @Override
     public boolean hasOption(final String domain, final String option, final Validator<String> validator) {
         return config.hasOption(domain, option, validator);
@@ -131,4 +131,15 @@ public abstract class ServerType implements UserSocketWatcher {
      * @throws UnableToConnectException If there is a problem connecting to the server
      */
     public abstract ConnectionHandler newConnectionHandler(final Account acc, final int serverNum) throws UnableToConnectException;
+
+    /**
+     * Get a key identifying where connections for the given account will be
+     * made, used to limit how quickly we connect to the same place.
+     *
+     * @param acc Account that wants to connect
+     * @return Destination of the account's connections
+     */
+    public String getConnectDestination(final Account acc) {
+        return getLowerName();
+    }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.irc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps track of which sockets are active and allowed in each channel, so
+ * that channel lines can be routed without checking each socket's settings.
+ * <p>
+ * Bursty clients are always active, so are allowed in every channel on their
+ * channel whitelist, or every channel if they don't have one. Other clients
+ * are allowed in the channels they have activated, as we check if the client
+ * is allowed in a channel when it joins.
+ * <p>
+ * A socket's routes must be updated with {@link #update(Object)} or
+ * {@link #updateAll()} whenever its autoburst setting or channel whitelist
+ * changes. All changes are made while holding the lock on this object, and
+ * add a socket's new routes before removing its old ones, so lookups made
+ * without the lock never miss a socket in a channel it stays in.
+ *
+ * @param <T> Type of socket being routed
+ */
+class ChannelRouter<T> {
+
+    /** Checks if a socket is still open. */
+    private final Predicate<T> isOpen;
+    /** Checks if a socket is bursty. */
+    private final Predicate<T> isAutoburst;
+    /** Gets the lower-cased channel whitelist for a socket. */
+    private final Function<T, Set<String>> whitelist;
+    /** Lower-cases channel names. */
+    private final UnaryOperator<String> toLowerCase;
+    /** Channels that each non-bursty socket has activated, lower-cased. */
+    private final Map<T, Set<String>> activeChannels = new HashMap<>();
+    /** Sockets that are active and allowed in every channel. */
+    private final Set<T> allChannelSockets = ConcurrentHashMap.newKeySet();
+    /**
+     * Sockets that are active and allowed in each channel, by lower-cased
+     * channel name. Each set also contains {@link #allChannelSockets}.
+     */
+    private final Map<String, Set<T>> channelRoutes = new ConcurrentHashMap<>();
+    /**
+     * Sockets that have been added to the channel routes, and the channels
+     * each is routed to individually. Sockets in {@link #allChannelSockets}
+     * are not routed to any channels individually.
+     */
+    private final Map<T, Set<String>> routedSockets = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new ChannelRouter.
+     *
+     * @param isOpen Checks if a socket is still open
+     * @param isAutoburst Checks if a socket is bursty
+     * @param whitelist Gets the lower-cased channel whitelist for a socket,
+     *                  where an empty set allows every channel
+     * @param toLowerCase Lower-cases channel names
+     */
+    ChannelRouter(final Predicate<T> isOpen, final Predicate<T> isAutoburst,
+            final Function<T, Set<String>> whitelist, final UnaryOperator<String> toLowerCase) {
+        this.isOpen = isOpen;
+        this.isAutoburst = isAutoburst;
+        this.whitelist = whitelist;
+        this.toLowerCase = toLowerCase;
+    }
+
+    /**
+     * Get the sockets that are active and allowed in the given channel.
+     * Sockets that have not been seen before are not included until they
+     * are passed to {@link #isRouted(Object, Set)} or {@link #update(Object)}.
+     *
+     * @param channel Channel Name
+     * @return Set of sockets, which must not be modified.
+     */
+    Set<T> getRoute(final String channel) {
+        final Set<T> route = channelRoutes.get(toLowerCase.apply(channel));
+        return (route == null) ? allChannelSockets : route;
+    }
+
+    /**
+     * Check if the given socket is in the given channel route, adding the
+     * socket to the routes first if it has not been seen before.
+     *
+     * @param socket Socket we are checking.
+     * @param route Route from {@link #getRoute(String)}
+     * @return True if the socket is in the route.
+     */
+    boolean isRouted(final T socket, final Set<T> route) {
+        if (!routedSockets.containsKey(socket) && isOpen.test(socket)) {
+            update(socket);
+        }
+        return route.contains(socket);
+    }
+
+    /**
+     * Is this socket active and allowed in the given channel?
+     *
+     * @param socket Socket we are checking.
+     * @param channel Channel Name
+     * @return True if this socket is active, else false.
+     */
+    boolean isRouted(final T socket, final String channel) {
+        return isRouted(socket, getRoute(channel));
+    }
+
+    /**
+     * Activate a channel for a non-bursty socket.
+     *
+     * @param socket Socket to activate channel for.
+     * @param channel Channel to activate.
+     */
+    synchronized void activate(final T socket, final String channel) {
+        activeChannels.computeIfAbsent(socket, s -> new LinkedHashSet<>()).add(toLowerCase.apply(channel));
+        update(socket);
+    }
+
+    /**
+     * De-activate a channel for a non-bursty socket. If a null socket is
+     * passed, then the channel is deactivated for every socket.
+     *
+     * @param socket Socket to deactivate channel for, or null.
+     * @param channel Channel to deactivate.
+     */
+    synchronized void deactivate(final T socket, final String channel) {
+        final String lowerChannel = toLowerCase.apply(channel);
+        if (socket == null) {
+            activeChannels.values().forEach(channels -> channels.remove(lowerChannel));
+            new ArrayList<>(activeChannels.keySet()).forEach(this::update);
+        } else if (activeChannels.containsKey(socket)) {
+            activeChannels.get(socket).remove(lowerChannel);
+            update(socket);
+        }
+    }
+
+    /**
+     * Forget about a socket, including the channels it has activated.
+     *
+     * @param socket Socket to remove
+     */
+    synchronized void remove(final T socket) {
+        activeChannels.remove(socket);
+        removeRoutes(socket);
+    }
+
+    /**
+     * Recalculate the channel routes for every socket we know about.
+     */
+    synchronized void updateAll() {
+        new ArrayList<>(routedSockets.keySet()).forEach(this::update);
+    }
+
+    /**
+     * Recalculate which channels the given socket is active and allowed in.
+     *
+     * @param socket Socket to update
+     */
+    synchronized void update(final T socket) {
+        if (!isOpen.test(socket)) {
+            removeRoutes(socket);
+            return;
+        }
+
+        // Null means every channel.
+        final Set<String> channels;
+        if (isAutoburst.test(socket)) {
+            final Set<String> allowed = whitelist.apply(socket);
+            channels = allowed.isEmpty() ? null : new HashSet<>(allowed);
+        } else if (activeChannels.containsKey(socket)) {
+            channels = new HashSet<>(activeChannels.get(socket));
+        } else {
+            channels = Collections.emptySet();
+        }
+
+        final Set<String> oldChannels = routedSockets.get(socket);
+        final boolean wasAll = allChannelSockets.contains(socket);
+        if (channels == null) {
+            allChannelSockets.add(socket);
+            channelRoutes.values().forEach(route -> route.add(socket));
+            routedSockets.put(socket, Collections.emptySet());
+            return;
+        }
+
+        channels.forEach(channel -> addRoute(channel, socket));
+        routedSockets.put(socket, channels);
+        if (wasAll) {
+            allChannelSockets.remove(socket);
+            removeRoutes(socket, route -> !channels.contains(route));
+        } else if (oldChannels != null) {
+            removeRoutes(socket, route -> oldChannels.contains(route) && !channels.contains(route));
+        }
+    }
+
+    /**
+     * Add a socket to the route for a channel. Must be called while holding
+     * the lock on this object.
+     *
+     * @param channel Lower-cased channel name
+     * @param socket Socket to add
+     */
+    private void addRoute(final String channel, final T socket) {
+        channelRoutes.computeIfAbsent(channel, c -> {
+            final Set<T> route = ConcurrentHashMap.newKeySet();
+            route.addAll(allChannelSockets);
+            return route;
+        }).add(socket);
+    }
+
+    /**
+     * Remove a socket from all channel routes. Must be called while holding
+     * the lock on this object.
+     *
+     * @param socket Socket to remove
+     */
+    private void removeRoutes(final T socket) {
+        if (routedSockets.remove(socket) == null) { return; }
+
+        allChannelSockets.remove(socket);
+        removeRoutes(socket, channel -> true);
+    }
+
+    /**
+     * Remove a socket from the routes for some channels, dropping any routes
+     * that are left empty. Must be called while holding the lock on this
+     * object.
+     *
+     * @param socket Socket to remove
+     * @param channels Checks if a lower-cased channel name should be removed
+     */
+    private void removeRoutes(final T socket, final Predicate<String> channels) {
+        channelRoutes.entrySet().removeIf(entry -> {
+            if (!channels.test(entry.getKey())) { return false; }
+            entry.getValue().remove(socket);
+            return entry.getValue().isEmpty();
+        });
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.irc;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * A channel whitelist, normalised for lookups.
+ * <p>
+ * Each channel name is lower-cased once when the whitelist is built, so that
+ * checking a channel only needs the channel itself to be lower-cased. An
+ * empty whitelist means that every channel is allowed.
+ */
+public class ChannelWhitelist {
+
+    /** The config list this whitelist was built from. */
+    private final List<String> source;
+    /** Lower-cased channel names. */
+    private final Set<String> channels;
+
+    /**
+     * Creates a new ChannelWhitelist.
+     *
+     * @param source The config list to build the whitelist from
+     * @param lowerCase Function used to lower-case channel names
+     */
+    public ChannelWhitelist(final List<String> source, final UnaryOperator<String> lowerCase) {
+        final Set<String> lowerChannels = new HashSet<>();
+        source.forEach(channel -> lowerChannels.add(lowerCase.apply(channel)));
+        this.source = source;
+        this.channels = Collections.unmodifiableSet(lowerChannels);
+    }
+
+    /**
+     * Checks if this whitelist was built from the given list. Config lists are
+     * replaced rather than modified when they change, so a whitelist can be
+     * reused for as long as this returns true.
+     *
+     * @param source Config list to check
+     * @return True if this whitelist was built from that list.
+     */
+    public boolean isBuiltFrom(final List<String> source) {
+        return this.source == source;
+    }
+
+    /**
+     * Gets the lower-cased channel names in this whitelist.
+     *
+     * @return Set of lower-cased channel names, which can not be modified.
+     */
+    public Set<String> getChannels() {
+        return channels;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.irc;
+
+import com.dfbnc.util.LiteralMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Checks lines against a list of highlight rules.
+ * <p>
+ * Each rule is a lower-cased regular expression that must match the whole
+ * lower-cased line once wrapped in {@code .*}, so plain text rules match
+ * anywhere in the line. Rules that are plain text are all checked at once
+ * with a {@link LiteralMatcher}, and the rest are combined into a single
+ * pattern where possible. Rules that are not valid regular expressions never
+ * match.
+ * <p>
+ * As {@code .} doesn't match line terminators, plain text rules are checked
+ * as patterns for lines that contain one. An empty rule matches every line
+ * without a line terminator.
+ */
+public class HighlightMatcher {
+
+    /** Characters that make a rule a regular expression rather than plain text. */
+    private static final String REGEX_CHARS = "\\.[]{}()*+?^$|";
+    /**
+     * Rules that can't safely be combined with others, such as those with back
+     * references or quoting. Rules are lower-cased first, so {@code \Q} is
+     * checked for as {@code \q}.
+     */
+    private static final Pattern UNCOMBINABLE = Pattern.compile("\\\\[1-9kq]");
+    /** Characters that {@code .} doesn't match. */
+    private static final String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+
+    /** The rules this matcher was built from. */
+    private final List<String> rules;
+    /** Matcher for all plain text rules. */
+    private final LiteralMatcher literals;
+    /** Is there an empty rule? */
+    private final boolean hasEmptyRule;
+    /** Patterns for all plain text rules, for lines with line terminators. */
+    private final List<Pattern> literalPatterns;
+    /** Patterns for all other rules. */
+    private final List<Pattern> patterns;
+
+    /**
+     * Creates a new matcher for the given rules.
+     *
+     * @param rules Highlight rules, as stored in the config
+     */
+    public HighlightMatcher(final List<String> rules) {
+        this.rules = rules;
+
+        final List<String> literalRules = new ArrayList<>();
+        final List<Pattern> literalPatterns = new ArrayList<>();
+        final List<String> combinable = new ArrayList<>();
+        final List<Pattern> separate = new ArrayList<>();
+        boolean hasEmptyRule = false;
+        for (String rule : rules) {
+            // Rules are lower-cased and matched against the lower-cased line.
+            final String lowerRule = rule.toLowerCase();
+            if (isLiteral(lowerRule)) {
+                // The literal matcher ignores empty strings, so remember
+                // these separately.
+                hasEmptyRule |= lowerRule.isEmpty();
+                literalRules.add(lowerRule);
+                literalPatterns.add(Pattern.compile(".*" + lowerRule + ".*"));
+                continue;
+            }
+
+            final String regex = ".*" + lowerRule + ".*";
+            final Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (final PatternSyntaxException ex) {
+                continue;
+            }
+            if (UNCOMBINABLE.matcher(lowerRule).find()) {
+                separate.add(pattern);
+            } else {
+                combinable.add(regex);
+            }
+        }
+
+        literals = new LiteralMatcher(literalRules);
+        this.hasEmptyRule = hasEmptyRule;
+        this.literalPatterns = literalPatterns;
+        patterns = new ArrayList<>(separate);
+        if (!combinable.isEmpty()) {
+            try {
+                patterns.add(Pattern.compile("(?:" + String.join(")|(?:", combinable) + ")"));
+            } catch (final PatternSyntaxException ex) {
+                // Each rule was valid on its own, so fall back to that.
+                combinable.forEach(rule -> patterns.add(Pattern.compile(rule)));
+            }
+        }
+    }
+
+    /**
+     * Checks if the given rule is plain text.
+     *
+     * @param rule Rule to check
+     * @return True if the rule contains no special regular expression characters.
+     */
+    private static boolean isLiteral(final String rule) {
+        for (int i = 0; i < rule.length(); i++) {
+            if (REGEX_CHARS.indexOf(rule.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the given line contains a line terminator.
+     *
+     * @param line Line to check
+     * @return True if the line contains any character that {@code .} doesn't match.
+     */
+    private static boolean hasLineTerminator(final String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (LINE_TERMINATORS.indexOf(line.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if this matcher was built from the given list of rules.
+     *
+     * @param rules List of rules to check
+     * @return True if this matcher was built from that exact list.
+     */
+    public boolean isBuiltFrom(final List<String> rules) {
+        return this.rules == rules;
+    }
+
+    /**
+     * Checks if the given line matches any of the rules.
+     *
+     * @param line Line to check
+     * @return True if the line should cause a highlight.
+     */
+    public boolean matches(final String line) {
+        final String lowerLine = line.toLowerCase();
+        if (hasLineTerminator(lowerLine)) {
+            for (Pattern pattern : literalPatterns) {
+                if (pattern.matcher(lowerLine).matches()) {
+                    return true;
+                }
+            }
+        } else if (hasEmptyRule || (!literals.isEmpty() && literals.containsAny(lowerLine))) {
+            return true;
+        }
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(lowerLine).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
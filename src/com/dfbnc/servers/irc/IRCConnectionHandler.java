@@ -27,13 +27,15 @@ import com.dfbnc.AccountConfigChangeListener;
 import com.dfbnc.ConnectionHandler;
 import com.dfbnc.Consts;
 import com.dfbnc.config.Config;
+import com.dfbnc.config.ConfigKey;
 import com.dfbnc.servers.logging.ServerLogger;
 import com.dfbnc.sockets.DebugFlag;
 import com.dfbnc.sockets.UnableToConnectException;
 import com.dfbnc.sockets.UserSocket;
 import com.dfbnc.sockets.UserSocketWatcher;
+import com.dfbnc.util.BackbufferList;
 import com.dfbnc.util.BackbufferMessage;
-import com.dfbnc.util.IRCLine;
+import com.dfbnc.util.CompactBackbufferList;
 import com.dfbnc.util.RollingList;
 import com.dfbnc.util.Util;
 import com.dmdirc.parser.common.AwayState;
@@ -72,17 +74,21 @@ import com.dmdirc.parser.irc.events.IRCDataInEvent;
 import com.dmdirc.parser.irc.outputqueue.OutputQueue;
 import com.dmdirc.parser.irc.outputqueue.PriorityOutputQueue;
 import com.dmdirc.parser.irc.outputqueue.SimpleRateLimitedOutputQueue;
+import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import net.engio.mbassy.listener.Handler;
 import uk.org.dataforce.libs.logger.LogLevel;
 import uk.org.dataforce.libs.logger.Logger;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.SimpleDateFormat;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -91,8 +97,11 @@ import java.util.Random;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 
@@ -104,6 +113,15 @@ import java.util.stream.Collectors;
  */
 public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatcher, AccountConfigChangeListener {
 
+    /** Name used for the private message backbuffer. */
+    private static final String PRIVATE_BACKBUFFER = "private";
+    /** Roughly how much output to send in one slice of a channel burst before pausing. */
+    private static final long BURST_HIGH_WATER = 65536;
+    /** How long in milliseconds to wait between slices of a channel burst. */
+    private static final long BURST_PAUSE = 10;
+    /** How long in seconds an idle burst thread is kept before it exits. */
+    private static final long BURST_THREAD_KEEPALIVE = 30;
+
     /** Account that this IRCConnectionHandler is for. */
     private final Account myAccount;
     /** Server we were supposed to connect to. */
@@ -129,13 +147,33 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     /** This stores a list of user sockets that we want to requeue all lines from and for temporarily. */
     private final List<UserSocket> forceRequeueList = new ArrayList<>();
     /** Private backbuffer list. */
-    private final RollingList<BackbufferMessage> privateBackbufferList;
+    private volatile BackbufferList privateBackbufferList;
+    /** Channels that have already been burst to users that are still being burst. */
+    private final Map<UserSocket, Set<String>> burstChannels = new ConcurrentHashMap<>();
+    /**
+     * Executor used to send channel bursts to newly attached clients. Each
+     * handler has its own, so a slow client only delays bursts and attach
+     * handling for its own account.
+     */
+    private final ScheduledThreadPoolExecutor burstExecutor;
     /** This timer handles keeping our nickname when we can't see the client. */
     private final Timer nickKeepTimer = new Timer("nickKeepTimer");
     /** Do we want to attempt to keep the nickname next time the timer fires? */
     private AtomicBoolean skipKeepNick = new AtomicBoolean(false);
-    /** This stores the list of active channels for non-bursty clients. */
-    private final Map<UserSocket,Set<String>> activeChannelList = new HashMap<>();
+    /** Whether we should try to regain our preferred nickname. */
+    private final ConfigKey<Boolean> keepNick;
+    /** Backbuffer lists created by this handler that have not been closed. */
+    private final Set<BackbufferList> backbufferLists = ConcurrentHashMap.newKeySet();
+    /** Active and allowed channels for each socket. */
+    private final ChannelRouter<UserSocket> channelRouter = new ChannelRouter<>(
+            UserSocket::isOpen,
+            user -> user.getClientConfig().boolKey("user", "autoburst").get(),
+            this::getChannelWhitelist,
+            this::toLowerCase);
+    /** Compiled highlight rules for each subclient config. */
+    private final Map<Config, HighlightMatcher> highlightMatchers = new ConcurrentHashMap<>();
+    /** Normalised channel whitelists for each subclient config. */
+    private final Map<Config, ChannelWhitelist> channelWhitelists = new ConcurrentHashMap<>();
     /**
      * Have we already closed this socket?
      * Used to prevent connection errors triggering handlerDisconnected twice.
@@ -164,7 +202,16 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     public IRCConnectionHandler(final Account acc, final int serverNum) {
         myAccount = acc;
         myServerNum = serverNum;
-        privateBackbufferList = new RollingList<>(getConfigMaxValue("server", "privatebackbuffer"));
+        keepNick = acc.getAccountConfig().boolKey("irc", "keepnick");
+        privateBackbufferList = newBackbufferList(PRIVATE_BACKBUFFER, getConfigMaxValue("server", "privatebackbuffer"));
+
+        burstExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "Channel Burst - " + acc.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        burstExecutor.setKeepAliveTime(BURST_THREAD_KEEPALIVE, TimeUnit.SECONDS);
+        burstExecutor.allowCoreThreadTimeOut(true);
     }
 
     @Override
@@ -247,7 +294,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         nickKeepTimer.schedule(new TimerTask() {
             @Override
             public void run() {
-                if (!parserReady || !myAccount.getAccountConfig().getOptionBool("irc", "keepnick") || skipKeepNick.getAndSet(false)) { return; }
+                if (!parserReady || !keepNick.get() || skipKeepNick.getAndSet(false)) { return; }
 
                 if (!myParser.getLocalClient().getNickname().equalsIgnoreCase(getKeepNick())) {
                     myParser.getLocalClient().setNickname(getKeepNick());
@@ -275,6 +322,78 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         return size;
     }
 
+    /**
+     * Create a new backbuffer list using the storage configured for the
+     * account.
+     *
+     * @param name Name of the channel, or {@link #PRIVATE_BACKBUFFER}
+     * @param capacity Capacity of the new list
+     * @return The new list
+     */
+    private BackbufferList newBackbufferList(final String name, final int capacity) {
+        final String storage = myAccount.getAccountConfig().getOption("server", "backbufferstorage");
+        BackbufferList list;
+        try {
+            list = BackbufferList.create(storage, capacity, getBackbufferFile(name));
+        } catch (final IOException ex) {
+            Logger.error("Unable to open backbuffer file for " + name + " on " + myAccount.getName() + ": " + ex.getMessage());
+            list = new CompactBackbufferList(capacity);
+        }
+        backbufferLists.add(list);
+        return list;
+    }
+
+    /**
+     * Flush and stop using the storage for a backbuffer list that this
+     * handler has finished with.
+     *
+     * @param list List to close, or null
+     */
+    private void closeBackbufferList(final BackbufferList list) {
+        if (list != null && backbufferLists.remove(list)) {
+            list.close();
+        }
+    }
+
+    /**
+     * Get the file used to store the backbuffer for the given channel when
+     * using "mapped" backbuffer storage.
+     *
+     * @param name Name of the channel, or {@link #PRIVATE_BACKBUFFER}
+     * @return File for the backbuffer
+     */
+    private File getBackbufferFile(final String name) {
+        final String lowerName = toLowerCase(name);
+        try {
+            return new File(new File(myAccount.getConfigDirectory(), "backbuffer"), URLEncoder.encode(lowerName, "UTF-8") + ".backbuffer");
+        } catch (final UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Move the contents of a backbuffer list into a new list using the
+     * storage configured for the account, if it is different.
+     *
+     * @param name Name of the channel, or {@link #PRIVATE_BACKBUFFER}
+     * @param oldList List to copy
+     * @return The new list
+     */
+    private BackbufferList convertBackbufferList(final String name, final BackbufferList oldList) {
+        final String storage = myAccount.getAccountConfig().getOption("server", "backbufferstorage");
+        if (BackbufferList.getStorageType(storage).equals(oldList.getStorageType())) {
+            return oldList;
+        }
+
+        final BackbufferList newList = newBackbufferList(name, oldList.getCapacity());
+        synchronized (oldList) {
+            newList.clear();
+            newList.addAll(oldList);
+        }
+        closeBackbufferList(oldList);
+        return newList;
+    }
+
     /**
      * Configure the output queue according to the user settings.
      */
@@ -350,6 +469,9 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     @Override
     public ServerLogger createServerLogger() {
         try {
+            if (myAccount.getAccountConfig().getOptionBool("server", "logrecords")) {
+                return new IRCRecordLogger(myAccount, this);
+            }
             return new IRCServerLogger(myAccount, this);
         } catch (final Exception e) {
             Logger.error("Unable to load ServerLogger: " + myAccount.getName() + "(" + e.getMessage() + ")");
@@ -418,9 +540,21 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param batchIdentifier BATCH identifier.
      */
     public void startBatch(final UserSocket user, final String batchIdentifier) {
+        startBatch(user, batchIdentifier, "generic");
+    }
+
+    /**
+     * Start a BATCH output of the given type.
+     *
+     * @param user User to start batch for.
+     * @param batchIdentifier Batch identifier.
+     * @param batchType Batch type, and any parameters it takes.
+     * @see #startBatch(UserSocket, String)
+     */
+    public void startBatch(final UserSocket user, final String batchIdentifier, final String batchType) {
         forceRequeueList.add(user);
         if (user.getCapabilityState("batch") == CapabilityState.ENABLED) {
-            user.sendLine("BATCH " + batchIdentifier + " generic");
+            user.sendLine("BATCH +" + batchIdentifier + " " + batchType);
         }
         if (serverRequeueList == null) { serverRequeueList = new LinkedList<>(); }
     }
@@ -493,7 +627,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
             return;
         }
 
-        if (!user.getClientConfig().getOptionBool("user", "autoburst")) {
+        if (!user.getClientConfig().boolKey("user", "autoburst").get()) {
             if (line[0].equalsIgnoreCase("join") && !activeAllowedChannel(user, line[channelPos])) {
                 activateChannel(user, line[channelPos]);
                 if (myParser.getChannel(line[channelPos]) != null) {
@@ -902,7 +1036,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
             // No longer allow nick in use, as the nick change succeeded.
             disallowLine(null, "433");
             myAccount.getUserSockets().forEach(socket -> socket.setNickname(event.getParser().getLocalClient().getNickname()));
-        } else if (myAccount.getAccountConfig().getOptionBool("irc", "keepnick") && event.getOldNick().equalsIgnoreCase(getKeepNick())) {
+        } else if (keepNick.get() && event.getOldNick().equalsIgnoreCase(getKeepNick())) {
             myParser.getLocalClient().setNickname(getKeepNick());
         }
     }
@@ -912,7 +1046,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         if (!checkParser(event)) { return; }
         if (event.getClient() == event.getParser().getLocalClient()) { return; }
 
-        if (myAccount.getAccountConfig().getOptionBool("irc", "keepnick") && event.getClient().getNickname().equalsIgnoreCase(getKeepNick())) {
+        if (keepNick.get() && event.getClient().getNickname().equalsIgnoreCase(getKeepNick())) {
             myParser.getLocalClient().setNickname(getKeepNick());
         }
     }
@@ -998,6 +1132,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     public void onChannelPart(final ChannelPartEvent event) {
         if (event.getClient().getClient() == myParser.getLocalClient()) {
             deactivateChannel(null, event.getChannel().getName());
+            closeBackbufferList(getBackbufferList(event.getChannel()));
 
             if (!isPartingAll) {
                 updateStoredChannels();
@@ -1014,6 +1149,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     public void onChannelKick(final ChannelKickEvent event) {
         if (event.getClient().getClient() == myParser.getLocalClient()) {
             deactivateChannel(null, event.getChannel().getName());
+            closeBackbufferList(getBackbufferList(event.getChannel()));
 
             updateStoredChannels();
         }
@@ -1037,7 +1173,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         allowLine(channel, "332");
         allowLine(channel, "333");
 
-        channel.getMap().put("backbufferList", new RollingList<BackbufferMessage>(getConfigMaxValue("server", "backbuffer")));
+        channel.getMap().put("backbufferList", newBackbufferList(channel.getName(), getConfigMaxValue("server", "backbuffer")));
 
         // Fake a join.
         onChannelJoin(new ChannelJoinEvent(event.getParser(), event.getDate(), channel, channel.getChannelClient(event.getParser().getLocalClient())));
@@ -1088,7 +1224,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         final String accountName = ci.getAccountName() == null ? "*" : ci.getAccountName();
 
         for (UserSocket socket : myAccount.getUserSockets()) {
-            if (socket.syncCompleted()) {
+            if (isChannelSynced(socket, event.getChannel().getName())) {
                 if (!activeAllowedChannel(socket, event.getChannel().getName())) { continue; }
 
                 if (socket.getCapabilityState("extended-join") == CapabilityState.ENABLED) {
@@ -1101,19 +1237,37 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void accountConfigChanged(final Account account, final String subClient, final String domain, final String setting) {
         if (domain.equalsIgnoreCase("server") && setting.equalsIgnoreCase("backbuffer")) {
             final int size = getConfigMaxValue("server", "backbuffer");
             for (ChannelInfo channel : myParser.getChannels()) {
-                final RollingList<BackbufferMessage> myList = (RollingList<BackbufferMessage>)channel.getMap().get("backbufferList");
-                myList.setCapacity(size);
+                getBackbufferList(channel).setCapacity(size);
             }
         } else if (domain.equalsIgnoreCase("server") && setting.equalsIgnoreCase("privatebackbuffer")) {
             final int size = getConfigMaxValue("server", "privatebackbuffer");
             privateBackbufferList.setCapacity(size);
+        } else if (domain.equalsIgnoreCase("server") && setting.equalsIgnoreCase("backbufferstorage")) {
+            if (myParser != null) {
+                for (ChannelInfo channel : myParser.getChannels()) {
+                    channel.getMap().put("backbufferList", convertBackbufferList(channel.getName(), getBackbufferList(channel)));
+                }
+            }
+            privateBackbufferList = convertBackbufferList(PRIVATE_BACKBUFFER, privateBackbufferList);
         } else if (domain.equalsIgnoreCase("irc") && setting.toLowerCase().startsWith("ratelimit")) {
             setupOutputQueue();
+        } else if ((domain.equalsIgnoreCase("user") && setting.equalsIgnoreCase("autoburst"))
+                || (domain.equalsIgnoreCase("irc") && setting.equalsIgnoreCase("channelwhitelist"))) {
+            if (setting.equalsIgnoreCase("channelwhitelist")) {
+                channelWhitelists.clear();
+            }
+            channelRouter.updateAll();
+        } else if (domain.equalsIgnoreCase("irc") && setting.equalsIgnoreCase("highlight")) {
+            // Changes to the account's list can affect every subclient.
+            if (subClient == null) {
+                highlightMatchers.clear();
+            } else {
+                highlightMatchers.remove(account.getConfig(subClient));
+            }
         }
     }
 
@@ -1123,18 +1277,16 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param time    The time the message occurred
      * @param message The message that occurred
      */
-    @SuppressWarnings("unchecked")
     private void addBackbufferMessage(final ChannelInfo channel, final long time, final String message) {
         if (channel != null) {
-            final RollingList<BackbufferMessage> myList = (RollingList<BackbufferMessage>)channel.getMap().get("backbufferList");
-            myList.add(new BackbufferMessage(time, message));
+            getBackbufferList(channel).add(time, message);
         } else {
-            privateBackbufferList.add(new BackbufferMessage(time, message));
+            privateBackbufferList.add(time, message);
         }
     }
 
     @Override
-    public RollingList<BackbufferMessage> getBackbufferList(final String channel) {
+    public BackbufferList getBackbufferList(final String channel) {
         final ChannelInfo ci = myParser.getChannel(channel);
         return getBackbufferList(ci);
     }
@@ -1145,16 +1297,15 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param ci ChannelInfo to get backbuffer from
      * @return backbuffer for the channel
      */
-    @SuppressWarnings("unchecked")
-    public RollingList<BackbufferMessage> getBackbufferList(final ChannelInfo ci) {
+    public BackbufferList getBackbufferList(final ChannelInfo ci) {
         if (ci != null) {
-            final RollingList<BackbufferMessage> list = (RollingList<BackbufferMessage>)ci.getMap().get("backbufferList");
-            if (list != null) {
-                return list;
+            final Object list = ci.getMap().get("backbufferList");
+            if (list instanceof BackbufferList) {
+                return (BackbufferList) list;
             }
         }
 
-        return new RollingList<>(0);
+        return new BackbufferList(0);
     }
 
     @Override
@@ -1367,27 +1518,44 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         }
 
         if (forwardLine) {
-            for (UserSocket socket : myAccount.getUserSockets()) {
-                if (channelName != null && !activeAllowedChannel(socket, channelName)) { continue; }
+            forwardToSockets(event, bits, channelName, isNumeric && numeric > 5);
+        }
+    }
 
-                boolean canSendMessage = socket.syncCompleted();
-                if (!socket.syncCompleted()) {
-                    // If this is unrelated to a channel, send it on to clients
-                    // regardless of sync status, unless it is 001-005.
-                    canSendMessage = (channelName == null && isNumeric && numeric > 5);
-                }
+    /**
+     * Forward a line from the server to every socket that should see it.
+     * <p>
+     * The same line is handed to every socket, and anything that does not
+     * depend on the socket is only worked out once per line rather than once
+     * per socket.
+     *
+     * @param event Event containing the line
+     * @param bits Tokenised line
+     * @param channelName Channel the line relates to, or null
+     * @param unsyncedAllowed Can the line be sent to sockets that have not
+     *                        finished syncing, if it is unrelated to a channel?
+     */
+    private void forwardToSockets(final IRCDataInEvent event, final String[] bits, final String channelName, final boolean unsyncedAllowed) {
+        final List<UserSocket> sockets = myAccount.getUserSockets();
+        if (sockets.isEmpty()) { return; }
 
-                if (canSendMessage) {
-                    socket.sendLine(event.getData());
+        final Set<UserSocket> route = (channelName == null) ? null : channelRouter.getRoute(channelName);
 
-                    if (channelName != null && bits.length > 3 && event.getAction().equals("PRIVMSG") && isHighlight(socket, bits[bits.length - 1])) {
-                        final ClientInfo client = event.getParser().getClient(bits[0]);
-                        final String truncatedMessage = bits[bits.length - 1].substring(0, Math.min(bits[bits.length - 1].length(), 200)) + (bits[bits.length - 1].length() > 200 ? "..." : "");
-                        socket.sendBotChat(channelName, "PRIVMSG", "<%s> %s (/cc %s)", client.getNickname(), truncatedMessage, socket.getNickname());
-                    }
-                }
-            }
-        }
+        final String line = event.getData();
+        // If this is unrelated to a channel, send it on to clients regardless
+        // of sync status, unless it is 001-005. Channels that have already
+        // been burst are treated as synced.
+        final boolean sendUnsynced = channelName == null && unsyncedAllowed;
+        final String message = (channelName != null && bits.length > 3 && event.getAction().equals("PRIVMSG")) ? bits[bits.length - 1] : null;
+
+        LineFanOut.forward(sockets,
+                socket -> (route == null || channelRouter.isRouted(socket, route))
+                        && (socket.syncCompleted() || sendUnsynced || (channelName != null && isChannelSynced(socket, channelName))),
+                socket -> socket.sendLine(line),
+                (message == null) ? null : socket -> isHighlight(socket, message),
+                () -> "<" + event.getParser().getClient(bits[0]).getNickname() + "> "
+                        + message.substring(0, Math.min(message.length(), 200)) + (message.length() > 200 ? "..." : ""),
+                (socket, notice) -> socket.sendBotChat(channelName, "PRIVMSG", "%s (/cc %s)", notice, socket.getNickname()));
     }
 
     @Handler
@@ -1395,6 +1563,11 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         if (!checkParser(event)) { return; }
 
         hasMOTDEnd = true;
+        myAccount.handlerRegistered();
+        // The server will have told us its case mapping by now.
+        channelWhitelists.clear();
+        channelRouter.updateAll();
+
         List<String> myList = myAccount.getAccountConfig().getOptionList("irc", "perform.connect");
         Logger.debug3("Connected. Handling performs");
 
@@ -1497,6 +1670,8 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         if (hasSocketClosed.compareAndSet(false, true)) {
             requeueTimer.cancel();
             nickKeepTimer.cancel();
+            burstExecutor.shutdownNow();
+            new ArrayList<>(backbufferLists).forEach(this::closeBackbufferList);
             myAccount.handlerDisconnected(reason);
         }
     }
@@ -1528,6 +1703,8 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
 
     @Override
     public void userConnected(final UserSocket user) {
+        channelRouter.update(user);
+
         Logger.debug2("IRC userConnected: Check for 001: " + parserReady);
         // If the parser has processed a 001, we need to send our own
         if (parserReady) {
@@ -1547,6 +1724,11 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
             if (user.getCapabilityState("dfbnc.com/tsirc") != CapabilityState.ENABLED) {
                 user.sendLine(":" + getServerName() + " 005 " + user.getNickname() + " TIMESTAMPEDIRC :are supported by this server");
             }
+            // Clients that asked for history on request need to know how
+            // much they can ask for.
+            if (user.getCapabilityState("draft/chathistory") == CapabilityState.ENABLED) {
+                user.sendLine(":" + getServerName() + " 005 " + user.getNickname() + " CHATHISTORY=" + myAccount.getAccountConfig().getOptionInt("server", "backbuffer") + " :are supported by this server");
+            }
             user.setPost001(true);
             // Now, if the parser has recieved an end of MOTD Line, we should send our own MOTD and User Host info
             if (hasMOTDEnd) {
@@ -1577,53 +1759,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
                 // Now send the usermode info
                 user.sendIRCLine(221, myParser.getLocalClient().getNickname(), ((IRCClientInfo) me).getModes(), false);
 
-                final Collection<? extends ChannelInfo> channels = myParser.getChannels();
-
-                new Timer().schedule(new TimerTask() {
-
-                    @Override
-                    public void run() {
-                        if (!user.getSocketWrapper().isConnected()) { return; }
-
-                        if (user.getClientConfig().getOptionBool("user", "autoburst")) {
-                            for (final ChannelInfo channel : channels) {
-                                sendChannelBurst(user, channel);
-                            }
-                        }
-                        user.setSyncCompleted();
-                        // Immediately process the requeue list.
-                        final List<RequeueLine> list = getRequeueList();
-                        for (RequeueLine line : list) {
-                            line.reprocess(IRCConnectionHandler.this);
-                        }
-
-                        if (user.isActiveClient() && myAccount.getActiveClientSockets().size() == 1) {
-                            List<String> myList;
-
-                            if (isPerformDeferred) {
-                                myList = myAccount.getAccountConfig().getOptionList("irc", "perform.connect");
-                                for (String line : myList) {
-                                    myParser.sendRawMessage(filterPerformLine(line));
-                                    Logger.debug3("Sending deferred perform line: " + line);
-                                }
-                                isPerformDeferred = false;
-                            }
-
-                            myList = myAccount.getAccountConfig().getOptionList("irc", "perform.firstattach");
-                            for (String line : myList) {
-                                myParser.sendRawMessage(filterPerformLine(line));
-                            }
-                            myParser.getLocalClient().setNickname(myAccount.getAccountConfig().getOption("irc", "nickname"));
-
-                            if (isPerformDeferred && myAccount.getAccountConfig().getOptionBool("irc", "rememberchannels")) {
-                                loadStoredChannels();
-                                joinRememberedChannels();
-                            } else if (myAccount.getAccountConfig().getOptionBool("irc", "partondetach")) {
-                                joinRememberedChannels();
-                            }
-                        }
-                    }
-                }, 1500);
+                startChannelBurst(user);
 
                 sendPrivateBackbuffer(user);
             }
@@ -1639,9 +1775,10 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      *
      * @param user User to send reply to
      * @param channel Channel to send reply for
+     * @return Roughly how many characters were sent.
      */
-    private void sendChannelBurst(final UserSocket user, final ChannelInfo channel) {
-        if (!activeAllowedChannel(user, channel.getName())) { return; }
+    private long sendChannelBurst(final UserSocket user, final ChannelInfo channel) {
+        if (!activeAllowedChannel(user, channel.getName())) { return 0; }
         final ClientInfo me = myParser.getLocalClient();
 
         if (user.getCapabilityState("extended-join") == CapabilityState.ENABLED) {
@@ -1653,9 +1790,14 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         sendTopic(user, channel);
         sendNames(user, channel);
 
-        if (myAccount.getAccountConfig().getOptionInt("server", "backbuffer") > 0) {
-            sendBackbuffer(user, channel);
+        // JOIN, TOPIC and NAMES.
+        long sent = 512 + 32 * channel.getChannelClients().size();
+
+        // Clients that can ask for history will do so when they want it.
+        if (user.getCapabilityState("draft/chathistory") != CapabilityState.ENABLED && myAccount.getAccountConfig().getOptionInt("server", "backbuffer") > 0) {
+            sent += sendBackbuffer(user, channel);
         }
+        return sent;
     }
 
     /**
@@ -1713,10 +1855,11 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      *
      * @param user User to send backbuffer to
      * @param channel Channel to send backbuffer for
+     * @return Number of characters of backbuffer sent.
      */
-    public void sendBackbuffer(final UserSocket user, final ChannelInfo channel) {
-        final RollingList<BackbufferMessage> backbufferList = getBackbufferList(channel);
-        sendBackbuffer(user, channel, backbufferList);
+    public long sendBackbuffer(final UserSocket user, final ChannelInfo channel) {
+        final BackbufferList backbufferList = getBackbufferList(channel);
+        return sendBackbuffer(user, channel, backbufferList);
     }
 
     /**
@@ -1734,18 +1877,21 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param user User to send backbuffer to
      * @param channel Channel to send backbuffer to
      * @param backbufferList Backbuffer to send
+     * @return Number of characters of backbuffer sent.
      */
-    private void sendBackbuffer(final UserSocket user, final ChannelInfo channel, final RollingList<BackbufferMessage> backbufferList) {
-        final String backbufferID = (channel == null) ? "private" : channel.getName();
+    private long sendBackbuffer(final UserSocket user, final ChannelInfo channel, final BackbufferList backbufferList) {
+        final String backbufferID = (channel == null) ? PRIVATE_BACKBUFFER : channel.getName();
         final String batchIdentifier = "backbuffer_" + backbufferID + "_" + System.currentTimeMillis();
 
         // backbufferList may contain more items than this client wants to see.
-        // Trim it to size.
-        final RollingList<BackbufferMessage> backbuffer = backbufferList.clone();
+        // Only look at the newest ones.
+        final int max;
         if (channel != null) {
-            backbuffer.setCapacity(user.getClientConfig().getOptionInt("server", "backbuffer"));
-        } else if (user.getClientConfig().hasOption("server", "privatebackbuffertimeout")) {
-            backbuffer.setCapacity(user.getClientConfig().getOptionInt("server", "privatebackbuffer"));
+            max = user.getClientConfig().getOptionInt("server", "backbuffer");
+        } else if (user.getClientConfig().hasOption("server", "privatebackbuffer")) {
+            max = user.getClientConfig().getOptionInt("server", "privatebackbuffer");
+        } else {
+            max = Integer.MAX_VALUE;
         }
 
         boolean firstValid = true;
@@ -1757,110 +1903,148 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         } else {
             timeout = 0;
         }
-        final long earliestTime = (timeout > 0) ? System.currentTimeMillis() - timeout : 0;
-        final boolean forceTimestamp = (channel == null) && user.getClientConfig().getOptionBool("server", "privatebackbuffertimestamp");
 
-        final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
-        final SimpleDateFormat servertime = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        servertime.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // Skip straight past anything too old, or already seen.
+        long firstSequence = getFirstUnreadSequence(user, backbufferID, backbufferList);
+        if (timeout > 0) {
+            firstSequence = Math.max(firstSequence, backbufferList.findSequence(System.currentTimeMillis() - timeout));
+        }
+        final RollingList.Snapshot<BackbufferMessage> backbuffer = backbufferList.snapshotFrom(firstSequence, max);
+
+        final boolean forceTimestamp = (channel == null) && user.getClientConfig().boolKey("server", "privatebackbuffertimestamp").get();
 
-        // TODO: per-client timezones, somehow.
-        // sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final RenderedBackbufferMessage.Format format = getBackbufferFormat(user, forceTimestamp);
+        final boolean channelHistory = user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED;
 
-        for (BackbufferMessage message : backbuffer) {
-            final String line;
-            final Map<String,String> messageTags = new HashMap<>();
+        // FIXME: This isn't the best way to handle this.
+        //        IRCLine as a whole needs rewriting really at some point.
+        //        But for now this will do to ensure we don't accidentally
+        //        send tags to clients that don't understand them.
+        final boolean allowTags = user.allowTags();
+        final String batchTag = (allowTags && user.getCapabilityState("batch") == CapabilityState.ENABLED) ? batchIdentifier : null;
 
-            if (message.getTime() < earliestTime) {
-                // Message is too old.
+        // Clients with the same capabilities share the same rendering of each
+        // message.
+        final int profile = RenderedBackbufferMessage.getProfile(format, channelHistory, allowTags);
+        final Function<BackbufferMessage, RenderedBackbufferMessage> renderer = message -> RenderedBackbufferMessage.render(message, format, channelHistory, allowTags);
+
+        long sent = 0;
+        for (long sequence = Math.max(backbuffer.getStart(), backbufferList.getFirstSequence()); sequence < backbuffer.getEnd(); sequence++) {
+            final RenderedBackbufferMessage message = backbufferList.getRendered(sequence, profile, renderer);
+            if (message == null) {
+                // Evicted since we started.
                 continue;
             }
 
             if (firstValid) {
                 firstValid = false;
                 startBatch(user, batchIdentifier);
-                if (user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED) {
+                if (channelHistory) {
                     user.sendServerLine("BEGINHISTORY", backbufferID);
                 } else if (channel != null) {
                     user.sendBotChat(channel.getName(), "NOTICE", "Beginning backbuffer...");
                 }
             }
 
-            if (user.getCapabilityState("batch") == CapabilityState.ENABLED) {
-                messageTags.put("batch", batchIdentifier);
-            }
-
-            if (!forceTimestamp && user.getCapabilityState("server-time") == CapabilityState.ENABLED) {
-                messageTags.put("time", servertime.format(message.getTime()));
-                line = message.getMessage();
-            } else if (!forceTimestamp && user.getCapabilityState("dfbnc.com/tsirc") == CapabilityState.ENABLED) {
-                line = "@" + Long.toString(message.getTime()) + "@" + message.getMessage();
-            } else {
-                final String date = "    [" + sdf.format(message.getTime()) + "]";
-
-                // If it's a CTCP (like an action), insert the timestamp before
-                // the trailing 0x01
-                if (message.getMessage().endsWith("\001")) {
-                    line = message.getMessage().substring(0, message.getMessage().length() - 1) + date + "\001";
-                } else {
-                    line = message.getMessage() + date;
-                }
-            }
-
-            if (user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED) {
-                messageTags.put("dfbnc.com/channelhistory", null);
-            }
-
-            // FIXME: This isn't the best way to handle this.
-            //        IRCLine as a whole needs rewriting really at some point.
-            //        But for now this will do to ensure we don't accidentally
-            //        send tags to clients that don't understand them.
-            if (!user.allowTags()) { messageTags.clear(); }
-
-            // TODO: Allow clients to specify a longer length to save us needing
-            //       to wrap things.
-            final int maxLength = 510;
-
-            if (line.length() <= maxLength) {
-                user.sendLine(new IRCLine(line, messageTags));
-            } else {
-                // Line is longer than 510...
-                // We need to split it and send it in bits.
-
-                // Firstly separate the protocol bits, and the actual message
-                final int lastarg = line.indexOf(" :");
-                final String lastBit = line.substring(lastarg + 2);
-                final String startBits = line.substring(0, lastarg) + " :";
-
-                // Now work out the allowed characters per bit.
-                final int allowed = maxLength - startBits.length();
-
-                StringBuilder sendLine = new StringBuilder(startBits);
-
-                for (int i = 0; i < lastBit.length(); i += allowed) {
-                    sendLine.append(lastBit.substring(i, Math.min(i + allowed, lastBit.length())));
-                    user.sendLine(new IRCLine(sendLine.toString(), messageTags));
-                    sendLine = new StringBuilder(startBits);
-                }
-            }
+            sent += message.send(user, batchTag);
         }
 
         if (firstValid) {
             if (backbuffer.isEmpty()) {
-                if (user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED) {
-                    user.sendServerLine("EMPTYHISTORY", channel.getName());
+                if (channelHistory) {
+                    user.sendServerLine("EMPTYHISTORY", backbufferID);
                 } else if (channel != null) {
                     user.sendBotChat(channel.getName(), "NOTICE", "This channel has no current backbuffer.");
                 }
             }
         } else {
-            if (user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED) {
+            if (channelHistory) {
                 user.sendServerLine("ENDHISTORY", backbufferID);
             } else if (channel != null) {
                 user.sendBotChat(channel.getName(), "NOTICE", "End of backbuffer.");
             }
             endBatch(user, batchIdentifier);
         }
+        return sent;
+    }
+
+    @Override
+    public boolean sendHistory(final UserSocket user, final String target, final long after, final long before, final int limit, final boolean newest) {
+        // Only channel history is served. Private messages share a single
+        // backbuffer that is not split up by query, so history for a query
+        // is deliberately not offered rather than sending the wrong lines.
+        final ChannelInfo channel = myParser.getChannel(target);
+        if (channel == null || !activeAllowedChannel(user, channel.getName())) {
+            return false;
+        }
+
+        final BackbufferList backbufferList = getBackbufferList(channel);
+        final int max = Math.min(limit, backbufferList.getCapacity());
+        long start = (after > 0) ? backbufferList.findSequence(after + 1) : backbufferList.getFirstSequence();
+        long end = (before > 0) ? backbufferList.findSequence(before) : backbufferList.getNextSequence();
+        if (newest) {
+            start = Math.max(start, end - max);
+        } else {
+            end = Math.min(end, start + max);
+        }
+
+        final RenderedBackbufferMessage.Format format = getBackbufferFormat(user, false);
+        final boolean channelHistory = user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED;
+        final boolean allowTags = user.allowTags();
+        final int profile = RenderedBackbufferMessage.getProfile(format, channelHistory, allowTags);
+        final Function<BackbufferMessage, RenderedBackbufferMessage> renderer = message -> RenderedBackbufferMessage.render(message, format, channelHistory, allowTags);
+
+        final String batchIdentifier = "chathistory_" + channel.getName() + "_" + System.currentTimeMillis();
+        final String batchTag = (allowTags && user.getCapabilityState("batch") == CapabilityState.ENABLED) ? batchIdentifier : null;
+
+        startBatch(user, batchIdentifier, "chathistory " + channel.getName());
+        for (long sequence = start; sequence < end; sequence++) {
+            final RenderedBackbufferMessage message = backbufferList.getRendered(sequence, profile, renderer);
+            if (message != null) {
+                message.send(user, batchTag);
+            }
+        }
+        endBatch(user, batchIdentifier);
+        return true;
+    }
+
+    /**
+     * Discard cached backbuffer renderings that no remaining client of this
+     * account can use.
+     *
+     * @param user UserSocket that is disconnecting
+     */
+    private void discardUnusedRenderings(final UserSocket user) {
+        final Set<Integer> profiles = new HashSet<>();
+        for (UserSocket socket : myAccount.getUserSockets()) {
+            if (socket == user) { continue; }
+            final boolean channelHistory = socket.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED;
+            final boolean allowTags = socket.allowTags();
+            profiles.add(RenderedBackbufferMessage.getProfile(getBackbufferFormat(socket, false), channelHistory, allowTags));
+            profiles.add(RenderedBackbufferMessage.getProfile(getBackbufferFormat(socket, true), channelHistory, allowTags));
+        }
+
+        for (ChannelInfo channel : myParser.getChannels()) {
+            getBackbufferList(channel).retainRendered(profiles);
+        }
+        privateBackbufferList.retainRendered(profiles);
+    }
+
+    /**
+     * Get the format that backbuffer should be sent to the given user in.
+     *
+     * @param user User that backbuffer is being sent to
+     * @param forceTimestamp Always prefix messages with a timestamp
+     * @return Format for the user's backbuffer.
+     */
+    private RenderedBackbufferMessage.Format getBackbufferFormat(final UserSocket user, final boolean forceTimestamp) {
+        if (!forceTimestamp && user.getCapabilityState("server-time") == CapabilityState.ENABLED) {
+            return RenderedBackbufferMessage.Format.SERVER_TIME;
+        } else if (!forceTimestamp && user.getCapabilityState("dfbnc.com/tsirc") == CapabilityState.ENABLED) {
+            return RenderedBackbufferMessage.Format.TSIRC;
+        } else {
+            return RenderedBackbufferMessage.Format.TIMESTAMP;
+        }
     }
 
     /**
@@ -1871,7 +2055,13 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      */
     @Override
     public void userDisconnected(final UserSocket user) {
+        channelRouter.remove(user);
+        backbufferLists.forEach(BackbufferList::flush);
+
         if (parserReady) {
+            markBackbuffersSeen(user);
+            discardUnusedRenderings(user);
+
             if (user.isActiveClient() && myAccount.getActiveClientSockets().isEmpty()) {
                 List<String> myList = myAccount.getAccountConfig().getOptionList("irc", "perform.lastdetach");
                 for (String line : myList) {
@@ -1890,6 +2080,45 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         }
     }
 
+    /**
+     * Update the read markers for the subclient of the given user, for
+     * clients that only want to see the backbuffer since they were last
+     * connected.
+     *
+     * @param user User that has seen the backbuffers
+     */
+    private void markBackbuffersSeen(final UserSocket user) {
+        if (!user.syncCompleted()) { return; }
+
+        final long now = System.currentTimeMillis();
+        final Map<String, Long> seen = new HashMap<>();
+        for (ChannelInfo channel : myParser.getChannels()) {
+            if (activeAllowedChannel(user, channel.getName())) {
+                seen.put(myParser.getStringConverter().toLowerCase(channel.getName()), now);
+            }
+        }
+        seen.put(PRIVATE_BACKBUFFER, now);
+
+        myAccount.setReadMarkers(user.getClientID(), seen);
+    }
+
+    /**
+     * Get the sequence number of the first message in the given backbuffer
+     * that the given user has not seen.
+     *
+     * @param user User to check
+     * @param backbufferID Name of the channel, or {@link #PRIVATE_BACKBUFFER}
+     * @param backbufferList Backbuffer to check
+     * @return First unread sequence number, or 0 if the user wants to see
+     *         everything.
+     */
+    private long getFirstUnreadSequence(final UserSocket user, final String backbufferID, final BackbufferList backbufferList) {
+        if (!user.getClientConfig().boolKey("server", "backbuffersincelastseen").get()) { return 0; }
+
+        final long marker = myAccount.getReadMarker(user.getClientID(), myParser.getStringConverter().toLowerCase(backbufferID));
+        return (marker > 0) ? backbufferList.findSequence(marker + 1) : 0;
+    }
+
     /**
      * Filter a perform line and return the line after substitutions have occurred
      *
@@ -1929,25 +2158,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      */
     @Override
     public boolean activeAllowedChannel(final UserSocket user, final String channel) {
-        if (user.getClientConfig().getOptionBool("user", "autoburst")) {
-            // Bursty clients are always active, so just check if they
-            // are allowed.
-            return allowedChannel(user, channel);
-        }
-
-        if (activeChannelList.containsKey(user) && !activeChannelList.get(user).isEmpty()) {
-            for (final String c : activeChannelList.get(user)) {
-                if (c.equalsIgnoreCase(channel)) {
-                    // We check if the client is allowed in a channel on JOIN
-                    // so if they are in the active list, then they are allowed.
-                    return true;
-                }
-            }
-        }
-
-       // User has not yet joined any channels, or has parted all their
-       // channels.
-       return false;
+        return channelRouter.isRouted(user, channel);
     }
 
     /**
@@ -1958,10 +2169,8 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param channel Channel to activate.
      */
     public void activateChannel(final UserSocket user, final String channel) {
-        synchronized (activeChannelList) {
-            final Set<String> acl = (activeChannelList.containsKey(user)) ? activeChannelList.get(user) : new LinkedHashSet<>();
-            acl.add(myParser.getStringConverter().toLowerCase(channel));
-            activeChannelList.put(user, acl);
+        synchronized (channelRouter) {
+            channelRouter.activate(user, channel);
 
             if (myParser.getChannel(channel) != null) {
                 sendChannelBurst(user, myParser.getChannel(channel));
@@ -1979,13 +2188,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param channel Channel to activate.
      */
     public void deactivateChannel(final UserSocket user, final String channel) {
-        synchronized (activeChannelList) {
-            if (user == null) {
-                activeChannelList.values().stream().forEach(acl -> acl.remove(myParser.getStringConverter().toLowerCase(channel)));
-            } else if (activeChannelList.containsKey(user)) {
-                activeChannelList.get(user).remove(myParser.getStringConverter().toLowerCase(channel));
-            }
-        }
+        channelRouter.deactivate(user, channel);
     }
 
     /**
@@ -1996,26 +2199,48 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @return True if this socket is allowed, else false.
      */
     public boolean allowedChannel(final UserSocket user, final String channel) {
-        // TODO: This whole method needs optimising really... Allowed channels
-        //       need caching etc.
-        if (user.getClientID() == null || !user.getClientConfig().hasOption("irc", "channelwhitelist")) {
-            // By default, we are allowed to see everywhere.
-            return true;
+        final Set<String> whitelist = getChannelWhitelist(user);
+
+        // By default, we are allowed to see everywhere.
+        return whitelist.isEmpty() || whitelist.contains(toLowerCase(channel));
+    }
+
+    /**
+     * Get the channel whitelist for the given socket, with each channel name
+     * lower-cased using the server's case mapping.
+     *
+     * @param user UserSocket to get the whitelist for.
+     * @return Set of lower-cased channel names, which must not be modified.
+     *         An empty set means that every channel is allowed.
+     */
+    private Set<String> getChannelWhitelist(final UserSocket user) {
+        if (user.getClientID() == null) {
+            return Collections.emptySet();
         }
 
-        final List<String> validChannelList = user.getClientConfig().getOptionList("irc", "channelwhitelist");
+        final Config config = user.getClientConfig();
+        final List<String> channels = config.listKey("irc", "channelwhitelist").get();
+        if (channels.isEmpty()) {
+            return Collections.emptySet();
+        }
 
-        if (validChannelList.isEmpty()) {
-            return true;
-        } else {
-            for (final String c : validChannelList) {
-                if (c.equalsIgnoreCase(channel)) {
-                    return true;
-                }
-            }
+        ChannelWhitelist whitelist = channelWhitelists.get(config);
+        if (whitelist == null || !whitelist.isBuiltFrom(channels)) {
+            whitelist = new ChannelWhitelist(channels, this::toLowerCase);
+            channelWhitelists.put(config, whitelist);
         }
+        return whitelist.getChannels();
+    }
 
-        return false;
+    /**
+     * Lower-case a name using the server's case mapping, or plain
+     * lower-casing if we have no parser yet.
+     *
+     * @param name Name to lower-case
+     * @return Lower-cased name
+     */
+    private String toLowerCase(final String name) {
+        return (myParser == null) ? name.toLowerCase() : myParser.getStringConverter().toLowerCase(name);
     }
 
     /**
@@ -2026,28 +2251,122 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @return True if this line matches a highlight for the given user.
      */
     public boolean isHighlight(final UserSocket user, final String line) {
-        // TODO: Look at how to optimise this, similar to above.
-        //       Caching of regex matchers would be useful.
-        if (user.getClientID() == null || !user.getClientConfig().hasOption("irc", "highlight")) {
+        if (user.getClientID() == null) {
             // By default, nothing highlights.
             return false;
         }
 
-        final List<String> highlightList = user.getClientConfig().getOptionList("irc", "highlight");
-
-        if (highlightList.isEmpty()) {
+        final Config config = user.getClientConfig();
+        final List<String> rules = config.listKey("irc", "highlight").get();
+        if (rules.isEmpty()) {
             return false;
-        } else {
-            for (final String h : highlightList) {
-                try {
-                    if (line.toLowerCase().matches(".*" + h.toLowerCase() + ".*")) {
-                        return true;
-                    }
-                } catch (final Exception e) { }
+        }
+
+        HighlightMatcher matcher = highlightMatchers.get(config);
+        if (matcher == null || !matcher.isBuiltFrom(rules)) {
+            matcher = new HighlightMatcher(rules);
+            highlightMatchers.put(config, matcher);
+        }
+        return matcher.matches(line);
+    }
+
+    /**
+     * Check if the given user has been sent everything it needs for the given
+     * channel, either because the user is synced or because the channel's
+     * burst has already been sent.
+     *
+     * @param user User to check
+     * @param channelName Channel to check
+     * @return True if lines for the channel can be sent to the user.
+     */
+    private boolean isChannelSynced(final UserSocket user, final String channelName) {
+        if (user.syncCompleted()) { return true; }
+
+        final Set<String> channels = burstChannels.get(user);
+        return channels != null && channels.contains(myParser.getStringConverter().toLowerCase(channelName));
+    }
+
+    /**
+     * Finish attaching a user once its channel burst has been sent.
+     *
+     * @param user User that has been burst
+     */
+    private void finishChannelBurst(final UserSocket user) {
+        user.setSyncCompleted();
+        burstChannels.remove(user);
+
+        // Immediately process the requeue list.
+        final List<RequeueLine> list = getRequeueList();
+        for (RequeueLine line : list) {
+            line.reprocess(this);
+        }
+
+        if (user.isActiveClient() && myAccount.getActiveClientSockets().size() == 1) {
+            List<String> myList;
+
+            if (isPerformDeferred) {
+                myList = myAccount.getAccountConfig().getOptionList("irc", "perform.connect");
+                for (String line : myList) {
+                    myParser.sendRawMessage(filterPerformLine(line));
+                    Logger.debug3("Sending deferred perform line: " + line);
+                }
+                isPerformDeferred = false;
+            }
+
+            myList = myAccount.getAccountConfig().getOptionList("irc", "perform.firstattach");
+            for (String line : myList) {
+                myParser.sendRawMessage(filterPerformLine(line));
+            }
+            myParser.getLocalClient().setNickname(myAccount.getAccountConfig().getOption("irc", "nickname"));
+
+            if (isPerformDeferred && myAccount.getAccountConfig().getOptionBool("irc", "rememberchannels")) {
+                loadStoredChannels();
+                joinRememberedChannels();
+            } else if (myAccount.getAccountConfig().getOptionBool("irc", "partondetach")) {
+                joinRememberedChannels();
             }
         }
+    }
 
-        return false;
+    /**
+     * Sends the channel burst to a newly attached user a slice at a time,
+     * pausing whenever a slice has produced enough output so that one large
+     * burst doesn't hold up the others.
+     *
+     * Channels with the most recent backbuffer are sent first, and each
+     * channel starts receiving live lines as soon as its own burst is done.
+     *
+     * @param user User to burst
+     */
+    private void startChannelBurst(final UserSocket user) {
+        final Set<String> done = ConcurrentHashMap.newKeySet();
+        burstChannels.put(user, done);
+
+        final List<ChannelInfo> channels = new ArrayList<>();
+        if (user.getClientConfig().boolKey("user", "autoburst").get()) {
+            channels.addAll(myParser.getChannels());
+        }
+        new PacedBurst<>(burstExecutor, BURST_HIGH_WATER, BURST_PAUSE, channels,
+                channel -> getBackbufferList(channel).getLatestTime(),
+                () -> user.getSocketWrapper().isConnected(),
+                channel -> {
+                    if (myParser.getChannel(channel.getName()) == null) { return 0; }
+                    try {
+                        final long sent = sendChannelBurst(user, channel);
+                        done.add(myParser.getStringConverter().toLowerCase(channel.getName()));
+                        return sent;
+                    } catch (final RuntimeException ex) {
+                        myAccount.reportException(ex, "Channel Burst");
+                        return 0;
+                    }
+                },
+                completed -> {
+                    if (completed) {
+                        finishChannelBurst(user);
+                    } else {
+                        burstChannels.remove(user);
+                    }
+                }).start(1500);
     }
 
     /**
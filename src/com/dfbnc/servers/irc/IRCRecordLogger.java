@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.irc;
+
+import com.dfbnc.Account;
+import com.dfbnc.servers.logging.LogRecord;
+
+/**
+ * IRC ServerLogger that also writes every logged event to a structured record
+ * log, so that it can be replayed or indexed later without parsing the text
+ * logs.
+ *
+ * @see LogRecord
+ */
+public class IRCRecordLogger extends IRCServerLogger {
+
+    /** Record log file. */
+    private final String recordFile;
+
+    /**
+     * Create an IRCRecordLogger
+     *
+     * @param account Account we are logging for.
+     * @param connectionHandler IRCConnectionHandler we are logging.
+     * @throws Exception if we are unable to create the logs directory.
+     */
+    public IRCRecordLogger(final Account account, final IRCConnectionHandler connectionHandler) throws Exception {
+        super(account, connectionHandler);
+
+        recordFile = locator.getRecordFile();
+        if (recordFile == null) {
+            throw new Exception("Unable to create record log dir");
+        }
+    }
+
+    @Override
+    protected void logEvent(final LogRecord.Type type, final String target, final String source, final String payload) {
+        appendRecord(recordFile, new LogRecord(System.currentTimeMillis(), type, target, source, payload));
+    }
+}
@@ -26,6 +26,7 @@
 package com.dfbnc.servers.irc;
 
 import com.dfbnc.Account;
+import com.dfbnc.servers.logging.LogRecord;
 import com.dfbnc.servers.logging.ServerLogger;
 import com.dmdirc.parser.events.ChannelMessageEvent;
 import com.dmdirc.parser.events.PrivateMessageEvent;
@@ -141,6 +142,7 @@ public class IRCServerLogger extends ServerLogger {
     }
 
     public void handleSelfQueryAction(final PrivateActionEvent event) {
+        logEvent(LogRecord.Type.ACTION, event.getHost(), String.valueOf(localClient), event.getMessage());
         final ClientInfo user = event.getParser().getClient(event.getHost());
         final String filename = locator.getLogFile(user);
         if (filename == null) { return; }
@@ -148,6 +150,7 @@ public class IRCServerLogger extends ServerLogger {
     }
 
     public void handleSelfQueryMessage(final PrivateMessageEvent event) {
+        logEvent(LogRecord.Type.MESSAGE, event.getHost(), String.valueOf(localClient), event.getMessage());
         final ClientInfo user = event.getParser().getClient(event.getHost());
         final String filename = locator.getLogFile(user);
         if (filename == null) { return; }
@@ -155,6 +158,7 @@ public class IRCServerLogger extends ServerLogger {
     }
 
     public void handleSelfQueryNotice(final PrivateNoticeEvent event) {
+        logEvent(LogRecord.Type.NOTICE, event.getHost(), String.valueOf(localClient), event.getMessage());
         final ClientInfo user = event.getParser().getClient(event.getHost());
         final String filename = locator.getLogFile(user);
         if (filename == null) { return; }
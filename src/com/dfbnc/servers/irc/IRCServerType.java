@@ -37,6 +37,7 @@ import uk.org.dataforce.libs.logger.Logger;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * This file gives the ability to connect to an IRC Server
@@ -184,4 +185,18 @@ public class IRCServerType extends ServerType {
         handler.init();
         return handler;
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Accounts that use the same set of servers are treated as connecting to
+     * the same place.
+     */
+    @Override
+    public String getConnectDestination(final Account acc) {
+        return acc.getAccountConfig().getOptionList("irc", "serverlist").stream()
+                .map(server -> parseServerString(server)[0].toLowerCase())
+                .distinct().sorted()
+                .collect(Collectors.joining(","));
+    }
 }
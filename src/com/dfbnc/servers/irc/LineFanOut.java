@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.irc;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Hands a line from the server to every socket that should see it.
+ * <p>
+ * Anything that does not depend on the socket is worked out by the caller
+ * once per line, and the highlight notice is only built for the first socket
+ * that needs it and then shared.
+ */
+final class LineFanOut {
+
+    /**
+     * Prevent instantiation.
+     */
+    private LineFanOut() {
+    }
+
+    /**
+     * Forward a line to the given sockets.
+     *
+     * @param <S> Type of socket
+     * @param sockets Sockets to consider, in the order to send to them
+     * @param canSend Checks if a socket should be sent the line
+     * @param send Sends the line to a socket
+     * @param highlights Checks if the line is a highlight for a socket, or
+     *                   null if the line can't be a highlight
+     * @param highlight Builds the highlight notice for the line
+     * @param notify Sends the highlight notice to a socket
+     */
+    static <S> void forward(final List<S> sockets, final Predicate<S> canSend, final Consumer<S> send,
+            final Predicate<S> highlights, final Supplier<String> highlight, final BiConsumer<S, String> notify) {
+        String notice = null;
+        for (S socket : sockets) {
+            if (!canSend.test(socket)) { continue; }
+
+            send.accept(socket);
+
+            if (highlights != null && highlights.test(socket)) {
+                if (notice == null) {
+                    notice = highlight.get();
+                }
+                notify.accept(socket, notice);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.irc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Sends a burst of items a slice at a time on an executor, pausing between
+ * slices once enough output has been produced.
+ * <p>
+ * Items with the most recent activity are sent first. This is fixed-rate
+ * pacing based on how much output each item is estimated to produce, not
+ * backpressure: the sockets library does not expose how much output is still
+ * waiting to be written. Each connection handler uses its own executor, so a
+ * send that blocks on a slow client only holds up bursts for that handler.
+ *
+ * @param <T> Type of item being burst
+ */
+class PacedBurst<T> implements Runnable {
+
+    /** Executor used to send each slice. */
+    private final ScheduledExecutorService executor;
+    /** Roughly how much output to send in one slice. */
+    private final long sliceSize;
+    /** How long in milliseconds to wait between slices. */
+    private final long pause;
+    /** Checks if the burst should carry on. */
+    private final BooleanSupplier active;
+    /** Sends an item, returning roughly how much output it produced. */
+    private final ToLongFunction<T> sender;
+    /** Called once the burst has finished, or been abandoned. */
+    private final Consumer<Boolean> finished;
+    /** Items still to send. */
+    private final Queue<T> items = new LinkedList<>();
+
+    /**
+     * Create a new PacedBurst.
+     *
+     * @param executor Executor used to send each slice
+     * @param sliceSize Roughly how much output to send in one slice
+     * @param pause How long in milliseconds to wait between slices
+     * @param items Items to send
+     * @param latestTime Gets the time of the latest activity for an item
+     * @param active Checks if the burst should carry on
+     * @param sender Sends an item, returning roughly how much output it produced
+     * @param finished Called with true once every item has been sent, or
+     *                 false if the burst was abandoned
+     */
+    PacedBurst(final ScheduledExecutorService executor, final long sliceSize, final long pause,
+            final Collection<T> items, final ToLongFunction<T> latestTime, final BooleanSupplier active,
+            final ToLongFunction<T> sender, final Consumer<Boolean> finished) {
+        this.executor = executor;
+        this.sliceSize = sliceSize;
+        this.pause = pause;
+        this.active = active;
+        this.sender = sender;
+        this.finished = finished;
+
+        final List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingLong(latestTime).reversed());
+        this.items.addAll(sorted);
+    }
+
+    /**
+     * Start sending the burst.
+     *
+     * @param delay How long in milliseconds to wait before the first slice
+     */
+    void start(final long delay) {
+        schedule(delay);
+    }
+
+    @Override
+    public void run() {
+        if (!active.getAsBoolean()) {
+            items.clear();
+            finished.accept(false);
+            return;
+        }
+
+        long sent = 0;
+        while (sent < sliceSize && !items.isEmpty()) {
+            sent += sender.applyAsLong(items.poll());
+        }
+
+        if (items.isEmpty()) {
+            finished.accept(true);
+        } else {
+            schedule(pause);
+        }
+    }
+
+    /**
+     * Schedule the next slice, abandoning the burst if the executor has been
+     * shut down.
+     *
+     * @param delay How long in milliseconds to wait
+     */
+    private void schedule(final long delay) {
+        try {
+            executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException ex) {
+            items.clear();
+            finished.accept(false);
+        }
+    }
+}
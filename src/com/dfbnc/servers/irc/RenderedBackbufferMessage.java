@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.irc;
+
+import com.dfbnc.sockets.UserSocket;
+import com.dfbnc.util.BackbufferMessage;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A backbuffer message that has been rendered for a particular type of
+ * client, ready to be sent.
+ *
+ * Everything except the batch tag (which is different for every burst) is
+ * rendered in advance, so that the same rendering can be reused for every
+ * client with the same capabilities.
+ */
+public class RenderedBackbufferMessage {
+
+    // TODO: Allow clients to specify a longer length to save us needing
+    //       to wrap things.
+    /** Longest line to send to clients. */
+    private static final int MAX_LENGTH = 510;
+
+    /** Format for the time tag used by server-time. */
+    private static final DateTimeFormatter SERVER_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    // TODO: per-client timezones, somehow.
+    /** Format for timestamps added to the end of messages. */
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z").withZone(ZoneId.systemDefault());
+
+    /** Ways of showing the time of a message. */
+    public enum Format {
+        /** Use the server-time tag. */
+        SERVER_TIME,
+        /** Use the dfbnc.com/tsirc prefix. */
+        TSIRC,
+        /** Add a timestamp to the end of the message. */
+        TIMESTAMP
+    }
+
+    /** Message tags, other than batch, or null if there are none. */
+    private final String tags;
+
+    /** Lines to send. */
+    private final String[] lines;
+
+    /**
+     * Create a new RenderedBackbufferMessage.
+     *
+     * @param tags Message tags other than batch, or null
+     * @param lines Lines to send
+     */
+    private RenderedBackbufferMessage(final String tags, final String[] lines) {
+        this.tags = tags;
+        this.lines = lines;
+    }
+
+    /**
+     * Get a number that identifies the given rendering options, for use as a
+     * cache key.
+     *
+     * @param format How to show the time of messages
+     * @param channelHistory Should messages be tagged as channel history?
+     * @param allowTags Can tags be sent at all?
+     * @return Profile number for the options.
+     */
+    public static int getProfile(final Format format, final boolean channelHistory, final boolean allowTags) {
+        return format.ordinal() | (channelHistory ? 4 : 0) | (allowTags ? 8 : 0);
+    }
+
+    /**
+     * Render a backbuffer message.
+     *
+     * @param message Message to render
+     * @param format How to show the time of the message
+     * @param channelHistory Should the message be tagged as channel history?
+     * @param allowTags Can tags be sent at all?
+     * @return The rendered message.
+     */
+    public static RenderedBackbufferMessage render(final BackbufferMessage message, final Format format, final boolean channelHistory, final boolean allowTags) {
+        final StringBuilder tags = new StringBuilder();
+        final String line;
+
+        if (format == Format.SERVER_TIME) {
+            tags.append("time=").append(SERVER_TIME.format(Instant.ofEpochMilli(message.getTime())));
+            line = message.getMessage();
+        } else if (format == Format.TSIRC) {
+            line = "@" + Long.toString(message.getTime()) + "@" + message.getMessage();
+        } else {
+            final String date = "    [" + TIMESTAMP.format(Instant.ofEpochMilli(message.getTime())) + "]";
+
+            // If it's a CTCP (like an action), insert the timestamp before
+            // the trailing 0x01
+            if (message.getMessage().endsWith("\001")) {
+                line = message.getMessage().substring(0, message.getMessage().length() - 1) + date + "\001";
+            } else {
+                line = message.getMessage() + date;
+            }
+        }
+
+        if (channelHistory) {
+            if (tags.length() > 0) { tags.append(';'); }
+            tags.append("dfbnc.com/channelhistory");
+        }
+
+        return new RenderedBackbufferMessage(allowTags && tags.length() > 0 ? tags.toString() : null, split(line));
+    }
+
+    /**
+     * Split a line that is too long to send into several lines.
+     *
+     * @param line Line to split
+     * @return Lines to send.
+     */
+    private static String[] split(final String line) {
+        if (line.length() <= MAX_LENGTH) {
+            return new String[]{line};
+        }
+
+        // Line is longer than 510...
+        // We need to split it and send it in bits.
+
+        // Firstly separate the protocol bits, and the actual message
+        final int lastarg = line.indexOf(" :");
+        if (lastarg < 0) {
+            return new String[]{line};
+        }
+        final String lastBit = line.substring(lastarg + 2);
+        final String startBits = line.substring(0, lastarg) + " :";
+
+        // Now work out the allowed characters per bit.
+        final int allowed = MAX_LENGTH - startBits.length();
+
+        final List<String> result = new ArrayList<>();
+        for (int i = 0; i < lastBit.length(); i += allowed) {
+            result.add(startBits + lastBit.substring(i, Math.min(i + allowed, lastBit.length())));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Send this message to the given user.
+     *
+     * @param user User to send to
+     * @param batchIdentifier Batch to tag the message with, or null
+     * @return Number of characters sent.
+     */
+    public int send(final UserSocket user, final String batchIdentifier) {
+        int sent = 0;
+        for (final String line : lines) {
+            if (batchIdentifier == null && tags == null) {
+                user.sendLine(line);
+                sent += line.length() + 2;
+                continue;
+            }
+
+            final StringBuilder output = new StringBuilder(line.length() + 64).append('@');
+            if (batchIdentifier != null) {
+                output.append("batch=").append(batchIdentifier);
+                if (tags != null) { output.append(';'); }
+            }
+            if (tags != null) {
+                output.append(tags);
+            }
+            user.sendLine(output.append(' ').append(line).toString());
+            sent += output.length() + 2;
+        }
+        return sent;
+    }
+}
@@ -24,12 +24,21 @@
 package com.dfbnc.servers.logging;
 
 import com.dfbnc.Account;
+import com.dfbnc.config.Config;
 import java.io.File;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.interfaces.ClientInfo;
 
@@ -37,6 +46,9 @@ import com.dmdirc.parser.interfaces.ClientInfo;
 /**
  * Facilitates finding a path for log files.
  *
+ * Paths are cached until the date changes, so finding the path for a target
+ * that has already been logged to is just a map lookup.
+ *
  * This class is based on parts of the DMDirc Logging Plugin.
  */
 public class LogFileLocator {
@@ -50,13 +62,43 @@ public class LogFileLocator {
     /** Date format to use in file names if {@link #usedate} is true. */
     private final String usedateformat = "yyyy-MM-dd";
 
-    /** The account we are logging for. */
-    private final Account myAccount;
+    /** Format used for the start time in segment file names. */
+    private static final DateTimeFormatter SEGMENT_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault());
+
+    /** Names of rotated segments, as made by {@link #getSegmentFile}. */
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(.+)\\.(\\d{8}-\\d{6})(?:-\\d+)?(\\.[^.]*)?");
+
+    /** Maximum number of paths to cache for each date. */
+    private static final int MAX_CACHED_PATHS = 1024;
+
+    /** The config directory of the account we are logging for. */
+    private final File configDirectory;
+
+    /** The config of the account we are logging for. */
+    private final Supplier<Config> config;
+
+    /** Log directory, with a trailing separator. */
+    private final String logDirectory;
+
+    /** Paths for the current date. */
+    private volatile DateBucket bucket = null;
 
     public LogFileLocator(final Account account) throws Exception {
-        myAccount = account;
+        this(account.getConfigDirectory(), account::getAccountConfig);
+    }
 
-        final File dir = new File(myAccount.getConfigDirectory(), "logs");
+    /**
+     * Create a new LogFileLocator.
+     *
+     * @param configDirectory Config directory of the account we are logging for
+     * @param config Config of the account we are logging for
+     * @throws Exception if we are unable to create the logs directory.
+     */
+    LogFileLocator(final File configDirectory, final Supplier<Config> config) throws Exception {
+        this.configDirectory = configDirectory;
+        this.config = config;
+
+        final File dir = new File(configDirectory, "logs");
         if (dir.exists()) {
             if (!dir.isDirectory()) {
                 throw new Exception("Unable to create logging dir (file exists instead)");
@@ -66,20 +108,9 @@ public class LogFileLocator {
                 throw new Exception("Unable to create logging dir");
             }
         }
-    }
 
-    /**
-     * Sanitises the log file directory.
-     *
-     * @return Log directory
-     */
-    private StringBuffer getLogDirectory() {
-        final StringBuffer directory = new StringBuffer();
-        directory.append(new File(myAccount.getConfigDirectory(), "logs").toString());
-        if (directory.charAt(directory.length() - 1) != File.separatorChar) {
-            directory.append(File.separatorChar);
-        }
-        return directory;
+        final String directory = dir.toString();
+        logDirectory = (directory.charAt(directory.length() - 1) == File.separatorChar) ? directory : directory + File.separatorChar;
     }
 
     /**
@@ -90,10 +121,7 @@ public class LogFileLocator {
      * @return the name of the log file to use for this object.
      */
     public String getLogFile(final ChannelInfo channel) {
-        final StringBuffer directory = getLogDirectory();
-        final StringBuffer file = new StringBuffer();
-        file.append(sanitise(channel.getName().toLowerCase()));
-        return getPath(directory, file, channel.getName());
+        return getLogFile(channel.getName());
     }
 
     /**
@@ -104,10 +132,7 @@ public class LogFileLocator {
      * @return the name of the log file to use for this object.
      */
     public String getLogFile(final ClientInfo user) {
-        final StringBuffer directory = getLogDirectory();
-        final StringBuffer file = new StringBuffer();
-        file.append(sanitise(user.getNickname().toLowerCase()));
-        return getPath(directory, file, user.getNickname());
+        return getLogFile(user.getNickname());
     }
 
     /**
@@ -118,50 +143,240 @@ public class LogFileLocator {
      * @return the name of the log file to use for this object.
      */
     public String getLogFile(final String descriptor) {
-        final StringBuffer directory = getLogDirectory();
-        final StringBuffer file = new StringBuffer();
-        final String md5String;
-        if (descriptor == null) {
-            file.append("null.log");
-            md5String = "";
-        } else {
-            file.append(sanitise(descriptor.toLowerCase()));
-            md5String = descriptor;
+        final DateBucket current = getDateBucket();
+        if (current == null) {
+            return null;
+        } else if (descriptor == null) {
+            return getPath(current.directory, "null", "");
         }
-        return getPath(directory, file, md5String);
+
+        String path = current.paths.get(descriptor);
+        if (path == null) {
+            if (current.paths.size() >= MAX_CACHED_PATHS) {
+                current.paths.clear();
+            }
+            path = getPath(current.directory, descriptor.toLowerCase(), descriptor);
+            current.paths.put(descriptor, path);
+        }
+        return path;
     }
 
     /**
-     * Gets the path for the given file and directory. Only intended to be used from getLogFile
-     * methods.
-     *
-     * @param directory Log file directory
-     * @param file      Log file path
-     * @param md5String Log file object MD5 hash
+     * Get the paths for the current date, moving on to a new date and
+     * creating its directory if needed.
      *
-     * @return Name of the log file
+     * @return Paths for the current date, or null if the directory for the
+     *         current date could not be created.
      */
-    public String getPath(final StringBuffer directory, final StringBuffer file, final String md5String) {
-        if (usedate) {
-            final String dateFormat = usedateformat;
-            final String dateDir = new SimpleDateFormat(dateFormat).format(new Date());
-            directory.append(dateDir);
+    private DateBucket getDateBucket() {
+        final long now = System.currentTimeMillis();
+        final DateBucket current = bucket;
+        if (current != null && now < current.expires) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (bucket != null && now < bucket.expires) {
+                return bucket;
+            }
+
+            if (!usedate) {
+                bucket = new DateBucket(logDirectory, Long.MAX_VALUE);
+                return bucket;
+            }
+
+            final ZoneId zone = ZoneId.systemDefault();
+            final LocalDate today = LocalDate.now(zone);
+            final StringBuilder directory = new StringBuilder(logDirectory);
+            directory.append(DateTimeFormatter.ofPattern(usedateformat).format(today));
             if (directory.charAt(directory.length() - 1) != File.separatorChar) {
                 directory.append(File.separatorChar);
             }
 
-            if (!new File(directory.toString()).exists() && !new File(directory.toString()).mkdirs()) {
+            final File dir = new File(directory.toString());
+            if (!dir.exists() && !dir.mkdirs()) {
                 return null;
             }
+
+            bucket = new DateBucket(directory.toString(), today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+            return bucket;
         }
+    }
+
+    /**
+     * Gets the path for the given file in the given directory.
+     *
+     * @param directory Log file directory
+     * @param name      Name of log file, before sanitising
+     * @param md5String Log file object MD5 hash
+     *
+     * @return Name of the log file
+     */
+    private String getPath(final String directory, final String name, final String md5String) {
+        final StringBuilder path = new StringBuilder(directory);
+        path.append(sanitise(name));
 
         if (filenamehash) {
-            file.append('.');
-            file.append(md5(md5String));
+            path.append('.');
+            path.append(md5(md5String));
+        }
+        path.append(".log");
+
+        return path.toString();
+    }
+
+    /**
+     * Get the time at which a log file that was started at the given time
+     * should be rotated, according to the server.logrotate setting.
+     *
+     * @param time Time the log file was started
+     * @return Time to rotate the file, or Long.MAX_VALUE if it should not be
+     *         rotated by time.
+     */
+    public long getRotationTime(final long time) {
+        if (!"daily".equalsIgnoreCase(config.get().getOption("server", "logrotate"))) {
+            return Long.MAX_VALUE;
+        }
+        final ZoneId zone = ZoneId.systemDefault();
+        return Instant.ofEpochMilli(time).atZone(zone).toLocalDate().plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Get the size at which a log file should be rotated, according to the
+     * server.logrotate setting.
+     *
+     * @return Size in bytes to rotate files at, or Long.MAX_VALUE if they
+     *         should not be rotated by size.
+     */
+    public long getRotationSize() {
+        if (!"size".equalsIgnoreCase(config.get().getOption("server", "logrotate"))) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, config.get().getOptionInt("server", "logrotatesize")) * 1024L;
+    }
+
+    /**
+     * Get the maximum number of rotated segments to keep for each log file.
+     *
+     * @return Number of segments to keep, or 0 to keep them all.
+     */
+    public int getMaxSegments() {
+        return Math.max(0, config.get().getOptionInt("server", "logsegments"));
+    }
+
+    /**
+     * Get the name that a log file should be renamed to when it is rotated.
+     *
+     * @param filename Log file being rotated
+     * @param time Time the log file was started
+     * @return Name of the rotated segment.
+     */
+    public String getSegmentFile(final String filename, final long time) {
+        return getBaseName(filename) + "." + SEGMENT_FORMAT.format(Instant.ofEpochMilli(time)) + getExtension(filename);
+    }
+
+    /**
+     * Get the time that a rotated segment was started, from its name.
+     *
+     * @param segment Name of the uncompressed segment
+     * @return Time the segment was started, or -1 if the name is not that of
+     *         a segment.
+     */
+    public long getSegmentTime(final String segment) {
+        final Matcher matcher = SEGMENT_NAME.matcher(new File(segment).getName());
+        if (!matcher.matches()) {
+            return -1;
+        }
+        try {
+            return Instant.from(SEGMENT_FORMAT.parse(matcher.group(2))).toEpochMilli();
+        } catch (final DateTimeParseException ex) {
+            return -1;
         }
-        file.append(".log");
+    }
+
+    /**
+     * Get the name of the manifest that a rotated segment belongs in.
+     *
+     * @param segment Name of the uncompressed segment
+     * @return Name of the manifest file, or null if the name is not that of a
+     *         segment.
+     */
+    public String getSegmentManifest(final String segment) {
+        final File file = new File(segment);
+        final Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new File(file.getParentFile(), matcher.group(1) + ".manifest").getPath();
+    }
 
-        return directory + file.toString();
+    /**
+     * Get the directory that logs are stored in.
+     *
+     * @return Log directory.
+     */
+    public File getLogDirectory() {
+        return new File(logDirectory);
+    }
+
+    /**
+     * Get the name of the manifest that lists the rotated segments of the
+     * given log file.
+     *
+     * @param filename Log file to get the manifest for
+     * @return Name of the manifest file.
+     */
+    public String getManifestFile(final String filename) {
+        return getBaseName(filename) + ".manifest";
+    }
+
+    /**
+     * Get the directory to store the log search index in.
+     *
+     * @return Log index directory.
+     */
+    public File getIndexDirectory() {
+        return new File(configDirectory, "logindex");
+    }
+
+    /**
+     * Get the name of the structured record log, creating the directory for
+     * it if needed.
+     *
+     * This is kept in its own directory so that it can't clash with the log
+     * for a target.
+     *
+     * @return Name of the record log file, or null if the directory could
+     *         not be created.
+     */
+    public String getRecordFile() {
+        final File dir = new File(logDirectory, "records");
+        if (!dir.exists() && !dir.mkdirs()) {
+            return null;
+        }
+        return new File(dir, "events.records").getPath();
+    }
+
+    /**
+     * Get the name of a log file without its extension.
+     *
+     * @param filename Log file name
+     * @return Name without the extension.
+     */
+    private static String getBaseName(final String filename) {
+        return filename.substring(0, filename.length() - getExtension(filename).length());
+    }
+
+    /**
+     * Get the extension of a log file.
+     *
+     * @param filename Log file name
+     * @return The extension, including the dot, or an empty string if there
+     *         isn't one.
+     */
+    private static String getExtension(final String filename) {
+        final int dot = filename.lastIndexOf('.');
+        return (dot > filename.lastIndexOf(File.separatorChar)) ? filename.substring(dot) : "";
     }
 
     /**
@@ -193,4 +408,26 @@ public class LogFileLocator {
         }
     }
 
+    /** Log file paths for a single date. */
+    private static class DateBucket {
+
+        /** Directory for this date's logs, with a trailing separator. */
+        private final String directory;
+        /** Time that this date ends. */
+        private final long expires;
+        /** Map of target names to paths. */
+        private final Map<String, String> paths = new ConcurrentHashMap<>();
+
+        /**
+         * Create a new DateBucket.
+         *
+         * @param directory Directory for this date's logs
+         * @param expires Time that this date ends
+         */
+        DateBucket(final String directory, final long expires) {
+            this.directory = directory;
+            this.expires = expires;
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,696 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Incremental inverted index over log files.
+ *
+ * Each term maps to a list of postings, each of which is the position of a
+ * line containing the term in one of the log files. New postings are kept in
+ * memory until there are enough of them, and then written out as a new
+ * immutable segment. Whenever the newest segment is at least half the size of
+ * the one before it, the two are merged, so there are only ever a logarithmic
+ * number of segments and each posting is rewritten a logarithmic number of
+ * times.
+ *
+ * A posting packs a file ID into the top bits of a long and the offset of the
+ * line in the file into the rest. When a log file is rotated it is given a
+ * new ID, and postings for the old one are ignored and dropped at the next
+ * merge.
+ *
+ * Only one LogIndex is ever open for a directory at a time, and it is shared
+ * by everything that opens that directory, so that a writer that is still
+ * finishing up can't clash with the one that replaces it.
+ */
+public class LogIndex {
+
+    /** Magic number at the start of segment files. */
+    private static final int MAGIC = 0x44464C49;
+    /** Number of bits of a posting used for the offset. */
+    private static final int OFFSET_BITS = 40;
+    /** Mask to get the offset from a posting. */
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    /** Number of postings to keep in memory before writing a segment. */
+    private static final int FLUSH_POSTINGS = 65536;
+    /** Shortest term to index. */
+    private static final int MIN_TERM_LENGTH = 2;
+    /** Longest term to index. */
+    private static final int MAX_TERM_LENGTH = 64;
+    /** Longest line to read back from a log file. */
+    private static final int MAX_LINE_LENGTH = 8192;
+    /** Indexes that are currently open, by directory. */
+    private static final Map<File, LogIndex> OPEN_INDEXES = new HashMap<>();
+
+    /** Directory the index is stored in. */
+    private final File directory;
+    /** File that lists the IDs of the log files. */
+    private final File filesFile;
+    /** Map of log file names to IDs. */
+    private final Map<String, Integer> fileIds = new HashMap<>();
+    /** Map of IDs to log file names. */
+    private final Map<Integer, String> fileNames = new HashMap<>();
+    /** Next log file ID to use. */
+    private int nextFileId = 0;
+    /** Postings that have not been written to a segment yet. */
+    private final Map<String, PostingList> pending = new HashMap<>();
+    /** Number of postings that have not been written to a segment yet. */
+    private int pendingCount = 0;
+    /** Segments, oldest first. */
+    private final List<Segment> segments = new ArrayList<>();
+    /** Number to use for the next segment file. */
+    private int nextSegment = 0;
+    /** Has the list of log file IDs changed since it was saved? */
+    private boolean filesChanged = false;
+    /** Number of times this index has been opened and not closed. */
+    private int references = 0;
+
+    /**
+     * Open the index in the given directory, creating it if needed. If the
+     * index is already open, the same instance is returned.
+     *
+     * Each call must be matched by a call to {@link #close()}.
+     *
+     * @param directory Directory to store the index in
+     * @return The index.
+     * @throws IOException If the index can not be read or created.
+     */
+    public static LogIndex open(final File directory) throws IOException {
+        final File key = directory.getCanonicalFile();
+        synchronized (OPEN_INDEXES) {
+            LogIndex index = OPEN_INDEXES.get(key);
+            if (index == null) {
+                index = new LogIndex(key);
+                OPEN_INDEXES.put(key, index);
+            }
+            index.references++;
+            return index;
+        }
+    }
+
+    /**
+     * Open the index in the given directory, creating it if needed.
+     *
+     * @param directory Directory to store the index in
+     * @throws IOException If the index can not be read or created.
+     */
+    private LogIndex(final File directory) throws IOException {
+        this.directory = directory;
+        this.filesFile = new File(directory, "files");
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create index directory: " + directory);
+        }
+
+        if (filesFile.exists()) {
+            for (String line : Files.readAllLines(filesFile.toPath(), StandardCharsets.UTF_8)) {
+                final String[] bits = line.split(" ", 2);
+                if (bits.length < 2) { continue; }
+                if (bits[0].equals("next")) {
+                    nextFileId = Integer.parseInt(bits[1]);
+                } else {
+                    final int id = Integer.parseInt(bits[0]);
+                    fileIds.put(bits[1], id);
+                    fileNames.put(id, bits[1]);
+                    nextFileId = Math.max(nextFileId, id + 1);
+                }
+            }
+        }
+
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Integer.compare(getSegmentNumber(a), getSegmentNumber(b)));
+            for (File file : files) {
+                segments.add(new Segment(file));
+                nextSegment = Math.max(nextSegment, getSegmentNumber(file) + 1);
+            }
+        }
+    }
+
+    /**
+     * Add a line to the index.
+     *
+     * @param filename Log file the line was written to
+     * @param offset Offset of the line in the file
+     * @param line Text of the line to index
+     * @throws IOException If a segment needed writing and could not be.
+     */
+    public synchronized void add(final String filename, final long offset, final String line) throws IOException {
+        Integer id = fileIds.get(filename);
+        if (id == null) {
+            id = nextFileId++;
+            fileIds.put(filename, id);
+            fileNames.put(id, filename);
+            filesChanged = true;
+        }
+
+        final long posting = ((long) id << OFFSET_BITS) | (offset & OFFSET_MASK);
+        for (String term : getTerms(line)) {
+            pending.computeIfAbsent(term, t -> new PostingList()).add(posting);
+            pendingCount++;
+        }
+
+        if (pendingCount >= FLUSH_POSTINGS) {
+            flush();
+        }
+    }
+
+    /**
+     * Forget everything indexed for the given log file, because it has been
+     * rotated away and anything written to that name from now on is a new
+     * file.
+     *
+     * @param filename Log file that was rotated
+     */
+    public synchronized void fileRotated(final String filename) {
+        final Integer id = fileIds.remove(filename);
+        if (id != null) {
+            fileNames.remove(id);
+            filesChanged = true;
+        }
+    }
+
+    /**
+     * Find the newest lines that contain all of the terms in the given query.
+     *
+     * @param query Terms to look for
+     * @param max Maximum number of lines to return
+     * @return Matching lines, newest first within each file, starting with
+     *         the files that were most recently added to the index.
+     * @throws IOException If the index or log files can't be read.
+     */
+    public synchronized List<Match> search(final String query, final int max) throws IOException {
+        final Set<String> terms = getTerms(query);
+        final List<Match> result = new ArrayList<>();
+        if (terms.isEmpty()) { return result; }
+
+        long[] matches = null;
+        for (String term : terms) {
+            final long[] postings = getPostings(term);
+            matches = (matches == null) ? postings : intersect(matches, postings);
+            if (matches.length == 0) { return result; }
+        }
+
+        // Postings sort by file ID then offset, so work backwards to get the
+        // newest lines.
+        for (int i = matches.length - 1; i >= 0 && result.size() < max; i--) {
+            final String filename = fileNames.get((int) (matches[i] >>> OFFSET_BITS));
+            if (filename == null) { continue; }
+
+            final String line = readLine(filename, matches[i] & OFFSET_MASK);
+            if (line != null && getTerms(line).containsAll(terms)) {
+                result.add(new Match(filename, line));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write any postings still in memory out to a new segment, and save the
+     * list of log file IDs if it has changed.
+     *
+     * The list is saved first, so that every file ID used by a segment has
+     * been saved and won't be given out again.
+     *
+     * @throws IOException If the segment can not be written.
+     */
+    public synchronized void flush() throws IOException {
+        if (filesChanged) {
+            saveFiles();
+            filesChanged = false;
+        }
+        if (pending.isEmpty()) { return; }
+
+        final Map<String, long[]> postings = new HashMap<>();
+        for (Map.Entry<String, PostingList> entry : pending.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().toSortedArray());
+        }
+        pending.clear();
+        pendingCount = 0;
+
+        segments.add(writeSegment(new TreeSet<>(postings.keySet()), postings::get));
+
+        while (segments.size() > 1 && segments.get(segments.size() - 1).file.length() * 2 >= segments.get(segments.size() - 2).file.length()) {
+            mergeLast();
+        }
+    }
+
+    /**
+     * Flush the index, and close it if nothing else has it open.
+     *
+     * @throws IOException If the index can not be flushed.
+     */
+    public void close() throws IOException {
+        synchronized (OPEN_INDEXES) {
+            if (references > 0 && --references == 0) {
+                OPEN_INDEXES.remove(directory);
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Merge the newest two segments into one, dropping postings for files
+     * that have been rotated.
+     *
+     * @throws IOException If the segments can not be read or written.
+     */
+    private void mergeLast() throws IOException {
+        final List<Segment> old = new ArrayList<>(segments.subList(segments.size() - 2, segments.size()));
+        final TreeSet<String> terms = new TreeSet<>();
+        for (Segment segment : old) {
+            terms.addAll(Arrays.asList(segment.terms));
+        }
+
+        final Segment merged = writeSegment(terms, term -> {
+            final PostingList list = new PostingList();
+            for (Segment segment : old) {
+                for (long posting : segment.getPostings(term)) {
+                    if (fileNames.containsKey((int) (posting >>> OFFSET_BITS))) {
+                        list.add(posting);
+                    }
+                }
+            }
+            return list.toSortedArray();
+        });
+
+        segments.removeAll(old);
+        segments.add(merged);
+        for (Segment segment : old) {
+            Files.delete(segment.file.toPath());
+        }
+    }
+
+    /**
+     * Write a new segment.
+     *
+     * @param terms Terms to write, in order
+     * @param source Where to get the sorted postings for each term from
+     * @return The new segment.
+     * @throws IOException If the segment can not be written.
+     */
+    private Segment writeSegment(final TreeSet<String> terms, final PostingSource source) throws IOException {
+        final File file = new File(directory, (nextSegment++) + ".seg");
+        final File temp = new File(file.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536))) {
+            out.writeInt(MAGIC);
+
+            final List<String> written = new ArrayList<>(terms.size());
+            final List<long[]> positions = new ArrayList<>(terms.size());
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            long position = 4;
+            for (String term : terms) {
+                final long[] postings = source.getPostings(term);
+                if (postings.length == 0) { continue; }
+
+                buffer.reset();
+                writeVarLong(buffer, postings.length);
+                long last = 0;
+                for (long posting : postings) {
+                    writeVarLong(buffer, posting - last);
+                    last = posting;
+                }
+                buffer.writeTo(out);
+
+                written.add(term);
+                positions.add(new long[]{position, buffer.size()});
+                position += buffer.size();
+            }
+
+            // Dictionary, then where to find it.
+            out.writeInt(written.size());
+            for (int i = 0; i < written.size(); i++) {
+                out.writeUTF(written.get(i));
+                out.writeLong(positions.get(i)[0]);
+                out.writeInt((int) positions.get(i)[1]);
+            }
+            out.writeLong(position);
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Segment(file);
+    }
+
+    /**
+     * Get all the postings for a term, sorted.
+     *
+     * @param term Term to look for
+     * @return Sorted postings for the term.
+     * @throws IOException If a segment can not be read.
+     */
+    private long[] getPostings(final String term) throws IOException {
+        final PostingList list = new PostingList();
+        for (Segment segment : segments) {
+            for (long posting : segment.getPostings(term)) {
+                list.add(posting);
+            }
+        }
+        final PostingList inMemory = pending.get(term);
+        if (inMemory != null) {
+            for (int i = 0; i < inMemory.size; i++) {
+                list.add(inMemory.postings[i]);
+            }
+        }
+        return list.toSortedArray();
+    }
+
+    /**
+     * Save the list of log file IDs.
+     *
+     * @throws IOException If the list can not be written.
+     */
+    private void saveFiles() throws IOException {
+        final List<String> lines = new ArrayList<>(fileIds.size() + 1);
+        lines.add("next " + nextFileId);
+        for (Map.Entry<String, Integer> entry : fileIds.entrySet()) {
+            lines.add(entry.getValue() + " " + entry.getKey());
+        }
+
+        final File temp = new File(filesFile.getPath() + ".tmp");
+        Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), filesFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a line back from a log file.
+     *
+     * @param filename Log file to read
+     * @param offset Offset of the line
+     * @return The line, or null if the file or offset no longer exists.
+     * @throws IOException If the file can not be read.
+     */
+    private static String readLine(final String filename, final long offset) throws IOException {
+        final File file = new File(filename);
+        if (!file.exists() || offset >= file.length()) { return null; }
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(offset);
+            final byte[] buffer = new byte[(int) Math.min(MAX_LINE_LENGTH, file.length() - offset)];
+            in.readFully(buffer);
+
+            int length = 0;
+            while (length < buffer.length && buffer[length] != '\n' && buffer[length] != '\r') {
+                length++;
+            }
+            return new String(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Split some text into the terms to index it by.
+     *
+     * @param text Text to split
+     * @return Lower case terms in the text.
+     */
+    protected static Set<String> getTerms(final String text) {
+        final Set<String> terms = new HashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            final boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start == -1) {
+                start = i;
+            } else if (!wordChar && start != -1) {
+                if (i - start >= MIN_TERM_LENGTH && i - start <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase());
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Intersect two sorted arrays of postings.
+     *
+     * @param first First array
+     * @param second Second array
+     * @return Sorted postings that are in both arrays.
+     */
+    private static long[] intersect(final long[] first, final long[] second) {
+        final long[] result = new long[Math.min(first.length, second.length)];
+        int i = 0, j = 0, size = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Get the number of a segment from its file name.
+     *
+     * @param file Segment file
+     * @return Segment number.
+     */
+    private static int getSegmentNumber(final File file) {
+        final String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - 4));
+        } catch (final NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Write a variable-length unsigned long.
+     *
+     * @param out Stream to write to
+     * @param value Value to write
+     */
+    private static void writeVarLong(final ByteArrayOutputStream out, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /** A line that matched a search. */
+    public static class Match {
+
+        /** Log file the line is in. */
+        private final String filename;
+        /** The line. */
+        private final String line;
+
+        /**
+         * Create a new Match.
+         *
+         * @param filename Log file the line is in
+         * @param line The line
+         */
+        public Match(final String filename, final String line) {
+            this.filename = filename;
+            this.line = line;
+        }
+
+        /**
+         * Get the log file the line is in.
+         *
+         * @return Log file name.
+         */
+        public String getFilename() {
+            return filename;
+        }
+
+        /**
+         * Get the line.
+         *
+         * @return The line.
+         */
+        public String getLine() {
+            return line;
+        }
+    }
+
+    /** Source of postings for a term when writing a segment. */
+    private interface PostingSource {
+
+        /**
+         * Get the sorted postings for a term.
+         *
+         * @param term Term to get postings for
+         * @return Sorted postings.
+         * @throws IOException If the postings can not be read.
+         */
+        long[] getPostings(String term) throws IOException;
+    }
+
+    /** Growable list of postings. */
+    private static class PostingList {
+
+        /** Postings. */
+        private long[] postings = new long[4];
+        /** Number of postings. */
+        private int size = 0;
+
+        /**
+         * Add a posting.
+         *
+         * @param posting Posting to add
+         */
+        void add(final long posting) {
+            if (size == postings.length) {
+                postings = Arrays.copyOf(postings, size * 2);
+            }
+            postings[size++] = posting;
+        }
+
+        /**
+         * Get the postings, sorted.
+         *
+         * @return Sorted copy of the postings.
+         */
+        long[] toSortedArray() {
+            final long[] result = Arrays.copyOf(postings, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    /** A segment file, with its dictionary loaded. */
+    private static class Segment {
+
+        /** Segment file. */
+        private final File file;
+        /** Terms in the segment, sorted. */
+        private final String[] terms;
+        /** Position of each term's postings. */
+        private final long[] positions;
+        /** Length of each term's postings. */
+        private final int[] lengths;
+
+        /**
+         * Open a segment and load its dictionary.
+         *
+         * @param file Segment file
+         * @throws IOException If the segment can not be read.
+         */
+        Segment(final File file) throws IOException {
+            this.file = file;
+
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                if (in.length() < 16 || in.readInt() != MAGIC) {
+                    throw new IOException("Invalid index segment: " + file);
+                }
+                in.seek(in.length() - 8);
+                final long dictionary = in.readLong();
+                final byte[] data = new byte[(int) (in.length() - 8 - dictionary)];
+                in.seek(dictionary);
+                in.readFully(data);
+
+                final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+                final int count = dis.readInt();
+                terms = new String[count];
+                positions = new long[count];
+                lengths = new int[count];
+                for (int i = 0; i < count; i++) {
+                    terms[i] = dis.readUTF();
+                    positions[i] = dis.readLong();
+                    lengths[i] = dis.readInt();
+                }
+            }
+        }
+
+        /**
+         * Get the postings for a term in this segment.
+         *
+         * @param term Term to look for
+         * @return Sorted postings, or an empty array if the term isn't here.
+         * @throws IOException If the segment can not be read.
+         */
+        long[] getPostings(final String term) throws IOException {
+            final int index = Arrays.binarySearch(terms, term);
+            if (index < 0) { return new long[0]; }
+
+            final byte[] data = new byte[lengths[index]];
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                in.seek(positions[index]);
+                in.readFully(data);
+            }
+
+            int pos = 0;
+            final long[] value = new long[1];
+            pos = readVarLong(data, pos, value);
+            final long[] result = new long[(int) value[0]];
+            long last = 0;
+            for (int i = 0; i < result.length; i++) {
+                pos = readVarLong(data, pos, value);
+                last += value[0];
+                result[i] = last;
+            }
+            return result;
+        }
+
+        /**
+         * Read a variable-length unsigned long.
+         *
+         * @param data Data to read from
+         * @param start Position to read from
+         * @param value Array to store the value in
+         * @return Position after the value.
+         */
+        private static int readVarLong(final byte[] data, final int start, final long[] value) {
+            long result = 0;
+            int shift = 0;
+            int pos = start;
+            byte b;
+            do {
+                b = data[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            value[0] = result;
+            return pos;
+        }
+    }
+}
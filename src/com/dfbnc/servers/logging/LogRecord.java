@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.logging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A single event in the structured record log.
+ *
+ * Records are written as a 4 byte length, followed by that many bytes
+ * containing the time in milliseconds (8 bytes), the event type (1 byte), and
+ * then the target, source and payload as length-prefixed modified UTF-8, as
+ * written by {@link DataOutputStream#writeUTF(String)}.
+ */
+public class LogRecord {
+
+    /** Types of event. */
+    public enum Type {
+        /** A message. */
+        MESSAGE(1),
+        /** A notice. */
+        NOTICE(2),
+        /** An action. */
+        ACTION(3),
+        /** A topic change. */
+        TOPIC(4),
+        /** A channel join. */
+        JOIN(5),
+        /** A channel part. */
+        PART(6),
+        /** A quit. */
+        QUIT(7),
+        /** A kick, the payload is the nickname that was kicked then the reason. */
+        KICK(8),
+        /** A nickname change, the payload is the new nickname. */
+        NICK(9),
+        /** A mode change. */
+        MODE(10);
+
+        /** Code used for this type in the record log. */
+        private final int code;
+
+        /**
+         * Create a new Type.
+         *
+         * @param code Code used for this type in the record log
+         */
+        Type(final int code) {
+            this.code = code;
+        }
+
+        /**
+         * Get the code used for this type in the record log.
+         *
+         * @return Code for this type.
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * Get the type with the given code.
+         *
+         * @param code Code to look for
+         * @return Type with the given code, or null if there isn't one.
+         */
+        public static Type fromCode(final int code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Longest string to store, so that it fits in writeUTF's limit. */
+    private static final int MAX_LENGTH = 16384;
+
+    /** Time of the event in milliseconds. */
+    private final long time;
+    /** Type of event. */
+    private final Type type;
+    /** Channel or nickname the event happened in. */
+    private final String target;
+    /** Host of the client that caused the event. */
+    private final String source;
+    /** Event details, such as the message text. */
+    private final String payload;
+
+    /**
+     * Create a new LogRecord.
+     *
+     * @param time Time of the event in milliseconds
+     * @param type Type of event
+     * @param target Channel or nickname the event happened in
+     * @param source Host of the client that caused the event
+     * @param payload Event details, such as the message text
+     */
+    public LogRecord(final long time, final Type type, final String target, final String source, final String payload) {
+        this.time = time;
+        this.type = type;
+        this.target = limit(target);
+        this.source = limit(source);
+        this.payload = limit(payload);
+    }
+
+    /**
+     * Make sure a string can be stored in a record.
+     *
+     * @param value String to check
+     * @return The string, or an empty string if it was null, truncated if
+     *         needed.
+     */
+    private static String limit(final String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.length() > MAX_LENGTH ? value.substring(0, MAX_LENGTH) : value;
+    }
+
+    /**
+     * Get the time of the event.
+     *
+     * @return Time in milliseconds.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Get the type of event.
+     *
+     * @return Type of event, or null if the type was not recognised.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the channel or nickname the event happened in.
+     *
+     * @return Target of the event.
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Get the host of the client that caused the event.
+     *
+     * @return Source of the event.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Get the event details, such as the message text.
+     *
+     * @return Payload of the event.
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Encode this record, including its length prefix.
+     *
+     * @return Encoded record.
+     */
+    public byte[] toBytes() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + payload.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeLong(time);
+            out.writeByte(type.getCode());
+            out.writeUTF(target);
+            out.writeUTF(source);
+            out.writeUTF(payload);
+        } catch (final IOException ex) {
+            // Can't happen writing to a byte array.
+            throw new IllegalStateException(ex);
+        }
+
+        final byte[] result = bytes.toByteArray();
+        final int length = result.length - 4;
+        result[0] = (byte) (length >>> 24);
+        result[1] = (byte) (length >>> 16);
+        result[2] = (byte) (length >>> 8);
+        result[3] = (byte) length;
+        return result;
+    }
+
+    /**
+     * Read the next record from a stream.
+     *
+     * Records with types that aren't recognised are still returned, with a
+     * null type, so that newer logs can be read by older code.
+     *
+     * @param in Stream to read from
+     * @return The next record, or null at the end of the stream.
+     * @throws IOException If the stream can't be read, or ends part way
+     *         through a record.
+     */
+    public static LogRecord read(final DataInputStream in) throws IOException {
+        final int length;
+        try {
+            length = in.readInt();
+        } catch (final EOFException ex) {
+            return null;
+        }
+
+        final byte[] data = new byte[length];
+        in.readFully(data);
+
+        final DataInputStream record = new DataInputStream(new ByteArrayInputStream(data));
+        final long time = record.readLong();
+        final Type type = Type.fromCode(record.readUnsignedByte());
+        return new LogRecord(time, type, record.readUTF(), record.readUTF(), record.readUTF());
+    }
+}
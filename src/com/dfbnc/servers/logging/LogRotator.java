@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.logging;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Rotates log files into segments, and compresses rotated segments in the
+ * background.
+ *
+ * Each log file has a manifest that lists its compressed segments, oldest
+ * first, along with the times they cover and their size. This is used to
+ * remove the oldest segments once there are more than we want to keep.
+ *
+ * Compression happens on a daemon thread, so a segment can be left
+ * uncompressed or missing from its manifest if we exit part way through.
+ * {@link #recover()} finds and finishes off any such segments.
+ */
+public class LogRotator {
+
+    /** Executor used to compress rotated segments. */
+    private static final ExecutorService COMPRESS_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "Log Compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Locator used to name segments and manifests. */
+    private final LogFileLocator locator;
+
+    /**
+     * Create a new LogRotator.
+     *
+     * @param locator Locator used to name segments and manifests
+     */
+    public LogRotator(final LogFileLocator locator) {
+        this.locator = locator;
+    }
+
+    /**
+     * Queue a check for segments that were left uncompressed or missing from
+     * their manifest, for example because we exited while compressing them.
+     * This should be called before anything is rotated.
+     */
+    public void recover() {
+        COMPRESS_EXECUTOR.execute(this::recoverSegments);
+    }
+
+    /**
+     * Compress any uncompressed segments, and add any compressed segments
+     * that are missing from their manifest.
+     */
+    void recoverSegments() {
+        final Map<File, List<String>> missing = new HashMap<>();
+        recoverSegments(locator.getLogDirectory(), missing);
+        if (missing.isEmpty()) { return; }
+
+        final int maxSegments = locator.getMaxSegments();
+        for (Map.Entry<File, List<String>> entry : missing.entrySet()) {
+            try {
+                updateManifest(entry.getKey(), entry.getValue(), maxSegments);
+            } catch (final IOException ex) {
+                Logger.error("Unable to update log manifest " + entry.getKey() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Recover the segments in the given directory and its subdirectories.
+     *
+     * @param directory Directory to check
+     * @param missing Map to add manifest entries for unlisted segments to
+     */
+    private void recoverSegments(final File directory, final Map<File, List<String>> missing) {
+        final File[] files = directory.listFiles();
+        if (files == null) { return; }
+
+        final Map<File, Set<String>> listed = new HashMap<>();
+        for (File file : files) {
+            final String name = file.getPath();
+            if (file.isDirectory()) {
+                recoverSegments(file, missing);
+                continue;
+            } else if (name.endsWith(".gz.tmp")) {
+                // An unfinished compression, the segment itself is still
+                // there to be compressed again.
+                file.delete();
+                continue;
+            }
+
+            final boolean isCompressed = name.endsWith(".gz");
+            final String segment = isCompressed ? name.substring(0, name.length() - 3) : name;
+            final String manifestName = locator.getSegmentManifest(segment);
+            final long start = locator.getSegmentTime(segment);
+            if (manifestName == null || start < 0) { continue; }
+
+            final File compressed;
+            if (isCompressed) {
+                compressed = file;
+            } else if (new File(name + ".gz").exists()) {
+                // Compressed, but not yet removed. The compressed file is
+                // dealt with on its own.
+                file.delete();
+                continue;
+            } else {
+                compressed = compressSegment(file);
+                if (compressed == null) { continue; }
+            }
+
+            final File manifest = new File(manifestName);
+            final Set<String> names = listed.computeIfAbsent(manifest, LogRotator::getListedSegments);
+            if (names.add(compressed.getName())) {
+                // The end time is lost, but the segment will have been
+                // rotated shortly after it was last written to.
+                missing.computeIfAbsent(manifest, m -> new ArrayList<>())
+                        .add(getManifestLine(compressed, start, Math.max(start, compressed.lastModified())));
+            }
+        }
+    }
+
+    /**
+     * Get the names of the segments listed in the given manifest.
+     *
+     * @param manifest Manifest to read
+     * @return Names of the listed segments.
+     */
+    private static Set<String> getListedSegments(final File manifest) {
+        final Set<String> names = new HashSet<>();
+        if (manifest.exists()) {
+            try {
+                for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                    final String[] bits = line.split(" ", 4);
+                    if (bits.length == 4) {
+                        names.add(bits[3]);
+                    }
+                }
+            } catch (final IOException ex) {
+                Logger.error("Unable to read log manifest " + manifest + ": " + ex.getMessage());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Rotate the given log file into a new segment, and queue the segment to
+     * be compressed. The log file must not be open when this is called.
+     *
+     * @param filename Log file to rotate
+     * @param start Time the log file was started
+     * @param end Time the log file was last written to
+     */
+    public void rotate(final String filename, final long start, final long end) {
+        final File file = new File(filename);
+        if (file.length() == 0) { return; }
+
+        final String segmentName = locator.getSegmentFile(filename, start);
+        File segment = new File(segmentName);
+        final int dot = segmentName.lastIndexOf('.');
+        for (int i = 1; segment.exists() || new File(segment.getPath() + ".gz").exists(); i++) {
+            segment = new File(segmentName.substring(0, dot) + "-" + i + segmentName.substring(dot));
+        }
+
+        try {
+            Files.move(file.toPath(), segment.toPath());
+        } catch (final IOException ex) {
+            Logger.error("Unable to rotate log file " + filename + ": " + ex.getMessage());
+            return;
+        }
+
+        final File rotated = segment;
+        final File manifest = new File(locator.getManifestFile(filename));
+        final int maxSegments = locator.getMaxSegments();
+        COMPRESS_EXECUTOR.execute(() -> compress(rotated, manifest, start, end, maxSegments));
+    }
+
+    /**
+     * Compress a rotated segment and add it to the manifest.
+     *
+     * @param segment Segment to compress
+     * @param manifest Manifest to add the segment to
+     * @param start Time the segment was started
+     * @param end Time the segment was last written to
+     * @param maxSegments Maximum number of segments to keep, or 0 for no limit.
+     */
+    private static void compress(final File segment, final File manifest, final long start, final long end, final int maxSegments) {
+        if (!segment.exists()) {
+            // Already dealt with by recoverSegments.
+            return;
+        }
+
+        final File compressed = compressSegment(segment);
+        if (compressed == null) { return; }
+
+        try {
+            final List<String> lines = new ArrayList<>();
+            lines.add(getManifestLine(compressed, start, end));
+            updateManifest(manifest, lines, maxSegments);
+        } catch (final IOException ex) {
+            Logger.error("Unable to update log manifest " + manifest + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Compress a rotated segment, and remove the uncompressed copy.
+     *
+     * @param segment Segment to compress
+     * @return The compressed segment, or null if it could not be compressed.
+     */
+    private static File compressSegment(final File segment) {
+        final File compressed = new File(segment.getPath() + ".gz");
+        final File temp = new File(segment.getPath() + ".gz.tmp");
+
+        try {
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 65536)) {
+                Files.copy(segment.toPath(), out);
+            }
+            temp.setLastModified(segment.lastModified());
+            Files.move(temp.toPath(), compressed.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(segment.toPath());
+        } catch (final IOException ex) {
+            Logger.error("Unable to compress log segment " + segment + ": " + ex.getMessage());
+            temp.delete();
+            return null;
+        }
+        return compressed;
+    }
+
+    /**
+     * Get the manifest line for a compressed segment.
+     *
+     * @param segment Compressed segment
+     * @param start Time the segment was started
+     * @param end Time the segment was last written to
+     * @return Line to add to the manifest.
+     */
+    private static String getManifestLine(final File segment, final long start, final long end) {
+        return start + " " + end + " " + segment.length() + " " + segment.getName();
+    }
+
+    /**
+     * Get the start time from a manifest line.
+     *
+     * @param line Manifest line
+     * @return Start time of the segment, or 0 if the line can't be parsed.
+     */
+    private static long getStartTime(final String line) {
+        try {
+            return Long.parseLong(line.split(" ", 2)[0]);
+        } catch (final NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Add compressed segments to a manifest, and remove the oldest segments
+     * if there are now too many.
+     *
+     * @param manifest Manifest to update
+     * @param segments Manifest lines for the compressed segments to add
+     * @param maxSegments Maximum number of segments to keep, or 0 for no limit.
+     * @throws IOException If the manifest can't be read or written.
+     */
+    private static void updateManifest(final File manifest, final List<String> segments, final int maxSegments) throws IOException {
+        final List<String> lines = manifest.exists() ? Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8) : new ArrayList<>();
+        lines.addAll(segments);
+        // Recovered segments may be older than those already listed.
+        lines.sort(Comparator.comparingLong(LogRotator::getStartTime));
+
+        while (maxSegments > 0 && lines.size() > maxSegments) {
+            final String[] bits = lines.remove(0).split(" ", 4);
+            if (bits.length == 4 && !new File(manifest.getParentFile(), bits[3]).delete()) {
+                Logger.error("Unable to remove old log segment " + bits[3]);
+            }
+        }
+
+        final File temp = new File(manifest.getPath() + ".tmp");
+        Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,721 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.servers.logging;
+
+import com.dfbnc.DFBnc;
+import com.dfbnc.config.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Writes log lines out to files on a dedicated thread.
+ *
+ * Lines are queued by the logger and written out in batches, so the threads
+ * producing them never have to wait for the disk. If the queue is full then
+ * lines are dropped rather than holding up the caller, and counted. Requests
+ * to close files or stop the writer are never dropped, if the queue is full
+ * they are passed to the writer thread separately instead of waiting.
+ *
+ * Stopping a writer never waits for it to finish. The writer threads are
+ * daemon threads, so the BNC waits for them with {@link #awaitShutdown(long)}
+ * when it shuts down rather than them holding up the exit.
+ *
+ * Open files are kept in least-recently-used order. Files are closed once
+ * they have been idle for too long, or to make room for others when too many
+ * are open for this account or across all accounts.
+ *
+ * Files are rotated when they get too big or too old, as decided by the
+ * {@link LogFileLocator}.
+ *
+ * If server.logindex is enabled, lines are also added to a {@link LogIndex}
+ * as they are written.
+ */
+public class LogWriter implements Runnable {
+
+    /** How hard to try to make sure that written lines reach the disk. */
+    public enum Durability {
+        /** Leave lines buffered until enough build up, or they get too old. */
+        BUFFERED,
+        /** Flush every file that was written to at the end of each batch. */
+        FLUSH,
+        /** Flush and sync every file that was written to at the end of each batch. */
+        SYNC;
+
+        /**
+         * Get the Durability with the given name.
+         *
+         * @param name Name to look for
+         * @return The matching Durability, or FLUSH if there is none.
+         */
+        public static Durability parse(final String name) {
+            for (Durability durability : values()) {
+                if (durability.name().equalsIgnoreCase(name)) {
+                    return durability;
+                }
+            }
+            return FLUSH;
+        }
+    }
+
+    /** Maximum number of lines that can be waiting to be written. */
+    private static final int QUEUE_SIZE = 8192;
+    /** Maximum number of lines to write in one batch. */
+    private static final int BATCH_SIZE = 512;
+    /** How many characters a buffered file can have waiting before it is flushed. */
+    private static final int FLUSH_SIZE = 16384;
+    /** How long in milliseconds a buffered file can have lines waiting before it is flushed. */
+    private static final long FLUSH_INTERVAL = 1000;
+    /** How often in milliseconds to report dropped lines. */
+    private static final long REPORT_INTERVAL = 60000;
+    /** Number of files open across all LogWriters. */
+    private static final AtomicInteger OPEN_FILES = new AtomicInteger(0);
+
+    /** Writers whose threads are still running. */
+    private static final Set<LogWriter> RUNNING_WRITERS = ConcurrentHashMap.newKeySet();
+
+    /** Queued record that tells the writer thread to stop. */
+    private static final Record SHUTDOWN = new Record(null, null, null, null);
+
+    /** Records waiting to be written. */
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    /** Close and shutdown records that didn't fit in the queue. */
+    private final Queue<Record> control = new ConcurrentLinkedQueue<>();
+    /** Map of open files, least recently used first. Only used by the writer thread. */
+    private final Map<String, OpenFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    /** Config to read our settings from. */
+    private final Config config;
+    /** Config to read global settings from. */
+    private final Supplier<Config> globalConfig;
+    /** Locator that decides when files are rotated. */
+    private final LogFileLocator locator;
+    /** Rotator used to rotate files. */
+    private final LogRotator rotator;
+    /** Told the name of each file as it is closed, on the writer thread. */
+    private final Consumer<String> closeListener;
+    /** Current durability policy. */
+    private Durability durability = Durability.FLUSH;
+    /** Maximum number of files this writer can keep open. */
+    private int maxOpenFiles = 1;
+    /** Maximum number of files all writers can keep open between them. */
+    private int globalMaxOpenFiles = 1;
+    /** How long in milliseconds a file can go unused before it is closed. */
+    private long idleTime = 0;
+    /** Size in bytes at which files are rotated. */
+    private long rotationSize = Long.MAX_VALUE;
+    /** Index to add lines to, or null if they are not being indexed. */
+    private volatile LogIndex index = null;
+    /** Did the index fail to open? */
+    private boolean indexFailed = false;
+    /** Number of lines that have been dropped because the queue was full. */
+    private final AtomicLong droppedLines = new AtomicLong(0);
+    /** Number of dropped lines that have already been reported. */
+    private long reportedDroppedLines = 0;
+    /** Thread that writes out the queued lines. */
+    private final Thread thread;
+    /** Are we still accepting lines? */
+    private volatile boolean running = true;
+
+    /**
+     * Create a new LogWriter, and start its thread.
+     *
+     * @param name Name for the writer thread
+     * @param config Account config to read our settings from
+     * @param locator Locator that decides when files are rotated
+     */
+    public LogWriter(final String name, final Config config, final LogFileLocator locator) {
+        this(name, config, () -> DFBnc.getBNC().getConfig(), locator);
+    }
+
+    /**
+     * Create a new LogWriter, and start its thread.
+     *
+     * @param name Name for the writer thread
+     * @param config Account config to read our settings from
+     * @param globalConfig Config to read global settings from
+     * @param locator Locator that decides when files are rotated
+     */
+    LogWriter(final String name, final Config config, final Supplier<Config> globalConfig, final LogFileLocator locator) {
+        this(name, config, globalConfig, locator, filename -> { });
+    }
+
+    /**
+     * Create a new LogWriter, and start its thread.
+     *
+     * @param name Name for the writer thread
+     * @param config Account config to read our settings from
+     * @param globalConfig Config to read global settings from
+     * @param locator Locator that decides when files are rotated
+     * @param closeListener Told the name of each file as it is closed
+     */
+    LogWriter(final String name, final Config config, final Supplier<Config> globalConfig, final LogFileLocator locator,
+            final Consumer<String> closeListener) {
+        this.config = config;
+        this.globalConfig = globalConfig;
+        this.locator = locator;
+        this.closeListener = closeListener;
+        this.rotator = new LogRotator(locator);
+        rotator.recover();
+
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        RUNNING_WRITERS.add(this);
+        thread.start();
+    }
+
+    /**
+     * Queue a line to be added to a file.
+     *
+     * @param filename Name of file to write to
+     * @param prefix Prefix for the line, which is not indexed
+     * @param line Line to add. (NewLine will be added Automatically)
+     * @return true if the line was queued, false if it was dropped.
+     */
+    public boolean write(final String filename, final String prefix, final String line) {
+        if (!running) { return false; }
+
+        return offer(new Record(filename, prefix, line, null));
+    }
+
+    /**
+     * Queue some data to be added to a file as-is.
+     *
+     * @param filename Name of file to write to
+     * @param data Data to add
+     * @return true if the data was queued, false if it was dropped.
+     */
+    public boolean write(final String filename, final byte[] data) {
+        if (!running) { return false; }
+
+        return offer(new Record(filename, null, null, data));
+    }
+
+    /**
+     * Close the given file once any lines already queued for it are written.
+     *
+     * @param filename Name of file to close.
+     */
+    public void close(final String filename) {
+        enqueue(new Record(filename, null, null, null));
+    }
+
+    /**
+     * Stop accepting lines, and have the writer thread write out everything
+     * that has been queued, close all the open files and stop. This does not
+     * wait for the writer thread to finish.
+     */
+    public void shutdown() {
+        if (!running) { return; }
+        running = false;
+
+        enqueue(SHUTDOWN);
+    }
+
+    /**
+     * Wait for every writer that has been shut down to finish writing.
+     * Used when the BNC exits, as the writer threads would otherwise be
+     * stopped with lines still waiting.
+     *
+     * @param timeout Maximum time in milliseconds to wait for all writers.
+     */
+    public static void awaitShutdown(final long timeout) {
+        final long deadline = System.currentTimeMillis() + timeout;
+        for (LogWriter writer : RUNNING_WRITERS) {
+            if (writer.running) { continue; }
+
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) { return; }
+            try {
+                writer.thread.join(remaining);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check if the writer thread is still running.
+     *
+     * @return true if the writer thread has not finished yet.
+     */
+    boolean isAlive() {
+        return thread.isAlive();
+    }
+
+    /**
+     * Get the number of lines that have been dropped because they could not
+     * be written quickly enough.
+     *
+     * @return Number of dropped lines.
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    /**
+     * Get the index that lines are being added to.
+     *
+     * @return The index, or null if lines are not being indexed.
+     */
+    public LogIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Queue a record if there is space, or count it as dropped.
+     *
+     * @param record Record to queue
+     * @return true if the record was queued, false if it was dropped.
+     */
+    private boolean offer(final Record record) {
+        if (queue.offer(record)) {
+            return true;
+        }
+        droppedLines.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Queue a record that must not be dropped. If the queue is full, the
+     * record is handed to the writer thread separately rather than waiting
+     * for space, so that the caller is never held up.
+     *
+     * @param record Record to queue.
+     */
+    private void enqueue(final Record record) {
+        if (!queue.offer(record)) {
+            control.add(record);
+        }
+    }
+
+    @Override
+    public void run() {
+        final List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        long nextReport = System.currentTimeMillis() + REPORT_INTERVAL;
+        boolean stop = false;
+        boolean stopRequested = false;
+
+        while (!stop) {
+            try {
+                loadSettings();
+            } catch (final RuntimeException ex) {
+                Logger.error(thread.getName() + ": Unable to load log settings: " + ex);
+            }
+
+            try {
+                final Record first = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                }
+            } catch (final InterruptedException ex) {
+                stop = true;
+            }
+
+            // Anything that didn't fit in the queue was added after what is
+            // in the queue now, so handle it after this batch.
+            Record controlRecord;
+            while ((controlRecord = control.poll()) != null) {
+                batch.add(controlRecord);
+            }
+
+            final long now = System.currentTimeMillis();
+            for (Record record : batch) {
+                if (record == SHUTDOWN) {
+                    stopRequested = true;
+                } else {
+                    try {
+                        writeRecord(record, now);
+                    } catch (final RuntimeException ex) {
+                        Logger.error(thread.getName() + ": Unable to write log record: " + ex);
+                    }
+                }
+            }
+            batch.clear();
+            // Write out anything else that was queued before we were stopped.
+            stop |= stopRequested && queue.isEmpty();
+
+            try {
+                flushFiles(stop ? Durability.FLUSH : durability, now);
+                closeIdleFiles(now - idleTime);
+
+                if (now >= nextReport) {
+                    nextReport = now + REPORT_INTERVAL;
+                    reportDroppedLines();
+                }
+            } catch (final RuntimeException ex) {
+                Logger.error(thread.getName() + ": Unable to maintain log files: " + ex);
+            }
+        }
+
+        for (Map.Entry<String, OpenFile> entry : openFiles.entrySet()) {
+            closeOpenFile(entry.getKey(), entry.getValue());
+        }
+        openFiles.clear();
+        reportDroppedLines();
+
+        closeIndex();
+        RUNNING_WRITERS.remove(this);
+    }
+
+    /**
+     * Handle a queued record, other than {@link #SHUTDOWN}.
+     *
+     * @param record Record to handle
+     * @param now Current time
+     */
+    private void writeRecord(final Record record, final long now) {
+        if (record.data != null) {
+            write(record.filename, record.data, null, now);
+        } else if (record.line == null) {
+            closeFile(record.filename);
+        } else {
+            final byte[] bytes = (record.prefix + record.line + System.lineSeparator()).getBytes();
+            write(record.filename, bytes, record.line, now);
+        }
+    }
+
+    /**
+     * Read our settings from the config.
+     */
+    private void loadSettings() {
+        durability = Durability.parse(config.getOption("server", "logdurability"));
+        maxOpenFiles = Math.max(1, config.getOptionInt("server", "logmaxopenfiles"));
+        idleTime = config.getOptionInt("server", "logidletime") * 1000L;
+        globalMaxOpenFiles = Math.max(1, globalConfig.get().getOptionInt("general", "logmaxopenfiles"));
+        rotationSize = locator.getRotationSize();
+
+        if (!config.getOptionBool("server", "logindex")) {
+            closeIndex();
+            indexFailed = false;
+        } else if (index == null && !indexFailed) {
+            try {
+                index = LogIndex.open(locator.getIndexDirectory());
+            } catch (final IOException | RuntimeException ex) {
+                Logger.error(thread.getName() + ": Unable to open log index: " + ex.getMessage());
+                indexFailed = true;
+            }
+        }
+    }
+
+    /**
+     * Write to a file, opening or rotating it if needed.
+     *
+     * @param filename Name of file to write to
+     * @param data Data to write
+     * @param line Line to index the data as, or null to not index it
+     * @param now Current time
+     */
+    private void write(final String filename, final byte[] data, final String line, final long now) {
+        OpenFile file = openFiles.get(filename);
+        try {
+            if (file == null) {
+                file = openFile(filename, now);
+            }
+            if (file.size >= rotationSize || now >= file.rotateTime) {
+                closeFile(filename);
+                rotator.rotate(filename, file.startTime, file.lastUsedTime);
+                updateIndex(filename, -1, null);
+                file = openFile(filename, now);
+            }
+
+            final long offset = file.size;
+            file.out.write(data);
+            file.pending += data.length;
+            file.size += data.length;
+            file.lastUsedTime = now;
+
+            if (line != null) {
+                updateIndex(filename, offset, line);
+            }
+        } catch (final IOException e) {
+            /*
+             * Do Nothing
+             *
+             * Makes no sense to keep adding errors to the logger when we can't write to the file,
+             * as chances are it will happen on every incomming line.
+             */
+            closeFile(filename);
+        }
+    }
+
+    /**
+     * Add a line to the index, if lines are being indexed. If the index can't
+     * be updated, stop using it.
+     *
+     * @param filename Name of file the line was written to
+     * @param offset Offset the line was written at
+     * @param line Line that was written, or null if the file was rotated
+     */
+    private void updateIndex(final String filename, final long offset, final String line) {
+        if (index == null) { return; }
+
+        try {
+            if (line == null) {
+                index.fileRotated(filename);
+            } else {
+                index.add(filename, offset, line);
+            }
+        } catch (final IOException ex) {
+            Logger.error(thread.getName() + ": Unable to update log index: " + ex.getMessage());
+            closeIndex();
+            indexFailed = true;
+        }
+    }
+
+    /**
+     * Stop adding lines to the index, writing out anything that has been
+     * added to it so far.
+     */
+    private void closeIndex() {
+        final LogIndex oldIndex = index;
+        if (oldIndex == null) { return; }
+
+        index = null;
+        try {
+            oldIndex.close();
+        } catch (final IOException | RuntimeException ex) {
+            Logger.error(thread.getName() + ": Unable to save log index: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Open a file for appending, closing others to make room if needed.
+     *
+     * @param filename Name of file to open
+     * @param now Current time
+     * @return The opened file.
+     * @throws IOException If the file can't be opened.
+     */
+    private OpenFile openFile(final String filename, final long now) throws IOException {
+        makeRoom();
+
+        // We don't know when a file that is already there was started, but we
+        // do know that nothing has been written to it since it was modified.
+        final File existing = new File(filename);
+        final long size = existing.length();
+        final long startTime = (size > 0) ? existing.lastModified() : now;
+
+        final OpenFile file = new OpenFile(new FileOutputStream(existing, true), now);
+        file.size = size;
+        file.startTime = startTime;
+        file.rotateTime = locator.getRotationTime(startTime);
+        openFiles.put(filename, file);
+        return file;
+    }
+
+    /**
+     * Flush any files that have lines waiting, as required by the given
+     * durability policy.
+     *
+     * @param policy Durability policy to apply
+     * @param now Current time
+     */
+    private void flushFiles(final Durability policy, final long now) {
+        final Iterator<Map.Entry<String, OpenFile>> it = openFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, OpenFile> entry = it.next();
+            final OpenFile file = entry.getValue();
+            if (file.pending == 0) { continue; }
+            if (policy == Durability.BUFFERED && file.pending < FLUSH_SIZE && now - file.lastFlushTime < FLUSH_INTERVAL) { continue; }
+
+            try {
+                file.out.flush();
+                if (policy == Durability.SYNC) {
+                    file.channel.force(false);
+                }
+                file.pending = 0;
+                file.lastFlushTime = now;
+            } catch (final IOException e) {
+                closeOpenFile(entry.getKey(), file);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Close least recently used files until another can be opened without
+     * going over either the per-account or global limit.
+     *
+     * We can always keep at least one file open, so that one busy account
+     * can't stop the others from logging at all.
+     */
+    private void makeRoom() {
+        final Iterator<Map.Entry<String, OpenFile>> it = openFiles.entrySet().iterator();
+        while (it.hasNext() && (openFiles.size() >= maxOpenFiles || OPEN_FILES.get() >= globalMaxOpenFiles)) {
+            final Map.Entry<String, OpenFile> entry = it.next();
+            closeOpenFile(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Close any files that have not been used since the given time.
+     *
+     * Files are kept in least recently used order, so this stops at the
+     * first file that is still in use.
+     *
+     * @param oldestTime Oldest last-used time to keep files open for.
+     */
+    private void closeIdleFiles(final long oldestTime) {
+        final Iterator<Map.Entry<String, OpenFile>> it = openFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, OpenFile> entry = it.next();
+            if (entry.getValue().lastUsedTime >= oldestTime) { break; }
+            closeOpenFile(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Close the given file if it is open.
+     *
+     * @param filename Name of file to close.
+     */
+    private void closeFile(final String filename) {
+        final OpenFile file = openFiles.remove(filename);
+        if (file != null) {
+            closeOpenFile(filename, file);
+        }
+    }
+
+    /**
+     * Close an open file that has been, or is about to be, removed from
+     * {@link #openFiles}.
+     *
+     * @param filename Name of the file
+     * @param file The open file
+     */
+    private void closeOpenFile(final String filename, final OpenFile file) {
+        file.close();
+        closeListener.accept(filename);
+    }
+
+    /**
+     * Report any lines that have been dropped since we last checked.
+     */
+    private void reportDroppedLines() {
+        final long dropped = droppedLines.get();
+        if (dropped != reportedDroppedLines) {
+            Logger.error(thread.getName() + ": Dropped " + (dropped - reportedDroppedLines) + " log lines (" + dropped + " total)");
+            reportedDroppedLines = dropped;
+        }
+    }
+
+    /** A line or data waiting to be written, or a file waiting to be closed. */
+    private static class Record {
+
+        /** Name of file. */
+        private final String filename;
+        /** Prefix for the line. */
+        private final String prefix;
+        /** Line to write, or null to close the file. */
+        private final String line;
+        /** Data to write as-is instead of a line. */
+        private final byte[] data;
+
+        /**
+         * Create a new Record.
+         *
+         * @param filename Name of file
+         * @param prefix Prefix for the line
+         * @param line Line to write, or null to close the file
+         * @param data Data to write as-is instead of a line
+         */
+        Record(final String filename, final String prefix, final String line, final byte[] data) {
+            this.filename = filename;
+            this.prefix = prefix;
+            this.line = line;
+            this.data = data;
+        }
+    }
+
+    /** Open File. */
+    private static class OpenFile {
+
+        /** Last used time. */
+        private long lastUsedTime;
+        /** Last time this file was flushed. */
+        private long lastFlushTime;
+        /** Number of bytes written since the last flush. */
+        private int pending = 0;
+        /** Size of the file. */
+        private long size = 0;
+        /** Time the file was started. */
+        private long startTime;
+        /** Time the file should be rotated. */
+        private long rotateTime = Long.MAX_VALUE;
+        /** Open file's stream. */
+        private final BufferedOutputStream out;
+        /** Open file's channel, used to sync it. */
+        private final FileChannel channel;
+
+        /**
+         * Creates a new open file.
+         *
+         * @param stream Stream that has file open
+         * @param now Current time
+         */
+        OpenFile(final FileOutputStream stream, final long now) {
+            this.out = new BufferedOutputStream(stream);
+            this.channel = stream.getChannel();
+            this.lastUsedTime = now;
+            this.lastFlushTime = now;
+            OPEN_FILES.incrementAndGet();
+        }
+
+        /**
+         * Flush and close this file.
+         */
+        void close() {
+            OPEN_FILES.decrementAndGet();
+            try {
+                out.close();
+            } catch (final IOException e) {
+                // Nothing we can do about it now.
+            }
+        }
+    }
+}
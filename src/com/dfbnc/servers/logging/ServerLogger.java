@@ -28,24 +28,10 @@ package com.dfbnc.servers.logging;
 
 import com.dfbnc.Account;
 import com.dfbnc.ConnectionHandler;
-import com.dmdirc.util.io.StreamUtils;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import net.engio.mbassy.listener.Handler;
 import com.dmdirc.parser.interfaces.ChannelClientInfo;
 import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.interfaces.ClientInfo;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Date;
 import com.dmdirc.parser.events.PrivateActionEvent;
 import com.dmdirc.parser.events.PrivateMessageEvent;
 import com.dmdirc.parser.events.ChannelMessageEvent;
@@ -62,7 +48,11 @@ import com.dmdirc.parser.events.ChannelNoticeEvent;
 import com.dmdirc.parser.events.PrivateNoticeEvent;
 
 import com.dmdirc.parser.events.SocketCloseEvent;
+import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -80,17 +70,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ServerLogger {
 
     /** Date format used for "File Opened At" log. */
-    private static final DateFormat OPENED_AT_FORMAT = new SimpleDateFormat("EEEE MMMM dd, yyyy - HH:mm:ss");
+    private static final DateTimeFormatter OPENED_AT_FORMAT = DateTimeFormatter.ofPattern("EEEE MMMM dd, yyyy - HH:mm:ss").withZone(ZoneId.systemDefault());
     /** Date format used for Normal log lines. */
-    private static final DateFormat LOG_FORMAT = new SimpleDateFormat("[dd/MM/yyyy HH:mm:ss]");
-    /** Map of open files. */
-    private final Map<String, OpenFile> openFiles = Collections.synchronizedMap(new HashMap<>());
+    private static final DateTimeFormatter LOG_FORMAT = DateTimeFormatter.ofPattern("'['dd/MM/yyyy HH:mm:ss'] '").withZone(ZoneId.systemDefault());
+    /** Time format used for topic set times. */
+    private static final DateTimeFormatter TOPIC_TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+    /** Date format used for topic set times. */
+    private static final DateTimeFormatter TOPIC_DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy").withZone(ZoneId.systemDefault());
+    /** Prefix for log lines written in the most recent second that anything was logged. */
+    private static volatile LogPrefix logPrefix = new LogPrefix(0);
     /** The account we are logging for. */
     private final Account myAccount;
     /** The connection handler we are logging for. */
     private final ConnectionHandler myConnectionHandler;
-    /** Timer used to close idle files. */
-    private final Timer idleFileTimer;
+    /** Writer that writes our lines out to their files. */
+    private final LogWriter writer;
     /** Log file Locator */
     protected final LogFileLocator locator;
     /** Do we want to add channel modes to log messages. */
@@ -132,14 +126,7 @@ public class ServerLogger {
 
         locator = new LogFileLocator(myAccount);
 
-        // Close idle files every hour.
-        idleFileTimer = new Timer("Logging Timer [" + myAccount.getName() + "]");
-        idleFileTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                timerTask();
-            }
-        }, 3600000);
+        writer = new LogWriter("Log Writer [" + myAccount.getName() + "]", myAccount.getAccountConfig(), locator);
 
         myConnectionHandler.subscribe(this);
     }
@@ -150,52 +137,48 @@ public class ServerLogger {
         handleSocketClose(new SocketCloseEvent(myConnectionHandler.getParser(), LocalDateTime.now()));
         disabled.set(true);
 
-        if (idleFileTimer != null) {
-            idleFileTimer.cancel();
-            idleFileTimer.purge();
-        }
-
         // Close all the open channels.
         for (final ChannelInfo c : new LinkedList<>(myChannels)) {
             final String filename = locator.getLogFile(c);
             if (filename == null) { continue; }
 
             appendLine(filename, "");
-            appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+            appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(Instant.now()));
             myChannels.remove(c);
         }
 
-        synchronized (openFiles) {
-            openFiles.values().stream().forEach(file -> StreamUtils.close(file.writer));
-            openFiles.clear();
-        }
+        writer.shutdown();
 
         myConnectionHandler.unsubscribe(this);
     }
 
     /**
-     * What to do every hour when the timer fires.
+     * Get the number of log lines that have been dropped because they could
+     * not be written quickly enough.
+     *
+     * @return Number of dropped lines.
      */
-    protected void timerTask() {
-        // Oldest time to allow
-        final long oldestTime = System.currentTimeMillis() - 3480000;
-
-        synchronized (openFiles) {
-            final Collection<String> old = new ArrayList<>(openFiles.size());
-            for (Map.Entry<String, OpenFile> entry : openFiles.entrySet()) {
-                if (entry.getValue().lastUsedTime < oldestTime) {
-                    StreamUtils.close(entry.getValue().writer);
-                    old.add(entry.getKey());
-                }
-            }
+    public long getDroppedLines() {
+        return writer.getDroppedLines();
+    }
 
-            openFiles.keySet().removeAll(old);
-        }
+    /**
+     * Search the logs for lines containing all of the given terms.
+     *
+     * @param query Terms to search for
+     * @param max Maximum number of lines to return
+     * @return Matching lines, or null if the logs are not being indexed.
+     * @throws IOException If the index can not be read.
+     */
+    public List<LogIndex.Match> searchLogs(final String query, final int max) throws IOException {
+        final LogIndex index = writer.getIndex();
+        return (index == null) ? null : index.search(query, max);
     }
 
     @Handler
     public void handleQueryActions(final PrivateActionEvent event) {
         final ClientInfo user = event.getParser().getClient(event.getHost());
+        logEvent(LogRecord.Type.ACTION, user.getNickname(), event.getHost(), event.getMessage());
         final String filename = locator.getLogFile(user);
         if (filename == null) { return; }
         appendLine(filename, "* %s %s", user.getNickname(), event.getMessage());
@@ -204,6 +187,7 @@ public class ServerLogger {
     @Handler
     public void handleQueryMessages(final PrivateMessageEvent event) {
         final ClientInfo user = event.getParser().getClient(event.getHost());
+        logEvent(LogRecord.Type.MESSAGE, user.getNickname(), event.getHost(), event.getMessage());
         final String filename = locator.getLogFile(user);
         if (filename == null) { return; }
         appendLine(filename, "<%s> %s", user.getNickname(), event.getMessage());
@@ -212,6 +196,7 @@ public class ServerLogger {
     @Handler
     public void handleQueryNotices(final PrivateNoticeEvent event) {
         final ClientInfo user = event.getParser().getClient(event.getHost());
+        logEvent(LogRecord.Type.NOTICE, user.getNickname(), event.getHost(), event.getMessage());
         final String filename = locator.getLogFile(user);
         if (filename == null) { return; }
         appendLine(filename, "-%s- %s", user.getNickname(), event.getMessage());
@@ -219,6 +204,7 @@ public class ServerLogger {
 
     @Handler
     public void handleChannelMessage(final ChannelMessageEvent event) {
+        logEvent(LogRecord.Type.MESSAGE, event.getChannel().getName(), event.getHost(), event.getMessage());
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
         appendLine(filename, "<%s> %s", getDisplayName(event.getClient()), event.getMessage());
@@ -226,6 +212,7 @@ public class ServerLogger {
 
     @Handler
     public void handleChannelNotice(final ChannelNoticeEvent event) {
+        logEvent(LogRecord.Type.NOTICE, event.getChannel().getName(), event.getHost(), event.getMessage());
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
         appendLine(filename, "-%s- %s", getDisplayName(event.getClient()), event.getMessage());
@@ -233,6 +220,7 @@ public class ServerLogger {
 
     @Handler
     public void handleChannelAction(final ChannelActionEvent event) {
+        logEvent(LogRecord.Type.ACTION, event.getChannel().getName(), event.getHost(), event.getMessage());
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
         appendLine(filename, "* %s %s", getDisplayName(event.getClient()), event.getMessage());
@@ -240,19 +228,19 @@ public class ServerLogger {
 
     @Handler
     public void handleChannelGotTopic(final ChannelTopicEvent event) {
+        if (!event.isJoinTopic()) {
+            logEvent(LogRecord.Type.TOPIC, event.getChannel().getName(), event.getChannel().getTopicSetter(), event.getChannel().getTopic());
+        }
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
 
-        final DateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
-        final DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-
         if (event.isJoinTopic()) {
 
             if (!event.getChannel().getTopic().isEmpty()) {
                 appendLine(filename, "*** Topic is: %s", event.getChannel().getTopic());
                 appendLine(filename, "*** Set at: %s on %s by %s",
-                        timeFormat.format(1000 * event.getChannel().getTopicTime()),
-                        dateFormat.format(1000 * event.getChannel().getTopicTime()),
+                        TOPIC_TIME_FORMAT.format(Instant.ofEpochSecond(event.getChannel().getTopicTime())),
+                        TOPIC_DATE_FORMAT.format(Instant.ofEpochSecond(event.getChannel().getTopicTime())),
                         event.getChannel().getTopicSetter());
             }
         } else {
@@ -262,6 +250,7 @@ public class ServerLogger {
 
     @Handler
     public void handleChannelJoin(final ChannelJoinEvent event) {
+        logEvent(LogRecord.Type.JOIN, event.getChannel().getName(), getSource(event.getClient()), "");
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
 
@@ -271,6 +260,7 @@ public class ServerLogger {
 
     @Handler
     public void handleChannelSelfJoin(final ChannelSelfJoinEvent event) {
+        logEvent(LogRecord.Type.JOIN, event.getChannel().getName(), String.valueOf(event.getParser().getLocalClient()), "");
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
 
@@ -278,7 +268,7 @@ public class ServerLogger {
         synchronized (myChannels) {
             if (!myChannels.contains(event.getChannel())) {
                 myChannels.add(event.getChannel());
-                appendLine(filename, "*** Channel opened at: %s", OPENED_AT_FORMAT.format(new Date()));
+                appendLine(filename, "*** Channel opened at: %s", OPENED_AT_FORMAT.format(Instant.now()));
                 appendLine(filename, "");
             }
         }
@@ -289,6 +279,7 @@ public class ServerLogger {
 
     @Handler
     public void handleChannelPart(final ChannelPartEvent event) {
+        logEvent(LogRecord.Type.PART, event.getChannel().getName(), getSource(event.getClient()), event.getReason());
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
 
@@ -306,15 +297,12 @@ public class ServerLogger {
             synchronized(myChannels) {
                 if (myChannels.contains(event.getChannel())) {
                     appendLine(filename, "");
-                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(Instant.now()));
                     myChannels.remove(event.getChannel());
                 }
             }
 
-            if (openFiles.containsKey(filename)) {
-                StreamUtils.close(openFiles.get(filename).writer);
-                openFiles.remove(filename);
-            }
+            writer.close(filename);
         }
     }
 
@@ -327,6 +315,7 @@ public class ServerLogger {
 
     @Handler
     public void handleChannelQuit(final ChannelQuitEvent event) {
+        logEvent(LogRecord.Type.QUIT, event.getChannel().getName(), getSource(event.getClient()), event.getReason());
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
 
@@ -343,15 +332,12 @@ public class ServerLogger {
             synchronized(myChannels) {
                 if (myChannels.contains(event.getChannel())) {
                     appendLine(filename, "");
-                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(Instant.now()));
                     myChannels.remove(event.getChannel());
                 }
             }
 
-            if (openFiles.containsKey(filename)) {
-                StreamUtils.close(openFiles.get(filename).writer);
-                openFiles.remove(filename);
-            }
+            writer.close(filename);
         }
     }
 
@@ -360,6 +346,8 @@ public class ServerLogger {
         final ChannelClientInfo victim = event.getKickedClient();
         final ChannelClientInfo perpetrator = event.getClient();
         final String reason = event.getReason();
+        logEvent(LogRecord.Type.KICK, event.getChannel().getName(), getSource(perpetrator), (victim == null ? "" : victim.getClient().getNickname()) + " " + reason);
+
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
 
@@ -369,26 +357,24 @@ public class ServerLogger {
             appendLine(filename, "*** %s was kicked by %s (%s)", getDisplayName(victim), getDisplayName(perpetrator), reason);
         }
 
-        if (victim.getClient() == localClient) {
+        if (victim != null && victim.getClient() == localClient) {
             appendLine(filename, "");
-            appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+            appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(Instant.now()));
             synchronized(myChannels) {
                 if (myChannels.contains(event.getChannel())) {
                     appendLine(filename, "");
-                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(Instant.now()));
                     myChannels.remove(event.getChannel());
                 }
             }
 
-            if (openFiles.containsKey(filename)) {
-                StreamUtils.close(openFiles.get(filename).writer);
-                openFiles.remove(filename);
-            }
+            writer.close(filename);
         }
     }
 
     @Handler
     public void handleNickChange(final ChannelNickChangeEvent event) {
+        logEvent(LogRecord.Type.NICK, event.getChannel().getName(), event.getOldNick(), event.getClient().getClient().getNickname());
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
 
@@ -397,6 +383,7 @@ public class ServerLogger {
 
     @Handler
     public void handleModeChange(final ChannelModeChangeEvent event) {
+        logEvent(LogRecord.Type.MODE, event.getChannel().getName(), event.getHost(), event.getModes());
         final String filename = locator.getLogFile(event.getChannel());
         if (filename == null) { return; }
 
@@ -426,43 +413,62 @@ public class ServerLogger {
      * @param filename Name of file to write to
      * @param line     Line to add. (NewLine will be added Automatically)
      *
-     * @return true on success, else false.
+     * @return true if the line was queued to be written, else false.
      */
     protected boolean appendLine(final String filename, final String line) {
         if (myAccount.getAccountConfig().getOptionBool("server", "logging") == false) { return true; }
         if (disabled.get()) { return false; }
 
-        final StringBuilder finalLine = new StringBuilder();
+        return writer.write(filename, getLogPrefix(System.currentTimeMillis()), line);
+    }
 
-        final String dateString = LOG_FORMAT.format(new Date()).trim();
-        finalLine.append(dateString);
-        finalLine.append(' ');
+    /**
+     * Add a record to a structured record log.
+     *
+     * @param filename Name of file to write to
+     * @param record   Record to add
+     *
+     * @return true if the record was queued to be written, else false.
+     */
+    protected boolean appendRecord(final String filename, final LogRecord record) {
+        if (myAccount.getAccountConfig().getOptionBool("server", "logging") == false) { return true; }
+        if (disabled.get()) { return false; }
 
-        finalLine.append(line);
+        return writer.write(filename, record.toBytes());
+    }
 
-        try {
-            final BufferedWriter out;
-            if (openFiles.containsKey(filename)) {
-                final OpenFile of = openFiles.get(filename);
-                of.lastUsedTime = System.currentTimeMillis();
-                out = of.writer;
-            } else {
-                out = new BufferedWriter(new FileWriter(filename, true));
-                openFiles.put(filename, new OpenFile(out));
-            }
-            out.write(finalLine.toString());
-            out.newLine();
-            out.flush();
-            return true;
-        } catch (IOException e) {
-            /*
-             * Do Nothing
-             *
-             * Makes no sense to keep adding errors to the logger when we can't write to the file,
-             * as chances are it will happen on every incomming line.
-             */
+    /**
+     * Called with the details of every event that is logged.
+     *
+     * This does nothing by default, subclasses can override it to also log
+     * events in a structured form.
+     *
+     * @param type    Type of event
+     * @param target  Channel or nickname the event happened in
+     * @param source  Host of the client that caused the event
+     * @param payload Event details, such as the message text
+     */
+    protected void logEvent(final LogRecord.Type type, final String target, final String source, final String payload) {
+        // Nothing to do by default.
+    }
+
+    /**
+     * Get the timestamp prefix for a log line written at the given time.
+     *
+     * The prefix only changes once a second, so it is formatted once and
+     * reused for every other line logged in the same second.
+     *
+     * @param time Time in milliseconds
+     * @return Prefix for the log line, including the trailing space.
+     */
+    protected static String getLogPrefix(final long time) {
+        final long second = Math.floorDiv(time, 1000);
+        LogPrefix prefix = logPrefix;
+        if (prefix.second != second) {
+            prefix = new LogPrefix(second);
+            logPrefix = prefix;
         }
-        return false;
+        return prefix.prefix;
     }
 
     /**
@@ -476,6 +482,17 @@ public class ServerLogger {
         return channelClient.getClient().getNickname() + "!" + channelClient.getClient().getUsername() + "@" + channelClient.getClient().getHostname();
     }
 
+    /**
+     * Get the host to record as the source of an event caused by channelClient.
+     *
+     * @param channelClient The client to get the source for, or null
+     *
+     * @return full hostname, or an empty string if there is no client.
+     */
+    protected String getSource(final ChannelClientInfo channelClient) {
+        return channelClient == null ? "" : getFullHostname(channelClient);
+    }
+
     /**
      * Get name to display for channelClient (Taking into account the channelmodeprefix setting).
      *
@@ -505,23 +522,22 @@ public class ServerLogger {
         }
     }
 
+    /** Log line prefix for a given second. */
+    private static class LogPrefix {
 
-    /** Open File. */
-    private static class OpenFile {
-
-        /** Last used time. */
-        public long lastUsedTime = System.currentTimeMillis();
-        /** Open file's writer. */
-        public final BufferedWriter writer;
+        /** Second this prefix is for. */
+        private final long second;
+        /** Formatted prefix. */
+        private final String prefix;
 
         /**
-         * Creates a new open file.
+         * Creates a new LogPrefix.
          *
-         * @param writer Writer that has file open
+         * @param second Second to format the prefix for
          */
-        protected OpenFile(final BufferedWriter writer) {
-            this.writer = writer;
+        LogPrefix(final long second) {
+            this.second = second;
+            this.prefix = LOG_FORMAT.format(Instant.ofEpochSecond(second));
         }
-
     }
 }
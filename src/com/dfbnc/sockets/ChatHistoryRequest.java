@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.sockets;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A parsed CHATHISTORY request.
+ *
+ * History can be requested relative to a timestamp using LATEST, BEFORE,
+ * AFTER and BETWEEN, message IDs are not supported.
+ */
+final class ChatHistoryRequest {
+
+    /** Channel to send history for. */
+    private final String target;
+    /** Only send messages after this time, or 0 for no limit. */
+    private final long after;
+    /** Only send messages before this time, or 0 for no limit. */
+    private final long before;
+    /** Maximum number of messages to send. */
+    private final int limit;
+    /** Send the newest messages in the range, not the oldest. */
+    private final boolean newest;
+
+    /**
+     * Create a new ChatHistoryRequest.
+     *
+     * @param target Channel to send history for
+     * @param after Only send messages after this time, or 0 for no limit.
+     * @param before Only send messages before this time, or 0 for no limit.
+     * @param limit Maximum number of messages to send.
+     * @param newest Send the newest messages in the range, not the oldest.
+     */
+    private ChatHistoryRequest(final String target, final long after, final long before, final int limit, final boolean newest) {
+        this.target = target;
+        this.after = after;
+        this.before = before;
+        this.limit = limit;
+        this.newest = newest;
+    }
+
+    /**
+     * Parse a CHATHISTORY request.
+     *
+     * @param line IRCTokenised version of the CHATHISTORY line
+     * @return The parsed request, or null if the line is not a valid request.
+     */
+    static ChatHistoryRequest parse(final String[] line) {
+        final String subCommand = (line.length > 1) ? line[1].toUpperCase() : "*";
+        try {
+            switch (subCommand) {
+                case "LATEST":
+                    if (line.length < 5) { break; }
+                    final long after = line[3].equals("*") ? 0 : parseTimestamp(line[3]);
+                    return new ChatHistoryRequest(line[2], after, 0, parseLimit(line[4]), true);
+                case "BEFORE":
+                    if (line.length < 5) { break; }
+                    return new ChatHistoryRequest(line[2], 0, parseTimestamp(line[3]), parseLimit(line[4]), true);
+                case "AFTER":
+                    if (line.length < 5) { break; }
+                    return new ChatHistoryRequest(line[2], parseTimestamp(line[3]), 0, parseLimit(line[4]), false);
+                case "BETWEEN":
+                    if (line.length < 6) { break; }
+                    final long first = parseTimestamp(line[3]);
+                    final long second = parseTimestamp(line[4]);
+                    if (first <= second) {
+                        return new ChatHistoryRequest(line[2], first, second, parseLimit(line[5]), false);
+                    } else {
+                        return new ChatHistoryRequest(line[2], second, first, parseLimit(line[5]), true);
+                    }
+            }
+        } catch (final IllegalArgumentException | DateTimeParseException ex) {
+            // Fall through to the null below.
+        }
+        return null;
+    }
+
+    /**
+     * Parse a CHATHISTORY message reference.
+     *
+     * @param reference Reference to parse, eg timestamp=2019-01-01T00:00:00.000Z
+     * @return Time in milliseconds that the reference refers to.
+     * @throws IllegalArgumentException If the reference is not a timestamp.
+     * @throws DateTimeParseException If the timestamp can not be parsed.
+     */
+    private static long parseTimestamp(final String reference) {
+        if (!reference.toLowerCase().startsWith("timestamp=")) {
+            throw new IllegalArgumentException("Unsupported message reference: " + reference);
+        }
+        return Instant.parse(reference.substring(10)).toEpochMilli();
+    }
+
+    /**
+     * Parse a CHATHISTORY limit.
+     *
+     * @param limit Limit to parse.
+     * @return Maximum number of messages to send.
+     * @throws IllegalArgumentException If the limit is not a positive number.
+     */
+    private static int parseLimit(final String limit) {
+        final int result = Integer.parseInt(limit);
+        if (result < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        return result;
+    }
+
+    /**
+     * Get the channel to send history for.
+     *
+     * @return Target of this request
+     */
+    String getTarget() {
+        return target;
+    }
+
+    /**
+     * Get the time that messages must be after.
+     *
+     * @return Time in milliseconds, or 0 for no limit.
+     */
+    long getAfter() {
+        return after;
+    }
+
+    /**
+     * Get the time that messages must be before.
+     *
+     * @return Time in milliseconds, or 0 for no limit.
+     */
+    long getBefore() {
+        return before;
+    }
+
+    /**
+     * Get the maximum number of messages to send.
+     *
+     * @return Maximum number of messages
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Should the newest messages in the range be sent, rather than the oldest?
+     *
+     * @return True to send the newest messages.
+     */
+    boolean isNewest() {
+        return newest;
+    }
+}
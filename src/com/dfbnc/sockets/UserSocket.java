@@ -56,7 +56,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -69,10 +68,10 @@ import uk.org.dataforce.libs.logger.Logger;
  * This socket handles actual clients connected to the bnc.
  */
 public class UserSocket extends ConnectedSocket {
-    /** Known sockets are referenced in this HashMap. */
-    private final static HashMap<String, UserSocket> knownSockets = new HashMap<>();
+    /** Known sockets are referenced in this registry. */
+    private final static UserSocketRegistry<UserSocket, Account> knownSockets = new UserSocketRegistry<>();
 
-    /** This sockets ID in the HashMap. */
+    /** This sockets ID in the registry. */
     private final String myID;
 
     /** This sockets info. */
@@ -110,9 +109,6 @@ public class UserSocket extends ConnectedSocket {
     /** The Account object for this connect (This is null before authentication) */
     private Account myAccount = null;
 
-    /** Is closeAll being run? (This prevents socketClosed removing the HashMap entry) */
-    private static boolean closeAll = false;
-
     /** Is this socket in the middle of capability negotiation? */
     private boolean isNegotiating = false;
 
@@ -154,17 +150,7 @@ public class UserSocket extends ConnectedSocket {
         // TODO: Decouple Authenticator and UserSocket
         authenticator = new Authenticator(DFBnc.getAccountManager(), this);
 
-        synchronized (knownSockets) {
-            final Random random = new Random();
-            final StringBuilder tempid = new StringBuilder(String.valueOf(random.nextInt(10)));
-
-            while (knownSockets.containsKey(tempid.toString())) {
-                tempid.append(random.nextInt(10));
-            }
-
-            myID = tempid.toString();
-            knownSockets.put(myID, this);
-        }
+        myID = knownSockets.register(this);
 
         super.setSocketID("[UserSocket: " + myID + "]");
 
@@ -190,6 +176,7 @@ public class UserSocket extends ConnectedSocket {
             capabilities.put("server-time", CapabilityState.DISABLED);
             capabilities.put("batch", CapabilityState.DISABLED);
             capabilities.put("dfbnc.com/channelhistory", CapabilityState.DISABLED);
+            capabilities.put("draft/chathistory", CapabilityState.DISABLED);
 
             // TODO: Handle this better.
             tagCapabilities.add("server-time");
@@ -379,7 +366,7 @@ public class UserSocket extends ConnectedSocket {
      * @return a Collection of all UserSockets that are part of the given account
      */
     public static List<UserSocket> getUserSockets() {
-        return new ArrayList<>(knownSockets.values());
+        return knownSockets.getAll();
     }
 
     /**
@@ -389,16 +376,7 @@ public class UserSocket extends ConnectedSocket {
      * @return a Collection of all UserSockets that are part of the given account
      */
     public static List<UserSocket> getUserSockets(final Account account) {
-        final ArrayList<UserSocket> list = new ArrayList<>();
-        synchronized (knownSockets) {
-            for (UserSocket socket : knownSockets.values()) {
-                if (socket.getAccount() == account) {
-                    list.add(socket);
-                }
-            }
-        }
-
-        return list;
+        return knownSockets.getAll(account);
     }
 
     /**
@@ -407,15 +385,9 @@ public class UserSocket extends ConnectedSocket {
      * @param reason Reason for all sockets to close.
      */
     public static void closeAll(final String reason) {
-        closeAll = true;
-
-        synchronized (knownSockets) {
-            for (UserSocket socket : knownSockets.values()) {
-                socket.close(reason);
-            }
+        for (UserSocket socket : knownSockets.getAll()) {
+            socket.close(reason);
         }
-
-        closeAll = false;
     }
 
     /**
@@ -522,7 +494,7 @@ public class UserSocket extends ConnectedSocket {
      * @return True if this socket is considered an active client.
      */
     public boolean isActiveClient() {
-        return getClientConfig().getOptionBool("user", "activeclient");
+        return getClientConfig().boolKey("user", "activeclient").get();
     }
 
     /**
@@ -531,7 +503,7 @@ public class UserSocket extends ConnectedSocket {
      * @return True if this socket is considered a read-only.
      */
     public boolean isReadOnly() {
-        return getClientID() != null && getClientConfig().getOptionBool("user", "readonly");
+        return getClientID() != null && getClientConfig().boolKey("user", "readonly").get();
     }
 
     /**
@@ -693,11 +665,7 @@ public class UserSocket extends ConnectedSocket {
 
     @Override
     protected void socketClosed(final boolean userRequested) {
-        if (!closeAll) {
-            synchronized (knownSockets) {
-                knownSockets.remove(myID);
-            }
-        }
+        knownSockets.unregister(myID, this, myAccount);
 
         Logger.info("User Disconnected: " + myInfo);
         getDebugFlags().stream().forEach(df -> setDebugFlag(df, false));
@@ -973,6 +941,7 @@ public class UserSocket extends ConnectedSocket {
         }
 
         myAccount = account;
+        knownSockets.setAccount(myID, this, account);
 
         Logger.debug2("handleAccount - User Connected");
         account.userConnected(this);
@@ -1104,6 +1073,9 @@ public class UserSocket extends ConnectedSocket {
                     sendLine(":%s TSIRC %s %s :%s", getServerName(), "1", (System.currentTimeMillis()), "Timestamped IRC Enabled");
                 }
                 return;
+            case "CHATHISTORY":
+                handleChatHistory(line);
+                return;
         }
 
         // We didn't handle this ourselves, send it to the ConnectionHandler
@@ -1119,6 +1091,27 @@ public class UserSocket extends ConnectedSocket {
         }
     }
 
+    /**
+     * Handle a CHATHISTORY request from the user.
+     *
+     * @param line IRCTokenised version of Line to handle
+     */
+    private void handleChatHistory(final String[] line) {
+        final String subCommand = (line.length > 1) ? line[1].toUpperCase() : "*";
+        final ConnectionHandler myConnectionHandler = myAccount.getConnectionHandler();
+        if (myConnectionHandler == null) {
+            sendLine(":%s FAIL CHATHISTORY MESSAGE_ERROR %s :Messages could not be retrieved", getServerName(), subCommand);
+            return;
+        }
+
+        final ChatHistoryRequest request = ChatHistoryRequest.parse(line);
+        if (request == null) {
+            sendLine(":%s FAIL CHATHISTORY INVALID_PARAMS %s :Invalid parameters", getServerName(), subCommand);
+        } else if (!myConnectionHandler.sendHistory(this, request.getTarget(), request.getAfter(), request.getBefore(), request.getLimit(), request.isNewest())) {
+            sendLine(":%s FAIL CHATHISTORY INVALID_TARGET %s %s :Messages could not be retrieved", getServerName(), subCommand, request.getTarget());
+        }
+    }
+
     /**
      * Handle a command sent to the bot
      *
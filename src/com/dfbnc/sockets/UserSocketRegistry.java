@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.sockets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of all connected {@link UserSocket}s, by ID and by account.
+ *
+ * @param <S> Type of socket being tracked
+ * @param <A> Type of account that sockets authenticate to
+ */
+class UserSocketRegistry<S, A> {
+
+    /** Source of socket IDs. */
+    private final AtomicLong nextID = new AtomicLong(0);
+    /** Known sockets, by ID. */
+    private final Map<String, S> sockets = new ConcurrentHashMap<>();
+    /** Known sockets that have authenticated, by account. */
+    private final Map<A, Set<S>> accountSockets = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a new socket.
+     *
+     * @param socket Socket to register
+     * @return The unique ID given to the socket
+     */
+    public String register(final S socket) {
+        final String id = Long.toString(nextID.incrementAndGet());
+        sockets.put(id, socket);
+        return id;
+    }
+
+    /**
+     * Records that a socket has authenticated to an account.
+     *
+     * @param id ID of the socket
+     * @param socket Socket that authenticated
+     * @param account Account it authenticated to
+     */
+    public void setAccount(final String id, final S socket, final A account) {
+        accountSockets.compute(account, (a, set) -> {
+            final Set<S> result = set == null ? ConcurrentHashMap.newKeySet() : set;
+            result.add(socket);
+            return result;
+        });
+
+        if (sockets.get(id) != socket) {
+            // The socket was unregistered while we were adding it.
+            unregister(id, socket, account);
+        }
+    }
+
+    /**
+     * Unregisters a socket.
+     *
+     * @param id ID of the socket
+     * @param socket Socket to unregister
+     * @param account Account the socket authenticated to, or null
+     */
+    public void unregister(final String id, final S socket, final A account) {
+        sockets.remove(id, socket);
+        if (account != null) {
+            accountSockets.computeIfPresent(account, (a, set) -> {
+                set.remove(socket);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    /**
+     * Gets a socket by ID.
+     *
+     * @param id ID of the socket
+     * @return Socket with the given ID, or null if there isn't one
+     */
+    public S get(final String id) {
+        return sockets.get(id);
+    }
+
+    /**
+     * Gets all known sockets.
+     *
+     * @return A new list of all known sockets
+     */
+    public List<S> getAll() {
+        return new ArrayList<>(sockets.values());
+    }
+
+    /**
+     * Gets all known sockets that have authenticated to the given account.
+     *
+     * @param account Account to get sockets for
+     * @return A new list of the account's sockets
+     */
+    public List<S> getAll(final A account) {
+        return new ArrayList<>(accountSockets.getOrDefault(account, Collections.emptySet()));
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A RollingList of BackbufferMessages.
+ *
+ * Messages are expected to be added in time order, which allows the list to
+ * be searched by time.
+ */
+public class BackbufferList extends RollingList<BackbufferMessage> {
+
+    /** Maximum number of renderings to cache for each profile. */
+    private static final int RENDER_CACHE_SIZE = 256;
+
+    /** Cached renderings of messages for each profile, by sequence number. */
+    private final Map<Integer, RenderCache> renderCaches = new HashMap<>();
+
+    /**
+     * Creates a new BackbufferList with the specified capacity.
+     *
+     * @param capacity The capacity for this list.
+     */
+    public BackbufferList(final int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Get the name of the storage type used by this list.
+     *
+     * @return Storage type of this list.
+     */
+    public String getStorageType() {
+        return "memory";
+    }
+
+    /**
+     * Make sure that the messages in this list have reached its storage.
+     * Does nothing for lists that are only kept in memory.
+     */
+    public void flush() {
+    }
+
+    /**
+     * Flush this list and stop using its storage. The list carries on
+     * working, but only in memory. Does nothing for lists that are only kept
+     * in memory.
+     */
+    public void close() {
+    }
+
+    /**
+     * Get the storage type that will be used for the given setting.
+     *
+     * @param storage Storage setting
+     * @return "compact", "mapped" or "memory".
+     */
+    public static String getStorageType(final String storage) {
+        if ("compact".equalsIgnoreCase(storage) || "mapped".equalsIgnoreCase(storage)) {
+            return storage.toLowerCase();
+        } else {
+            return "memory";
+        }
+    }
+
+    /**
+     * Create a new BackbufferList using the given type of storage.
+     *
+     * @param storage Storage type, "compact" to store messages as UTF-8,
+     *                "mapped" to store them in the given file, or anything
+     *                else to store them as BackbufferMessages.
+     * @param capacity The capacity for the list.
+     * @param file File to use for "mapped" storage.
+     * @return The new list.
+     * @throws IOException If the file for "mapped" storage can not be used.
+     */
+    public static BackbufferList create(final String storage, final int capacity, final File file) throws IOException {
+        switch (getStorageType(storage)) {
+            case "compact":
+                return new CompactBackbufferList(capacity);
+            case "mapped":
+                return new MappedBackbufferList(capacity, file);
+            default:
+                return new BackbufferList(capacity);
+        }
+    }
+
+    /**
+     * Get the sequence number of the first message in this list that
+     * occurred at or after the given time.
+     *
+     * @param time Time to look for
+     * @return Sequence number of the first message at or after the time, or
+     *         the next sequence number if there are none.
+     */
+    public synchronized long findSequence(final long time) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (loadTime(position(mid)) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return getFirstSequence() + low;
+    }
+
+    /**
+     * Get the time of the newest message in this list.
+     *
+     * @return Time of the newest message, or 0 if the list is empty.
+     */
+    public synchronized long getLatestTime() {
+        return isEmpty() ? 0 : loadTime(position(size() - 1));
+    }
+
+    /**
+     * Get a rendering of the message with the given sequence number.
+     *
+     * The most recently used renderings are cached for each profile until
+     * the message is evicted, so the renderer must always give the same
+     * result for the same profile.
+     *
+     * @param <R> Type of rendering
+     * @param sequence Sequence number of the message
+     * @param profile Profile that identifies the renderer
+     * @param renderer Renderer to use if there is no cached rendering
+     * @return The rendering, or null if the message is not in the list.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <R> R getRendered(final long sequence, final int profile, final Function<BackbufferMessage, R> renderer) {
+        if (sequence < getFirstSequence() || sequence >= getNextSequence()) {
+            return null;
+        }
+
+        final int cacheSize = getRenderCacheSize();
+        if (cacheSize <= 0) {
+            return renderer.apply(getSequence(sequence));
+        }
+
+        final RenderCache cache = renderCaches.computeIfAbsent(profile, p -> new RenderCache(cacheSize));
+        return (R) cache.computeIfAbsent(sequence, s -> renderer.apply(getSequence(s)));
+    }
+
+    /**
+     * Discard the cached renderings for any profile not in the given
+     * collection.
+     *
+     * @param profiles Profiles that are still in use
+     */
+    public synchronized void retainRendered(final Collection<Integer> profiles) {
+        renderCaches.keySet().retainAll(profiles);
+    }
+
+    /**
+     * Get the number of renderings currently cached, across all profiles.
+     *
+     * @return Number of cached renderings.
+     */
+    synchronized int getRenderedCount() {
+        return renderCaches.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Get the maximum number of renderings to cache for each profile.
+     *
+     * Lists that avoid holding messages as Strings should return 0, so that
+     * messages are rendered as they are replayed instead.
+     *
+     * @return Maximum number of renderings to cache, or 0 to not cache.
+     */
+    protected int getRenderCacheSize() {
+        return RENDER_CACHE_SIZE;
+    }
+
+    @Override
+    protected void evicted(final long sequence) {
+        if (!renderCaches.isEmpty()) {
+            renderCaches.values().forEach(cache -> cache.remove(sequence));
+            renderCaches.values().removeIf(Map::isEmpty);
+        }
+    }
+
+    /**
+     * Get the time of the message stored at the given position.
+     *
+     * Subclasses should override this if they can avoid loading the whole
+     * message.
+     *
+     * @param position Position in the backing storage.
+     * @return Time of the message at that position.
+     */
+    protected long loadTime(final int position) {
+        return load(position).getTime();
+    }
+
+    /**
+     * Add a message to this list.
+     *
+     * @param time The time the message occurred
+     * @param message The message that occurred
+     */
+    public void add(final long time, final String message) {
+        add(new BackbufferMessage(time, message));
+    }
+
+    /**
+     * Cached renderings for one profile, by sequence number, which discards
+     * the least recently used rendering when full.
+     */
+    private static class RenderCache extends LinkedHashMap<Long, Object> {
+        /** A version number for this class. */
+        private static final long serialVersionUID = 1;
+
+        /** Maximum number of renderings to keep. */
+        private final int maxSize;
+
+        /**
+         * Create a new RenderCache.
+         *
+         * @param maxSize Maximum number of renderings to keep
+         */
+        RenderCache(final int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, Object> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
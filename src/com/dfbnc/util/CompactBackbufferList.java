@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A BackbufferList that stores messages as UTF-8 in a single byte array, with
+ * the timestamps held separately.
+ *
+ * Messages are only turned back into BackbufferMessages when they are read,
+ * which makes this much smaller than holding a String for every message.
+ */
+public class CompactBackbufferList extends BackbufferList {
+
+    /** Smallest size to make the byte array. */
+    private static final int MIN_SLAB_SIZE = 1024;
+
+    /** Timestamps for each position. */
+    private long[] times = new long[0];
+
+    /** Offset into the byte array of the message at each position. */
+    private int[] offsets = new int[0];
+
+    /** Length of the message at each position. */
+    private int[] lengths = new int[0];
+
+    /** Encoded messages. */
+    private byte[] slab = new byte[0];
+
+    /** Number of bytes at the start of the byte array that have been used. */
+    private int used;
+
+    /** Number of bytes in the byte array that belong to messages in the list. */
+    private int live;
+
+    /**
+     * Creates a new CompactBackbufferList with the specified capacity.
+     *
+     * @param capacity The capacity for this list.
+     */
+    public CompactBackbufferList(final int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Get the number of bytes currently allocated to hold messages.
+     *
+     * @return Size of the byte array.
+     */
+    public synchronized int getSlabSize() {
+        return slab.length;
+    }
+
+    @Override
+    public String getStorageType() {
+        return "compact";
+    }
+
+    @Override
+    protected int getRenderCacheSize() {
+        // Messages are only decoded as they are replayed.
+        return 0;
+    }
+
+    @Override
+    protected BackbufferMessage load(final int position) {
+        return new BackbufferMessage(times[position], new String(slab, offsets[position], lengths[position], StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected long loadTime(final int position) {
+        return times[position];
+    }
+
+    @Override
+    protected void store(final int position, final BackbufferMessage element) {
+        final byte[] bytes = element.getMessage().getBytes(StandardCharsets.UTF_8);
+        ensureSpace(bytes.length);
+        System.arraycopy(bytes, 0, slab, used, bytes.length);
+        times[position] = element.getTime();
+        offsets[position] = used;
+        lengths[position] = bytes.length;
+        used += bytes.length;
+        live += bytes.length;
+    }
+
+    @Override
+    protected void release(final int position) {
+        live -= lengths[position];
+        lengths[position] = 0;
+        if (live == 0) {
+            used = 0;
+        }
+    }
+
+    @Override
+    protected void reorder(final int oldHead, final int count, final int newLength) {
+        final long[] newTimes = new long[newLength];
+        final int[] newOffsets = new int[newLength];
+        final int[] newLengths = new int[newLength];
+        for (int i = 0; i < count; i++) {
+            final int position = (oldHead + i) % times.length;
+            newTimes[i] = times[position];
+            newOffsets[i] = offsets[position];
+            newLengths[i] = lengths[position];
+        }
+        times = newTimes;
+        offsets = newOffsets;
+        lengths = newLengths;
+    }
+
+    /**
+     * Make sure there are at least the given number of bytes free at the end
+     * of the byte array, compacting or resizing it if needed.
+     *
+     * Messages are always added at the end of the array, so they are in the
+     * same order in the array as they are in the list and the array can be
+     * compacted in place.
+     *
+     * @param needed Number of bytes needed.
+     */
+    private void ensureSpace(final int needed) {
+        if (used + needed <= slab.length) {
+            return;
+        }
+
+        // Leave some room to grow so that compacting isn't needed too often.
+        final int wanted = Math.max(MIN_SLAB_SIZE, (live + needed) / 2 * 3);
+        final byte[] target = (wanted > slab.length || wanted * 2 < slab.length) ? new byte[wanted] : slab;
+
+        int newUsed = 0;
+        for (int i = 0; i < size(); i++) {
+            final int position = position(i);
+            System.arraycopy(slab, offsets[position], target, newUsed, lengths[position]);
+            offsets[position] = newUsed;
+            newUsed += lengths[position];
+        }
+        slab = target;
+        used = newUsed;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Checks text for any of a fixed set of literal strings in a single pass,
+ * using the Aho-Corasick algorithm.
+ * <p>
+ * Matchers are immutable once built, so may be shared between threads.
+ */
+public class LiteralMatcher {
+
+    /** Characters of the transitions out of each node, sorted. */
+    private final char[][] keys;
+    /** Target nodes of the transitions out of each node, matching {@link #keys}. */
+    private final int[][] targets;
+    /** Failure link of each node. */
+    private final int[] failures;
+    /** Whether reaching each node means one of the strings has been found. */
+    private final boolean[] terminal;
+
+    /**
+     * Creates a new matcher for the given strings. Empty strings are ignored.
+     *
+     * @param literals Strings to look for
+     */
+    public LiteralMatcher(final Collection<String> literals) {
+        final List<StringBuilder> nodeKeys = new ArrayList<>();
+        final List<List<Integer>> nodeTargets = new ArrayList<>();
+        final List<Boolean> nodeTerminal = new ArrayList<>();
+        nodeKeys.add(new StringBuilder());
+        nodeTargets.add(new ArrayList<>());
+        nodeTerminal.add(false);
+
+        // Build the trie.
+        for (String literal : literals) {
+            if (literal.isEmpty()) { continue; }
+            int node = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                final char c = literal.charAt(i);
+                final int index = nodeKeys.get(node).indexOf(String.valueOf(c));
+                if (index >= 0) {
+                    node = nodeTargets.get(node).get(index);
+                } else {
+                    final int next = nodeKeys.size();
+                    nodeKeys.add(new StringBuilder());
+                    nodeTargets.add(new ArrayList<>());
+                    nodeTerminal.add(false);
+                    nodeKeys.get(node).append(c);
+                    nodeTargets.get(node).add(next);
+                    node = next;
+                }
+            }
+            nodeTerminal.set(node, true);
+        }
+
+        final int size = nodeKeys.size();
+        keys = new char[size][];
+        targets = new int[size][];
+        failures = new int[size];
+        terminal = new boolean[size];
+        for (int node = 0; node < size; node++) {
+            // Sort each node's transitions so they can be binary searched.
+            final String nodeChars = nodeKeys.get(node).toString();
+            final Integer[] order = new Integer[nodeChars.length()];
+            for (int i = 0; i < order.length; i++) { order[i] = i; }
+            Arrays.sort(order, (a, b) -> Character.compare(nodeChars.charAt(a), nodeChars.charAt(b)));
+
+            keys[node] = new char[order.length];
+            targets[node] = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                keys[node][i] = nodeChars.charAt(order[i]);
+                targets[node][i] = nodeTargets.get(node).get(order[i]);
+            }
+            terminal[node] = nodeTerminal.get(node);
+        }
+
+        // Breadth-first, link each node to the longest proper suffix of it
+        // that is also in the trie.
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            failures[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int node = queue.remove();
+            for (int i = 0; i < keys[node].length; i++) {
+                final int child = targets[node][i];
+                int failure = failures[node];
+                int next = getTransition(failure, keys[node][i]);
+                while (next < 0 && failure != 0) {
+                    failure = failures[failure];
+                    next = getTransition(failure, keys[node][i]);
+                }
+                failures[child] = (next < 0) ? 0 : next;
+                terminal[child] |= terminal[failures[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Gets the node reached from the given node by the given character.
+     *
+     * @param node Node to transition from
+     * @param c Character to transition on
+     * @return Target node, or -1 if there is no such transition
+     */
+    private int getTransition(final int node, final char c) {
+        final int index = Arrays.binarySearch(keys[node], c);
+        return (index < 0) ? -1 : targets[node][index];
+    }
+
+    /**
+     * Checks if the given text contains any of the strings in this matcher.
+     *
+     * @param text Text to check
+     * @return True if at least one string was found
+     */
+    public boolean containsAny(final CharSequence text) {
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = getTransition(node, c);
+            while (next < 0 && node != 0) {
+                node = failures[node];
+                next = getTransition(node, c);
+            }
+            node = (next < 0) ? 0 : next;
+            if (terminal[node]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if this matcher has any strings to look for.
+     *
+     * @return True if there are no strings in this matcher
+     */
+    public boolean isEmpty() {
+        return keys[0].length == 0;
+    }
+}
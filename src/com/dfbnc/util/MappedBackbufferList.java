@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A BackbufferList that is stored in a memory-mapped file, so that it
+ * survives reconnects and restarts.
+ *
+ * The file has a fixed size and contains a small header (which includes the
+ * sequence number for the next message), followed by an
+ * index entry for each position in the list and then a ring of UTF-8 encoded
+ * messages. New messages are always written after the previous one, wrapping
+ * back to the start of the ring when they reach the end and evicting the
+ * oldest messages if the space is needed.
+ *
+ * Each index entry holds the sequence number, time, offset and length of the
+ * message at that position. The sequence number is written last and set to
+ * -1 when a message is evicted, so the contents of the list can be worked out
+ * from the index alone when the file is opened again.
+ *
+ * Each file is only written by one list at a time. Opening a file that
+ * another list is using closes that list first, which flushes it and leaves
+ * it working from a copy in memory, so that a new connection can take over
+ * the backbuffer of an old one.
+ */
+public class MappedBackbufferList extends BackbufferList {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x44464242;
+
+    /** Version of the file layout. */
+    private static final int VERSION = 1;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 24;
+
+    /** Size of each index entry. */
+    private static final int ENTRY_SIZE = 24;
+
+    /** Number of bytes of message space to allow per position. */
+    private static final int BYTES_PER_SLOT = 512;
+
+    /** Smallest amount of message space to allow. */
+    private static final int MIN_DATA_SIZE = 65536;
+
+    /** Lists that are using each file, by canonical path. */
+    private static final Map<String, MappedBackbufferList> OPEN_FILES = new HashMap<>();
+
+    /** File this list is stored in. */
+    private final File file;
+
+    /** Canonical path of the file, used to track which list is using it. */
+    private final String key;
+
+    /** Has this list stopped using its file? */
+    private boolean closed;
+
+    /** Mapping of the file, or null if it has not been created yet. */
+    private ByteBuffer buffer;
+
+    /** Number of index entries in the file. */
+    private int slots;
+
+    /** Number of bytes of message space in the file. */
+    private int dataSize;
+
+    /** Offset in the file of the message space. */
+    private int dataStart;
+
+    /** Number of positions the list is currently using. */
+    private int length;
+
+    /** Offset into the message space to write the next message to. */
+    private int writePos;
+
+    /**
+     * Creates a new MappedBackbufferList with the specified capacity, loading
+     * any messages already stored in the given file.
+     *
+     * @param capacity The capacity for this list.
+     * @param file The file to store the list in.
+     * @throws IOException If the file can not be read.
+     */
+    public MappedBackbufferList(final int capacity, final File file) throws IOException {
+        super(capacity);
+        this.file = file;
+        this.key = file.getCanonicalPath();
+
+        final MappedBackbufferList previous;
+        synchronized (OPEN_FILES) {
+            previous = OPEN_FILES.put(key, this);
+        }
+        if (previous != null) {
+            previous.close();
+        }
+
+        if (file.exists()) {
+            try {
+                load();
+            } catch (final IOException ex) {
+                close();
+                throw ex;
+            }
+            setCapacity(capacity);
+        }
+    }
+
+    /**
+     * Get the file this list is stored in.
+     *
+     * @return The file for this list.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Load the existing contents of the file.
+     *
+     * @throws IOException If the file can not be read.
+     */
+    private void load() throws IOException {
+        final ByteBuffer existing = map(file, file.length());
+        if (existing.capacity() < HEADER_SIZE || existing.getInt(0) != MAGIC || existing.getInt(4) != VERSION) {
+            // Not something we understand, it will be replaced on first use.
+            return;
+        }
+
+        slots = existing.getInt(8);
+        dataSize = existing.getInt(12);
+        dataStart = HEADER_SIZE + slots * ENTRY_SIZE;
+        if (slots <= 0 || dataSize <= 0 || existing.capacity() < dataStart + dataSize) {
+            slots = 0;
+            dataSize = 0;
+            return;
+        }
+        buffer = existing;
+
+        // Find the messages that are still in the list, and move them to the
+        // start of the index in order.
+        final List<long[]> entries = new ArrayList<>();
+        for (int i = 0; i < slots; i++) {
+            final int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            final int offset = buffer.getInt(entry + 16);
+            final int len = buffer.getInt(entry + 20);
+            // Ignore anything that points outside the message space.
+            if (buffer.getLong(entry) >= 0 && offset >= 0 && len >= 0 && offset <= dataSize - len) {
+                entries.add(new long[]{buffer.getLong(entry), buffer.getLong(entry + 8), buffer.getInt(entry + 16), buffer.getInt(entry + 20)});
+            }
+        }
+        entries.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        final long first = entries.isEmpty() ? buffer.getLong(16) : entries.get(0)[0];
+        for (int i = 0; i < slots; i++) {
+            if (i < entries.size()) {
+                final long[] e = entries.get(i);
+                writeEntry(i, first + i, e[1], (int) e[2], (int) e[3]);
+                writePos = (int) (e[2] + e[3]);
+            } else {
+                buffer.putLong(HEADER_SIZE + i * ENTRY_SIZE, -1);
+            }
+        }
+        length = slots;
+        restore(entries.size(), first, slots);
+    }
+
+    @Override
+    public String getStorageType() {
+        return "mapped";
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) { return; }
+
+        flush();
+        closed = true;
+        if (buffer instanceof MappedByteBuffer) {
+            final ByteBuffer copy = ByteBuffer.allocate(buffer.capacity());
+            final ByteBuffer source = buffer.duplicate();
+            source.clear();
+            copy.put(source);
+            buffer = copy;
+        }
+        synchronized (OPEN_FILES) {
+            OPEN_FILES.remove(key, this);
+        }
+    }
+
+    /**
+     * Check if this list is still using its file.
+     *
+     * @return True if changes to this list are written to its file.
+     */
+    synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    protected int getRenderCacheSize() {
+        // Messages are only decoded as they are replayed.
+        return 0;
+    }
+
+    @Override
+    protected BackbufferMessage load(final int position) {
+        final int entry = HEADER_SIZE + position * ENTRY_SIZE;
+        final byte[] bytes = new byte[buffer.getInt(entry + 20)];
+        final ByteBuffer data = buffer.duplicate();
+        data.position(dataStart + buffer.getInt(entry + 16));
+        data.get(bytes);
+        return new BackbufferMessage(buffer.getLong(entry + 8), new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected long loadTime(final int position) {
+        return buffer.getLong(HEADER_SIZE + position * ENTRY_SIZE + 8);
+    }
+
+    @Override
+    protected void store(final int position, final BackbufferMessage element) {
+        final byte[] bytes = element.getMessage().getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(bytes.length, dataSize);
+        // Don't cut a message in the middle of a character.
+        while (len > 0 && len < bytes.length && (bytes[len] & 0xC0) == 0x80) {
+            len--;
+        }
+
+        int start = writePos;
+        if (start + len > dataSize) {
+            // Wrap around, anything after the current write position is older
+            // than anything before it and needs to go first.
+            while (size() > 0 && entryOffset(position(0)) >= writePos) {
+                evictOldest();
+            }
+            start = 0;
+        }
+        while (size() > 0 && entryOffset(position(0)) < start + len && entryOffset(position(0)) + entryLength(position(0)) > start) {
+            evictOldest();
+        }
+
+        final ByteBuffer data = buffer.duplicate();
+        data.position(dataStart + start);
+        data.put(bytes, 0, len);
+        final long sequence = getNextSequence();
+        writeEntry(position, sequence, element.getTime(), start, len);
+        buffer.putLong(16, sequence + 1);
+        writePos = start + len;
+    }
+
+    @Override
+    protected void release(final int position) {
+        buffer.putLong(HEADER_SIZE + position * ENTRY_SIZE, -1);
+    }
+
+    @Override
+    protected void reorder(final int oldHead, final int count, final int newLength) {
+        final long[] times = new long[count];
+        final int[] offsets = new int[count];
+        final int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            final int entry = HEADER_SIZE + ((oldHead + i) % length) * ENTRY_SIZE;
+            times[i] = buffer.getLong(entry + 8);
+            offsets[i] = buffer.getInt(entry + 16);
+            lengths[i] = buffer.getInt(entry + 20);
+        }
+        final long first = getFirstSequence();
+
+        if (newLength > slots) {
+            // Need a bigger file, copy the messages over to the start of it.
+            final int newSlots = Math.max(newLength, getCapacity());
+            int total = 0;
+            for (int i = 0; i < count; i++) {
+                total += lengths[i];
+            }
+            final int newDataSize = Math.max(MIN_DATA_SIZE, Math.max(newSlots * BYTES_PER_SLOT, total * 2));
+            final int newDataStart = HEADER_SIZE + newSlots * ENTRY_SIZE;
+            final ByteBuffer newBuffer = create(newSlots, newDataSize);
+            newBuffer.putLong(16, first + count);
+
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                final ByteBuffer from = buffer.duplicate();
+                from.position(dataStart + offsets[i]);
+                from.limit(dataStart + offsets[i] + lengths[i]);
+                newBuffer.position(newDataStart + pos);
+                newBuffer.put(from);
+                offsets[i] = pos;
+                pos += lengths[i];
+            }
+
+            buffer = newBuffer;
+            slots = newSlots;
+            dataSize = newDataSize;
+            dataStart = newDataStart;
+            writePos = pos;
+        }
+
+        for (int i = 0; i < slots; i++) {
+            if (i < count) {
+                writeEntry(i, first + i, times[i], offsets[i], lengths[i]);
+            } else {
+                buffer.putLong(HEADER_SIZE + i * ENTRY_SIZE, -1);
+            }
+        }
+        length = newLength;
+    }
+
+    /**
+     * Create a new, empty, file to hold the list, replacing the existing one.
+     *
+     * If the file can not be created, the list carries on in memory instead.
+     *
+     * @param newSlots Number of index entries to allow for
+     * @param newDataSize Number of bytes of message space to allow for
+     * @return Buffer for the new file
+     */
+    private ByteBuffer create(final int newSlots, final int newDataSize) {
+        final long size = HEADER_SIZE + (long) newSlots * ENTRY_SIZE + newDataSize;
+        ByteBuffer newBuffer;
+        try {
+            if (closed) {
+                throw new IOException("List has been closed");
+            }
+            final File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Unable to create " + parent);
+            }
+            final File temp = new File(parent, file.getName() + ".tmp");
+            newBuffer = map(temp, size);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException | UnsupportedOperationException ex) {
+            newBuffer = ByteBuffer.allocate((int) size);
+        }
+
+        newBuffer.putInt(0, MAGIC);
+        newBuffer.putInt(4, VERSION);
+        newBuffer.putInt(8, newSlots);
+        newBuffer.putInt(12, newDataSize);
+        for (int i = 0; i < newSlots; i++) {
+            newBuffer.putLong(HEADER_SIZE + i * ENTRY_SIZE, -1);
+        }
+        return newBuffer;
+    }
+
+    /**
+     * Map the given file, setting its length first.
+     *
+     * @param target File to map
+     * @param size Length of the file
+     * @return Mapping of the file
+     * @throws IOException If the file can not be mapped
+     */
+    private static ByteBuffer map(final File target, final long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+            raf.setLength(size);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Write an index entry.
+     *
+     * @param position Position to write
+     * @param sequence Sequence number of the message
+     * @param time Time of the message
+     * @param offset Offset of the message in the message space
+     * @param len Length of the message
+     */
+    private void writeEntry(final int position, final long sequence, final long time, final int offset, final int len) {
+        final int entry = HEADER_SIZE + position * ENTRY_SIZE;
+        buffer.putLong(entry + 8, time);
+        buffer.putInt(entry + 16, offset);
+        buffer.putInt(entry + 20, len);
+        buffer.putLong(entry, sequence);
+    }
+
+    /**
+     * Get the offset of the message at the given position.
+     *
+     * @param position Position to look at
+     * @return Offset in the message space
+     */
+    private int entryOffset(final int position) {
+        return buffer.getInt(HEADER_SIZE + position * ENTRY_SIZE + 16);
+    }
+
+    /**
+     * Get the length of the message at the given position.
+     *
+     * @param position Position to look at
+     * @return Length of the message
+     */
+    private int entryLength(final int position) {
+        return buffer.getInt(HEADER_SIZE + position * ENTRY_SIZE + 20);
+    }
+}
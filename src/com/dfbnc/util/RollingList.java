@@ -19,30 +19,55 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
+
 package com.dfbnc.util;
 
-import java.util.LinkedList;
+import java.util.AbstractList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 
 /**
  * Implements a simple rolling list. As newer items are added beyond the
  * capacity of the list, items from the *start of the list* are removed to keep
  * the list under-capacity.
  *
+ * Items are held in a circular array so appending and evicting are both O(1)
+ * and do not allocate per item. Every item is given a sequence number as it is
+ * added, which allows {@link Snapshot}s to be taken of the list without
+ * copying it.
+ *
+ * Subclasses may store items differently by overriding {@link #load},
+ * {@link #store}, {@link #release} and {@link #reorder}, and may keep track of
+ * items leaving the list by overriding {@link #evicted}, all of which are
+ * called with the list locked.
+ *
  * @param <T> Type of items to add
  */
-public class RollingList<T> extends LinkedList<T> {
+public class RollingList<T> extends AbstractList<T> implements RandomAccess {
 
-    /**
-     * A version number for this class. It should be changed whenever the class
-     * structure is changed (or anything else that would prevent serialised
-     * objects being un-serialised with the new class).
-     */
-    private static final long serialVersionUID = 1L;
+    /** Initial size of the backing array, it will grow up to the capacity. */
+    private static final int INITIAL_SIZE = 16;
 
     /** Capacity of the list */
     private int capacity;
 
+    /** Backing array for the list. */
+    private Object[] elements = new Object[0];
+
+    /** Number of positions available in the backing storage. */
+    private int length;
+
+    /** Position in the backing array of the oldest item. */
+    private int head;
+
+    /** Number of items currently in the list. */
+    private int size;
+
+    /** Sequence number of the oldest item in the list. */
+    private long firstSequence;
+
     /**
      * Creates a new RollingList with the specified capacity.
      *
@@ -58,7 +83,7 @@ public class RollingList<T> extends LinkedList<T> {
      *
      * @return Current capacity of this list.
      */
-    public int getCapacity() {
+    public synchronized int getCapacity() {
         return capacity;
     }
 
@@ -67,95 +92,357 @@ public class RollingList<T> extends LinkedList<T> {
      *
      * @param newValue New capacity for this list,
      */
-    public void setCapacity(final int newValue) {
+    public synchronized void setCapacity(final int newValue) {
         capacity = Math.max(0, newValue);
-        pruneList(capacity);
+        while (size > capacity) {
+            evict();
+        }
+        resize(Math.min(capacity, Math.max(size, length)));
+    }
+
+    /**
+     * Get the sequence number of the oldest item in the list.
+     *
+     * @return Sequence number of the oldest item in the list.
+     */
+    public synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Get the sequence number that will be given to the next item added to
+     * the list.
+     *
+     * @return Sequence number of the next item to be added.
+     */
+    public synchronized long getNextSequence() {
+        return firstSequence + size;
+    }
+
+    /**
+     * Get a snapshot of the current contents of this list.
+     *
+     * @return Snapshot of the list.
+     */
+    public Snapshot<T> snapshot() {
+        return snapshot(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get a snapshot of at most the newest {@code max} items in this list.
+     *
+     * The snapshot does not copy the list, items added after the snapshot was
+     * taken will not be seen by it, and items that are evicted from the list
+     * before the snapshot reaches them will be skipped.
+     *
+     * @param max Maximum number of items to include.
+     * @return Snapshot of the list.
+     */
+    public synchronized Snapshot<T> snapshot(final int max) {
+        return snapshotFrom(firstSequence, max);
+    }
+
+    /**
+     * Get a snapshot of at most the newest {@code max} items in this list,
+     * starting no earlier than the item with the given sequence number.
+     *
+     * @param sequence Sequence number of the first item to include.
+     * @param max Maximum number of items to include.
+     * @return Snapshot of the list.
+     * @see #snapshot(int)
+     */
+    public synchronized Snapshot<T> snapshotFrom(final long sequence, final int max) {
+        final long end = firstSequence + size;
+        final long start = Math.max(Math.max(sequence, firstSequence), end - Math.max(0, max));
+        return new Snapshot<>(this, Math.min(start, end), end);
     }
 
     /**
-     * Prune the start of the list to keep the capacity at the given value.
+     * Get the item with the given sequence number.
      *
-     * @param max Maximum elements to keep.
+     * @param sequence Sequence number to look for.
+     * @return The item, or null if it is no longer (or not yet) in the list.
      */
-    private void pruneList(final int max) {
-        while (size() > max) {
-            pop();
+    public synchronized T getSequence(final long sequence) {
+        if (sequence < firstSequence || sequence >= firstSequence + size) {
+            return null;
         }
+        return load(position((int) (sequence - firstSequence)));
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public RollingList<T> clone() {
-        return (RollingList<T>)super.clone();
+    public synchronized T get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return load(position(index));
     }
 
-    //=========================================================================
-    // Below are implementations of any method that adds anything to this list.
-    //=========================================================================
+    @Override
+    public synchronized int size() {
+        return size;
+    }
 
     @Override
-    public boolean add(final T element) {
-        super.add(element);
-        pruneList(capacity);
+    public synchronized boolean add(final T element) {
+        if (capacity == 0) {
+            // Nothing is kept, but the item still uses up a sequence number.
+            firstSequence++;
+            return true;
+        }
+        if (size == capacity) {
+            evict();
+        } else if (size == length) {
+            resize(Math.min(capacity, Math.max(INITIAL_SIZE, size * 2)));
+        }
+        store(position(size), element);
+        size++;
         return true;
     }
 
     @Override
     public boolean addAll(final Collection<? extends T> c) {
-        super.addAll(c);
-        pruneList(capacity);
-        return true;
+        for (T element : c) {
+            add(element);
+        }
+        return !c.isEmpty();
     }
 
     @Override
-    public void add(final int index, final T element) {
-        super.add(index, element);
-        pruneList(capacity);
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) {
+            release(position(i));
+            evicted(firstSequence + i);
+        }
+        firstSequence += size;
+        head = 0;
+        size = 0;
     }
 
     @Override
-    public boolean addAll(final int index, Collection<? extends T> c) {
-        super.addAll(index, c);
-        pruneList(capacity);
-        return true;
+    public Iterator<T> iterator() {
+        return snapshot().iterator();
     }
 
-    @Override
-    public void addFirst(final T e) {
-        super.addFirst(e);
-        pruneList(capacity);
+    /**
+     * Remove the oldest item from the list, if there is one.
+     *
+     * This may be called by subclasses from {@link #store} if they need to
+     * make room for the new item, the position being stored to is not changed
+     * by doing so.
+     */
+    protected synchronized void evictOldest() {
+        if (size > 0) {
+            evict();
+        }
     }
 
-    @Override
-    public void addLast(final T e) {
-        super.addLast(e);
-        pruneList(capacity);
+    /**
+     * Restore the state of the list from storage that already holds items,
+     * for subclasses whose storage outlives the list.
+     *
+     * @param count Number of items held, at positions 0 to count - 1.
+     * @param sequence Sequence number of the item at position 0.
+     * @param newLength Number of positions available in the storage.
+     */
+    protected synchronized void restore(final int count, final long sequence, final int newLength) {
+        head = 0;
+        size = count;
+        firstSequence = sequence;
+        length = newLength;
     }
 
-    @Override
-    public boolean offer(final T e) {
-        super.offer(e);
-        pruneList(capacity);
-        return true;
+    /**
+     * Remove the oldest item in the list.
+     */
+    private void evict() {
+        release(head);
+        evicted(firstSequence);
+        head = (head + 1) % length;
+        size--;
+        firstSequence++;
     }
 
-    @Override
-    public boolean offerFirst(final T e) {
-        super.offerFirst(e);
-        pruneList(capacity);
-        return true;
+    /**
+     * Change the size of the backing array, moving the oldest item to the
+     * start of it.
+     *
+     * @param newLength New length for the backing array, at least size.
+     */
+    private void resize(final int newLength) {
+        if (newLength == length && head == 0) {
+            return;
+        }
+        reorder(head, size, newLength);
+        length = newLength;
+        head = 0;
     }
 
-    @Override
-    public boolean offerLast(final T e) {
-        super.offerLast(e);
-        pruneList(capacity);
-        return true;
+    /**
+     * Get the position in the backing storage of the given index.
+     *
+     * @param index Index into the list.
+     * @return Position in the backing storage.
+     */
+    protected int position(final int index) {
+        return (head + index) % length;
     }
 
-    @Override
-    public void push(final T e) {
-        super.push(e);
-        pruneList(capacity);
+    /**
+     * Get the item stored at the given position.
+     *
+     * @param position Position in the backing storage.
+     * @return The item at that position.
+     */
+    @SuppressWarnings("unchecked")
+    protected T load(final int position) {
+        return (T) elements[position];
+    }
+
+    /**
+     * Store an item at the given position.
+     *
+     * @param position Position in the backing storage.
+     * @param element Item to store.
+     */
+    protected void store(final int position, final T element) {
+        elements[position] = element;
+    }
+
+    /**
+     * Release the item stored at the given position, it is no longer part of
+     * the list.
+     *
+     * @param position Position in the backing storage.
+     */
+    protected void release(final int position) {
+        elements[position] = null;
+    }
+
+    /**
+     * Called after the item with the given sequence number has been removed
+     * from the list.
+     *
+     * @param sequence Sequence number of the removed item.
+     */
+    protected void evicted(final long sequence) {
+        // Nothing to do by default.
+    }
+
+    /**
+     * Change the size of the backing storage to the given length, moving the
+     * items currently in the list to the start of it.
+     *
+     * @param oldHead Position of the oldest item in the current storage.
+     * @param count Number of items in the list.
+     * @param newLength New number of positions for the storage.
+     */
+    protected void reorder(final int oldHead, final int count, final int newLength) {
+        final Object[] newElements = new Object[newLength];
+        for (int i = 0; i < count; i++) {
+            newElements[i] = elements[(oldHead + i) % length];
+        }
+        elements = newElements;
+    }
+
+    /**
+     * A view of a range of sequence numbers in a RollingList.
+     *
+     * @param <T> Type of items in the list
+     */
+    public static class Snapshot<T> implements Iterable<T> {
+
+        /** List this is a snapshot of. */
+        private final RollingList<T> list;
+
+        /** First sequence number in this snapshot. */
+        private final long start;
+
+        /** Sequence number after the last one in this snapshot. */
+        private final long end;
+
+        /**
+         * Create a new Snapshot.
+         *
+         * @param list List this is a snapshot of
+         * @param start First sequence number in the snapshot
+         * @param end Sequence number after the last one in the snapshot
+         */
+        protected Snapshot(final RollingList<T> list, final long start, final long end) {
+            this.list = list;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Get the sequence number of the first item in this snapshot.
+         *
+         * @return First sequence number in the snapshot.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Get the sequence number after the last item in this snapshot.
+         *
+         * @return Sequence number after the last one in the snapshot.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Get the number of items this snapshot covered when it was taken.
+         *
+         * @return Number of items in the snapshot.
+         */
+        public int size() {
+            return (int) (end - start);
+        }
+
+        /**
+         * Check if this snapshot was empty when it was taken.
+         *
+         * @return True if the snapshot has no items.
+         */
+        public boolean isEmpty() {
+            return end == start;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                /** Sequence number of the next item to look at. */
+                private long sequence = start;
+
+                /** The next item to return, if already found. */
+                private T next;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && sequence < end) {
+                        synchronized (list) {
+                            // Skip anything that has been evicted since.
+                            sequence = Math.max(sequence, list.getFirstSequence());
+                            if (sequence < end) {
+                                next = list.getSequence(sequence++);
+                            }
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final T result = next;
+                    next = null;
+                    return result;
+                }
+            };
+        }
     }
 }
@@ -23,7 +23,14 @@ package com.dfbnc.util;
 
 import com.dfbnc.DFBnc;
 import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -149,6 +156,33 @@ public final class Util {
         return folder.delete();
     }
 
+    /**
+     * Replace a file with a newly written temporary file, so that the file
+     * is always either entirely old or entirely new even after a crash.
+     *
+     * The temporary file is synced to disk before it is moved over the
+     * original, and should be in the same directory as it.
+     *
+     * @param temp Newly written file
+     * @param file File to replace
+     * @throws IOException If the file can not be replaced
+     */
+    public static void replaceFile(final Path temp, final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException ex) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (FileChannel channel = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException ex) {
+            // Not all platforms allow directories to be synced.
+        }
+    }
+
     /**
      * Prevent Creation of Functions Object
      */
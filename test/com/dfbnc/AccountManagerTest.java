@@ -0,0 +1,127 @@
+package com.dfbnc;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for loading accounts in {@link AccountManager}.
+ */
+public class AccountManagerTest {
+
+    private static final List<File> DIRECTORIES = Arrays.asList(
+            new File("one"), new File("two"), new File("three"), new File("four"));
+
+    /**
+     * Tests that accounts are loaded in parallel, and that loading waits for
+     * all of them.
+     */
+    @Test
+    public void testParallelLoading() {
+        // Given a loader that only finishes once every account has started
+        final CyclicBarrier barrier = new CyclicBarrier(DIRECTORIES.size());
+        final Set<String> loaded = ConcurrentHashMap.newKeySet();
+        final AccountManager manager = new AccountManager(file -> {
+            try {
+                barrier.await(10, TimeUnit.SECONDS);
+            } catch (final Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+            loaded.add(file.getName());
+            return null;
+        });
+
+        // When the accounts are loaded with a thread for each
+        manager.loadAccounts(DIRECTORIES.toArray(new File[0]), DIRECTORIES.size());
+
+        // Then they were all loaded together, before loadAccounts returned
+        assertEquals(new HashSet<>(Arrays.asList("one", "two", "three", "four")), loaded);
+        DIRECTORIES.forEach(file -> assertFalse(manager.isLoading(file.getName())));
+    }
+
+    /**
+     * Tests that with one loader thread, accounts are loaded in order.
+     */
+    @Test
+    public void testSingleThreadOrder() {
+        final List<String> loaded = new ArrayList<>();
+        final AccountManager manager = new AccountManager(file -> {
+            loaded.add(file.getName());
+            return null;
+        });
+
+        manager.loadAccounts(DIRECTORIES.toArray(new File[0]), 0);
+
+        assertEquals(Arrays.asList("one", "two", "three", "four"), loaded);
+    }
+
+    /**
+     * Tests that an account can't be created while an account of the same
+     * name is loading, including accounts that haven't started loading yet.
+     */
+    @Test
+    public void testCreateBlockedWhileLoading() throws InterruptedException {
+        // Given the first of two accounts that is stuck loading
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AccountManager manager = new AccountManager(file -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        final Thread thread = new Thread(() -> manager.loadAccounts(
+                new File[]{new File("one"), new File("two")}, 1));
+        thread.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // Then neither account can be created
+        assertTrue(manager.isLoading("one"));
+        assertTrue(manager.isLoading("Two"));
+        assertNull(manager.createAccount("one", "password"));
+        assertNull(manager.createAccount("two", "password"));
+
+        // And once loading finishes, they are no longer marked as loading
+        release.countDown();
+        thread.join(10000);
+        assertFalse(manager.isLoading("one"));
+        assertFalse(manager.isLoading("two"));
+    }
+
+    /**
+     * Tests that an account that fails to load doesn't stop the others.
+     */
+    @Test
+    public void testFailedLoad() {
+        final Set<String> loaded = ConcurrentHashMap.newKeySet();
+        final AccountManager manager = new AccountManager(file -> {
+            if (file.getName().equals("two")) {
+                throw new IllegalStateException("broken");
+            }
+            loaded.add(file.getName());
+            return null;
+        });
+
+        manager.loadAccounts(DIRECTORIES.toArray(new File[0]), 2);
+
+        assertEquals(new HashSet<>(Arrays.asList("one", "three", "four")), loaded);
+        assertFalse(manager.isLoading("two"));
+    }
+}
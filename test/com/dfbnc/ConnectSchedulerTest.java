@@ -0,0 +1,205 @@
+package com.dfbnc;
+
+import com.dfbnc.config.Config;
+import com.dfbnc.config.ConfigFileConfig;
+import com.dmdirc.util.io.InvalidConfigFileException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ConnectScheduler}.
+ */
+public class ConnectSchedulerTest {
+
+    private Config config;
+
+    private AtomicLong now;
+
+    private double random;
+
+    private ConnectScheduler scheduler;
+
+    @Before
+    public void setUp() throws IOException, InvalidConfigFileException {
+        config = new ConfigFileConfig(new ByteArrayInputStream(new byte[0]));
+        config.setOption("general", "reconnectmaxdelay", 60);
+        now = new AtomicLong(1000000);
+        scheduler = new ConnectScheduler(() -> config, now::get, () -> random, Runnable::run);
+    }
+
+    /**
+     * Tests that the backoff delay doubles with each failure, up to the
+     * maximum.
+     */
+    @Test
+    public void testBackoffGrowthAndCap() {
+        // Given no jitter
+        random = 0.999999;
+
+        // Then the delay doubles with each failure until it reaches the cap
+        assertEquals(5000, scheduler.getBackoffDelay(0));
+        assertEquals(10000, scheduler.getBackoffDelay(1));
+        assertEquals(20000, scheduler.getBackoffDelay(2));
+        assertEquals(40000, scheduler.getBackoffDelay(3));
+        assertEquals(60000, scheduler.getBackoffDelay(4));
+        assertEquals(60000, scheduler.getBackoffDelay(100));
+        assertEquals(60000, scheduler.getMaxBackoffDelay());
+    }
+
+    /**
+     * Tests that the backoff delay is randomised between half and all of
+     * the full delay.
+     */
+    @Test
+    public void testBackoffJitter() {
+        random = 0;
+        assertEquals(10000, scheduler.getBackoffDelay(2));
+
+        random = 0.5;
+        assertEquals(15000, scheduler.getBackoffDelay(2));
+    }
+
+    /**
+     * Tests that the backoff starts again once a connection has lasted for
+     * longer than the longest delay.
+     */
+    @Test
+    public void testBackoffResetsAfterLastingConnection() {
+        // Given an account that has failed to connect a few times
+        random = 0.999999;
+        final ConnectScheduler.Backoff backoff = scheduler.newBackoff();
+        backoff.connected();
+        assertEquals(5000, backoff.nextDelay());
+        backoff.connected();
+        assertEquals(10000, backoff.nextDelay());
+        backoff.connected();
+        now.addAndGet(30000);
+        assertEquals(20000, backoff.nextDelay());
+
+        // When a connection stays up for longer than the longest delay
+        backoff.connected();
+        now.addAndGet(60001);
+
+        // Then the backoff starts again
+        assertEquals(5000, backoff.nextDelay());
+        assertEquals(10000, backoff.nextDelay());
+    }
+
+    /**
+     * Tests that connections to one destination are throttled without
+     * holding up others.
+     */
+    @Test
+    public void testPerDestinationThrottling() {
+        // Given a burst of 2 and a rate of 6 per minute for each destination
+        config.setOption("general", "destinationconnectsperminute", 6);
+        config.setOption("general", "destinationconnectburst", 2);
+
+        // Then the burst is allowed straight away
+        assertEquals(0, scheduler.acquire("irc.example.com"));
+        assertEquals(0, scheduler.acquire("irc.example.com"));
+
+        // And the next attempt has to wait for a token to refill
+        assertEquals(10000, scheduler.acquire("irc.example.com"));
+        now.addAndGet(4000);
+        assertEquals(6000, scheduler.acquire("irc.example.com"));
+
+        // But other destinations can still connect
+        assertEquals(0, scheduler.acquire("irc.example.org"));
+
+        // And once the token has refilled, the attempt is allowed
+        now.addAndGet(6000);
+        assertEquals(0, scheduler.acquire("irc.example.com"));
+        assertTrue(scheduler.acquire("irc.example.com") > 0);
+    }
+
+    /**
+     * Tests that the global limit applies across all destinations.
+     */
+    @Test
+    public void testGlobalThrottling() {
+        // Given a global burst of 1 and a rate of 60 per minute
+        config.setOption("general", "connectsperminute", 60);
+        config.setOption("general", "connectburst", 1);
+
+        // Then only one attempt is allowed at a time, whatever the destination
+        assertEquals(0, scheduler.acquire("irc.example.com"));
+        assertEquals(1000, scheduler.acquire("irc.example.org"));
+        now.addAndGet(1000);
+        assertEquals(0, scheduler.acquire("irc.example.org"));
+    }
+
+    /**
+     * Tests that scheduled attempts are run, and cancelled ones are not.
+     */
+    @Test
+    public void testScheduledAttempts() throws InterruptedException {
+        // Given one attempt that is cancelled and one that isn't
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CountDownLatch run = new CountDownLatch(1);
+        final ConnectScheduler.Attempt attempt = scheduler.schedule("irc.example.com", 100, cancelled::countDown);
+        attempt.cancel();
+        scheduler.schedule("irc.example.com", 200, run::countDown);
+
+        // Then only the second is run
+        assertTrue(run.await(10, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+        assertTrue(attempt.isCancelled());
+    }
+
+    /**
+     * Tests that attempts are made by the connector rather than on the
+     * scheduler thread.
+     */
+    @Test
+    public void testAttemptsRunOnConnector() throws InterruptedException {
+        // Given a scheduler whose connector records the attempts it is given
+        final BlockingQueue<Runnable> connector = new LinkedBlockingQueue<>();
+        scheduler = new ConnectScheduler(() -> config, now::get, () -> random, connector::add);
+        final CountDownLatch run = new CountDownLatch(1);
+
+        // When an attempt is due
+        scheduler.schedule("irc.example.com", 0, run::countDown);
+        final Runnable task = connector.poll(10, TimeUnit.SECONDS);
+
+        // Then it is handed to the connector, and not run by the scheduler
+        assertNotNull(task);
+        assertEquals(1, run.getCount());
+        task.run();
+        assertEquals(0, run.getCount());
+    }
+
+    /**
+     * Tests that an attempt cancelled while waiting for the connector is not
+     * made.
+     */
+    @Test
+    public void testCancelWhileWaitingForConnector() throws InterruptedException {
+        // Given an attempt that has been handed to the connector
+        final BlockingQueue<Runnable> connector = new LinkedBlockingQueue<>();
+        scheduler = new ConnectScheduler(() -> config, now::get, () -> random, connector::add);
+        final CountDownLatch run = new CountDownLatch(1);
+        final ConnectScheduler.Attempt attempt = scheduler.schedule("irc.example.com", 0, run::countDown);
+        final Runnable task = connector.poll(10, TimeUnit.SECONDS);
+        assertNotNull(task);
+
+        // When it is cancelled before the connector gets to it
+        attempt.cancel();
+        task.run();
+
+        // Then the connection is not made
+        assertEquals(1, run.getCount());
+    }
+}
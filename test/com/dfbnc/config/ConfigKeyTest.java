@@ -0,0 +1,141 @@
+package com.dfbnc.config;
+
+import com.dmdirc.util.io.InvalidConfigFileException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ConfigKey}s given out by configs.
+ */
+public class ConfigKeyTest {
+
+    private Config defaults;
+
+    private Config account;
+
+    private Config subclient;
+
+    @Before
+    public void setUp() throws IOException, InvalidConfigFileException {
+        defaults = createConfig();
+        account = new DefaultsConfig(createConfig(), defaults);
+        subclient = new DefaultsConfig(createConfig(), account);
+    }
+
+    /**
+     * Tests that asking for the same option again gives the same handle.
+     */
+    @Test
+    public void testHandlesAreShared() {
+        assertSame(account.boolKey("user", "test"), account.boolKey("user", "test"));
+        assertSame(account.intKey("user", "test"), account.intKey("user", "test"));
+        assertSame(account.listKey("user", "test"), account.listKey("user", "test"));
+    }
+
+    /**
+     * Tests the values of handles for options that aren't set.
+     */
+    @Test
+    public void testUnsetValues() {
+        assertFalse(subclient.boolKey("user", "missing").get());
+        assertNull(subclient.intKey("user", "missing").get());
+        assertTrue(subclient.listKey("user", "missing").get().isEmpty());
+    }
+
+    /**
+     * Tests that handles are updated when their option is set or unset.
+     */
+    @Test
+    public void testRefreshOnSetAndUnset() {
+        // Given handles for options with defaults
+        defaults.setOption("user", "flag", false);
+        defaults.setOption("user", "number", 1);
+        final ConfigKey<Boolean> flag = account.boolKey("user", "flag");
+        final ConfigKey<Integer> number = account.intKey("user", "number");
+        final ConfigKey<List<String>> list = account.listKey("user", "list");
+
+        // When the options are set
+        account.setOption("user", "flag", true);
+        account.setOption("user", "number", 2);
+        account.setOption("user", "list", Arrays.asList("one", "two"));
+
+        // Then the handles see the new values
+        assertTrue(flag.get());
+        assertEquals(2, (int) number.get());
+        assertEquals(Arrays.asList("one", "two"), list.get());
+
+        // And when they are unset, the handles go back to the defaults
+        account.unsetOption("user", "flag");
+        account.unsetOption("user", "number");
+        account.unsetOption("user", "list");
+        assertFalse(flag.get());
+        assertEquals(1, (int) number.get());
+        assertTrue(list.get().isEmpty());
+    }
+
+    /**
+     * Tests that a subclient's handles see changes made to the account and
+     * its defaults.
+     */
+    @Test
+    public void testSubclientSeesParentChanges() {
+        // Given handles on the subclient
+        final ConfigKey<Boolean> flag = subclient.boolKey("user", "flag");
+        final ConfigKey<List<String>> list = subclient.listKey("user", "list");
+
+        // When the account changes
+        account.setOption("user", "flag", true);
+        account.setOption("user", "list", Arrays.asList("one"));
+
+        // Then the subclient's handles are updated
+        assertTrue(flag.get());
+        assertEquals(Arrays.asList("one"), list.get());
+
+        // And changes to the defaults beneath the account are seen too
+        account.unsetOption("user", "list");
+        defaults.setOption("user", "list", Arrays.asList("two"));
+        assertEquals(Arrays.asList("two"), list.get());
+
+        // But the subclient's own values still win
+        subclient.setOption("user", "flag", false);
+        account.setOption("user", "flag", true);
+        assertFalse(flag.get());
+    }
+
+    /**
+     * Tests that handles on unrelated options aren't changed.
+     */
+    @Test
+    public void testOtherOptionsUnchanged() {
+        // Given a handle
+        account.setOption("user", "list", Arrays.asList("one"));
+        final ConfigKey<List<String>> list = subclient.listKey("user", "list");
+        final List<String> before = list.get();
+
+        // When a different option changes
+        account.setOption("user", "other", "value");
+
+        // Then the handle's value is the same list as before
+        assertSame(before, list.get());
+    }
+
+    /**
+     * Create an empty config that isn't saved anywhere.
+     *
+     * @return New config
+     */
+    private static Config createConfig() throws IOException, InvalidConfigFileException {
+        return new ConfigFileConfig(new ByteArrayInputStream(new byte[0]));
+    }
+}
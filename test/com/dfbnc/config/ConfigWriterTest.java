@@ -0,0 +1,188 @@
+package com.dfbnc.config;
+
+import com.dmdirc.util.io.InvalidConfigFileException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ConfigWriter} and {@link ConfigFileConfig} saving.
+ */
+public class ConfigWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    private File file;
+
+    private ConfigFileConfig config;
+
+    @Before
+    public void setUp() throws IOException, InvalidConfigFileException {
+        directory = new File(folder.getRoot(), "account");
+        directory.mkdirs();
+        file = new File(directory, "account.conf");
+        config = new ConfigFileConfig(file);
+    }
+
+    @After
+    public void tearDown() {
+        // Don't leave anything for the next test to write.
+        ConfigWriter.flush();
+    }
+
+    /**
+     * Tests that changes are written by a flush, and can be read back.
+     */
+    @Test
+    public void testFlushWritesChanges() throws IOException, InvalidConfigFileException {
+        // Given some changes
+        config.setOption("server", "test", "value");
+        config.setOption("server", "list", Arrays.asList("one", "two"));
+        config.setOption("user", "other", "value2");
+
+        // When the writer is flushed
+        ConfigWriter.flush();
+
+        // Then the changes are in the file, and no temporary file is left
+        final ConfigFileConfig reread = new ConfigFileConfig(file);
+        assertEquals("value", reread.getOption("server", "test"));
+        assertEquals(Arrays.asList("one", "two"), reread.getOptionList("server", "list"));
+        assertEquals("value2", reread.getOption("user", "other"));
+        assertEquals(1, directory.listFiles().length);
+        assertFalse(ConfigWriter.isPending(config));
+    }
+
+    /**
+     * Tests that several changes are coalesced into one pending write.
+     */
+    @Test
+    public void testChangesAreCoalesced() throws IOException, InvalidConfigFileException {
+        // When several changes are made
+        config.setOption("server", "test", "value1");
+        final long modified = file.lastModified();
+        config.setOption("server", "test", "value2");
+        config.unsetOption("server", "test");
+        config.setOption("server", "test", "value3");
+
+        // Then nothing has been written yet, but a write is pending
+        assertTrue(ConfigWriter.isPending(config));
+        assertEquals(modified, file.lastModified());
+        assertFalse(new ConfigFileConfig(file).hasOption("server", "test"));
+
+        // And one flush writes the final value
+        ConfigWriter.flush();
+        assertEquals("value3", new ConfigFileConfig(file).getOption("server", "test"));
+    }
+
+    /**
+     * Tests that changes are written in the background without a flush.
+     */
+    @Test
+    public void testBackgroundWrite() throws IOException, InvalidConfigFileException, InterruptedException {
+        // When a change is made
+        config.setOption("server", "test", "value");
+
+        // Then it is written within a few seconds
+        for (int i = 0; i < 100 && ConfigWriter.isPending(config); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(ConfigWriter.isPending(config));
+        assertEquals("value", new ConfigFileConfig(file).getOption("server", "test"));
+    }
+
+    /**
+     * Tests that a failed write is retried.
+     */
+    @Test
+    public void testFailedWriteIsRetried() throws IOException, InvalidConfigFileException {
+        // Given a change that can't be written, because something is in the
+        // way of the temporary file
+        final File blocker = new File(directory, file.getName() + ".tmp");
+        assertTrue(blocker.mkdir());
+        new File(blocker, "blocker").createNewFile();
+        config.setOption("server", "test", "value");
+
+        // When the writer is flushed
+        ConfigWriter.flush();
+
+        // Then the write is still pending
+        assertTrue(ConfigWriter.isPending(config));
+        assertFalse(new ConfigFileConfig(file).hasOption("server", "test"));
+
+        // And once the problem is fixed, the next attempt succeeds
+        new File(blocker, "blocker").delete();
+        blocker.delete();
+        ConfigWriter.flush();
+        assertFalse(ConfigWriter.isPending(config));
+        assertEquals("value", new ConfigFileConfig(file).getOption("server", "test"));
+    }
+
+    /**
+     * Tests that a config whose directory has been deleted isn't recreated.
+     */
+    @Test
+    public void testDeletedDirectoryIsSkipped() {
+        // Given a change to a config whose directory has since been deleted
+        config.setOption("server", "test", "value");
+        file.delete();
+        directory.delete();
+
+        // When the writer is flushed
+        ConfigWriter.flush();
+
+        // Then nothing is written
+        assertFalse(ConfigWriter.isPending(config));
+        assertFalse(directory.exists());
+    }
+
+    /**
+     * Tests that other files are written the same way, with repeated
+     * schedules coalesced into one write.
+     */
+    @Test
+    public void testOtherFilesAreCoalesced() {
+        // Given a file that is scheduled several times
+        final AtomicInteger writes = new AtomicInteger();
+        final File other = new File(directory, "account.markers");
+        ConfigWriter.schedule(other.toPath(), writes::incrementAndGet);
+        ConfigWriter.schedule(other.toPath(), writes::incrementAndGet);
+        ConfigWriter.schedule(new File(directory, "../account/account.markers").toPath(), writes::incrementAndGet);
+
+        // When the writer is flushed
+        ConfigWriter.flush();
+
+        // Then it is only written once
+        assertEquals(1, writes.get());
+    }
+
+    /**
+     * Tests that a cancelled write is not made.
+     */
+    @Test
+    public void testCancelledWriteIsSkipped() throws IOException, InvalidConfigFileException {
+        // Given a change to a config that is then cancelled
+        config.setOption("server", "test", "value");
+        ConfigWriter.cancel(file.toPath());
+
+        // When the writer is flushed
+        ConfigWriter.flush();
+
+        // Then nothing is written
+        assertFalse(ConfigWriter.isPending(config));
+        assertFalse(new ConfigFileConfig(file).hasOption("server", "test"));
+    }
+}
@@ -0,0 +1,220 @@
+package com.dfbnc.config;
+
+import com.dmdirc.util.io.InvalidConfigFileException;
+import com.dmdirc.util.validators.NumericalValidator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link DefaultsConfig}.
+ */
+public class DefaultsConfigTest {
+
+    private Config defaults;
+
+    private Config accountFile;
+
+    private Config account;
+
+    private Config subclient;
+
+    @Before
+    public void setUp() throws IOException, InvalidConfigFileException {
+        defaults = createConfig();
+        accountFile = createConfig();
+        account = new DefaultsConfig(accountFile, defaults);
+        subclient = new DefaultsConfig(createConfig(), account);
+    }
+
+    /**
+     * Tests that each layer overrides the ones beneath it.
+     */
+    @Test
+    public void testOverrideByLayer() {
+        // Given an option set at every layer
+        defaults.setOption("server", "test", "defaults");
+        account.setOption("server", "test", "account");
+        subclient.setOption("server", "test", "subclient");
+
+        // Then each config sees its own value
+        assertEquals("defaults", defaults.getOption("server", "test"));
+        assertEquals("account", account.getOption("server", "test"));
+        assertEquals("subclient", subclient.getOption("server", "test"));
+
+        // And removing an override reveals the value beneath it
+        subclient.unsetOption("server", "test");
+        assertEquals("account", subclient.getOption("server", "test"));
+        account.unsetOption("server", "test");
+        assertEquals("defaults", subclient.getOption("server", "test"));
+    }
+
+    /**
+     * Tests that a subclient sees changes made to the account and defaults
+     * after it was created.
+     */
+    @Test
+    public void testSubclientInheritsChanges() {
+        // When options are changed on the account and its defaults
+        account.setOption("server", "fromaccount", "value1");
+        defaults.setOption("server", "fromdefaults", "value2");
+        accountFile.setOption("server", "fromfile", "value3");
+
+        // Then the subclient sees them
+        assertEquals("value1", subclient.getOption("server", "fromaccount"));
+        assertEquals("value2", subclient.getOption("server", "fromdefaults"));
+        assertEquals("value3", subclient.getOption("server", "fromfile"));
+        assertTrue(subclient.hasOption("server", "fromdefaults"));
+
+        // And sees later changes too
+        account.setOption("server", "fromaccount", "value4");
+        assertEquals("value4", subclient.getOption("server", "fromaccount"));
+    }
+
+    /**
+     * Tests that a value from a lower layer is used if the override fails
+     * validation.
+     */
+    @Test
+    public void testValidationFallback() {
+        // Given an account override that isn't a number
+        defaults.setOption("server", "test", "5");
+        account.setOption("server", "test", "invalid");
+        final NumericalValidator validator = new NumericalValidator(0, 10);
+
+        // Then the default is used when asking for a number
+        assertEquals("5", account.getOption("server", "test", validator));
+        assertEquals("5", subclient.getOption("server", "test", validator));
+        assertTrue(subclient.hasOption("server", "test", validator));
+
+        // And the override is still used otherwise
+        assertEquals("invalid", subclient.getOption("server", "test"));
+    }
+
+    /**
+     * Tests that options with no valid value at any layer are reported as
+     * missing.
+     */
+    @Test
+    public void testNoValidValue() {
+        // Given an option that is invalid at every layer
+        defaults.setOption("server", "test", "100");
+        account.setOption("server", "test", "invalid");
+        final NumericalValidator validator = new NumericalValidator(0, 10);
+
+        // Then it isn't there
+        assertFalse(subclient.hasOption("server", "test", validator));
+        try {
+            subclient.getOption("server", "test", validator);
+            throw new AssertionError("Expected an exception");
+        } catch (final NullPointerException ex) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Tests that options that were never set are reported as missing.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testUnsetOptionThrows() {
+        // Given an option that isn't set anywhere
+        assertFalse(subclient.hasOption("server", "missing"));
+
+        // Then getting it throws
+        subclient.getOption("server", "missing");
+    }
+
+    /**
+     * Tests that an option that has been unset from every layer is reported
+     * as missing.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testRemovedOptionThrows() {
+        // Given an option that has been set and removed again
+        account.setOption("server", "test", "value");
+        account.unsetOption("server", "test");
+
+        // Then getting it throws
+        assertFalse(subclient.hasOption("server", "test"));
+        subclient.getOption("server", "test");
+    }
+
+    /**
+     * Tests that updating single options gives the same result as building
+     * a new config from the same layers.
+     */
+    @Test
+    public void testIncrementalUpdates() throws IOException, InvalidConfigFileException {
+        // Given random changes at every layer
+        final Config subclientFile = createConfig();
+        final Config other = new DefaultsConfig(subclientFile, account);
+        final Config[] layers = {defaults, accountFile, subclientFile};
+        final Random random = new Random(16);
+        for (int i = 0; i < 500; i++) {
+            final Config layer = layers[random.nextInt(layers.length)];
+            final String domain = "domain" + random.nextInt(2);
+            final String option = "option" + random.nextInt(4);
+            if (random.nextBoolean()) {
+                layer.setOption(domain, option, "value" + i);
+            } else {
+                layer.unsetOption(domain, option);
+            }
+
+            // Then the updated config matches one built from scratch
+            final Config fresh = new DefaultsConfig(subclientFile, new DefaultsConfig(accountFile, defaults));
+            for (int d = 0; d < 2; d++) {
+                for (int o = 0; o < 4; o++) {
+                    final String name = "domain" + d + ".option" + o;
+                    assertEquals(name, getOrNull(fresh, "domain" + d, "option" + o), getOrNull(other, "domain" + d, "option" + o));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that configs that are no longer used are not kept alive by the
+     * config they inherit from.
+     */
+    @Test
+    public void testDependentsHeldWeakly() throws IOException, InvalidConfigFileException, InterruptedException {
+        // Given subclient configs that are no longer referenced
+        final DefaultsConfig parent = (DefaultsConfig) account;
+        for (int i = 0; i < 10; i++) {
+            new DefaultsConfig(createConfig(), account);
+        }
+        assertEquals(11, parent.getDependentCount());
+
+        // When they are collected
+        for (int i = 0; i < 50 && parent.getDependentCount() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        // Then only the one still in use is left
+        assertEquals(1, parent.getDependentCount());
+
+        // And it still sees changes
+        account.setOption("server", "test", "value");
+        assertEquals("value", subclient.getOption("server", "test"));
+    }
+
+    private static String getOrNull(final Config config, final String domain, final String option) {
+        return config.hasOption(domain, option) ? config.getOption(domain, option) : null;
+    }
+
+    /**
+     * Create an empty config that isn't saved anywhere.
+     *
+     * @return New config
+     */
+    private static Config createConfig() throws IOException, InvalidConfigFileException {
+        return new ConfigFileConfig(new ByteArrayInputStream(new byte[0]));
+    }
+}
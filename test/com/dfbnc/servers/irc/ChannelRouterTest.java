@@ -0,0 +1,377 @@
+package com.dfbnc.servers.irc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ChannelRouter}.
+ * <p>
+ * Each test checks the routes against the per-line check that was used
+ * before the routes were precomputed: bursty sockets are allowed in every
+ * channel on their whitelist (or every channel without one), and other
+ * sockets are allowed in the channels they have activated.
+ */
+public class ChannelRouterTest {
+
+    private static final List<String> CHANNELS = Arrays.asList("#dfbnc", "#DMDirc", "#test", "#other");
+
+    private List<Socket> sockets;
+
+    private Map<Socket, Set<String>> activated;
+
+    private ChannelRouter<Socket> router;
+
+    @Before
+    public void setUp() {
+        sockets = new ArrayList<>();
+        activated = new HashMap<>();
+        router = new ChannelRouter<>(s -> s.open, s -> s.autoburst, s -> {
+            final Set<String> whitelist = new HashSet<>();
+            s.whitelist.forEach(channel -> whitelist.add(channel.toLowerCase()));
+            return whitelist;
+        }, String::toLowerCase);
+    }
+
+    /**
+     * Tests that a bursty socket without a whitelist gets every channel.
+     */
+    @Test
+    public void testBurstyWithoutWhitelist() {
+        // Given a bursty socket with no whitelist
+        final Socket socket = attach("bursty", true);
+
+        // Then it gets every channel, including ones that were never routed
+        assertRoutes();
+        assertTrue(router.isRouted(socket, "#never-seen"));
+    }
+
+    /**
+     * Tests that changes to a bursty socket's whitelist change its routes.
+     */
+    @Test
+    public void testWhitelistChanges() {
+        // Given a bursty socket and a socket with a whitelist
+        final Socket all = attach("all", true);
+        final Socket listed = attach("listed", true);
+        listed.whitelist = Arrays.asList("#DFBnc", "#test");
+        router.updateAll();
+        assertRoutes();
+        assertFalse(router.isRouted(listed, "#other"));
+
+        // When the whitelist changes
+        listed.whitelist = Collections.singletonList("#Other");
+        router.updateAll();
+
+        // Then the old channels are dropped and the new one is added
+        assertRoutes();
+        assertFalse(router.isRouted(listed, "#dfbnc"));
+        assertTrue(router.isRouted(listed, "#other"));
+        assertTrue(router.isRouted(all, "#dfbnc"));
+
+        // When the whitelist is cleared
+        listed.whitelist = Collections.emptyList();
+        router.updateAll();
+
+        // Then the socket gets every channel again
+        assertRoutes();
+        assertTrue(router.isRouted(listed, "#dfbnc"));
+    }
+
+    /**
+     * Tests that turning autoburst on and off switches between the
+     * whitelist and the activated channels.
+     */
+    @Test
+    public void testAutoburstChanges() {
+        // Given a non-bursty socket that has activated one channel
+        final Socket socket = attach("socket", false);
+        activate(socket, "#test");
+        assertRoutes();
+
+        // When it becomes bursty
+        socket.autoburst = true;
+        router.updateAll();
+
+        // Then it gets every channel
+        assertRoutes();
+        assertTrue(router.isRouted(socket, "#dfbnc"));
+
+        // When it stops being bursty
+        socket.autoburst = false;
+        router.updateAll();
+
+        // Then it only has the channel it activated
+        assertRoutes();
+        assertFalse(router.isRouted(socket, "#dfbnc"));
+        assertTrue(router.isRouted(socket, "#TEST"));
+    }
+
+    /**
+     * Tests that parting a channel removes it from the sockets that had
+     * activated it.
+     */
+    @Test
+    public void testChannelPart() {
+        // Given two non-bursty sockets and a bursty socket in a channel
+        final Socket first = attach("first", false);
+        final Socket second = attach("second", false);
+        final Socket bursty = attach("bursty", true);
+        activate(first, "#dfbnc");
+        activate(first, "#test");
+        activate(second, "#DFBNC");
+        assertRoutes();
+
+        // When one socket deactivates the channel
+        deactivate(first, "#DFbnc");
+
+        // Then only that socket loses it
+        assertRoutes();
+        assertFalse(router.isRouted(first, "#dfbnc"));
+        assertTrue(router.isRouted(second, "#dfbnc"));
+
+        // When the channel is parted for everyone
+        deactivate(null, "#dfbnc");
+
+        // Then only the bursty socket still gets it
+        assertRoutes();
+        assertEquals(Collections.singleton(bursty), router.getRoute("#dfbnc"));
+        assertTrue(router.isRouted(first, "#test"));
+    }
+
+    /**
+     * Tests that detaching a socket removes it from every route, and that
+     * a new socket doesn't inherit its channels.
+     */
+    @Test
+    public void testDetach() {
+        // Given a bursty socket and a socket that has activated a channel
+        final Socket bursty = attach("bursty", true);
+        final Socket socket = attach("socket", false);
+        activate(socket, "#test");
+        assertRoutes();
+
+        // When both detach
+        detach(bursty);
+        detach(socket);
+
+        // Then no routes are left
+        assertRoutes();
+        assertTrue(router.getRoute("#test").isEmpty());
+        assertFalse(router.isRouted(bursty, "#test"));
+        assertFalse(router.isRouted(socket, "#test"));
+
+        // When a new socket attaches
+        final Socket another = attach("another", false);
+
+        // Then it has no channels until it activates one
+        assertRoutes();
+        assertFalse(router.isRouted(another, "#test"));
+    }
+
+    /**
+     * Tests that sockets that have not been passed to update are routed
+     * the first time they are checked.
+     */
+    @Test
+    public void testLazyRouting() {
+        // Given a bursty socket that the router hasn't seen
+        final Socket socket = new Socket("late", true);
+        sockets.add(socket);
+        assertFalse(router.getRoute("#test").contains(socket));
+
+        // Then it is routed when checked
+        assertTrue(router.isRouted(socket, router.getRoute("#test")));
+        assertRoutes();
+    }
+
+    /**
+     * Tests random sequences of changes against the old check.
+     */
+    @Test
+    public void testRandomChanges() {
+        final Random random = new Random(23);
+        for (int i = 0; i < 5; i++) {
+            attach("socket" + i, random.nextBoolean());
+        }
+
+        for (int step = 0; step < 2000; step++) {
+            final Socket socket = sockets.get(random.nextInt(sockets.size()));
+            final String channel = randomCase(random, CHANNELS.get(random.nextInt(CHANNELS.size())));
+            switch (random.nextInt(7)) {
+                case 0:
+                    activate(socket, channel);
+                    break;
+                case 1:
+                    deactivate(socket, channel);
+                    break;
+                case 2:
+                    deactivate(null, channel);
+                    break;
+                case 3:
+                    socket.autoburst = !socket.autoburst;
+                    router.updateAll();
+                    break;
+                case 4:
+                    final List<String> whitelist = new ArrayList<>();
+                    CHANNELS.stream().filter(c -> random.nextBoolean()).forEach(c -> whitelist.add(randomCase(random, c)));
+                    socket.whitelist = whitelist;
+                    router.updateAll();
+                    break;
+                case 5:
+                    if (socket.open) {
+                        detach(socket);
+                    }
+                    break;
+                default:
+                    if (!socket.open) {
+                        sockets.remove(socket);
+                        attach(socket.name, random.nextBoolean());
+                    }
+                    break;
+            }
+            assertRoutes();
+        }
+    }
+
+    /**
+     * Tests that lookups made while routes are being updated never miss a
+     * socket in a channel that it stays in.
+     */
+    @Test
+    public void testConcurrentLookups() throws InterruptedException {
+        // Given a bursty socket and a non-bursty socket that both stay in #keep
+        final Socket bursty = attach("bursty", true);
+        final Socket socket = attach("socket", false);
+        activate(socket, "#keep");
+        final AtomicInteger misses = new AtomicInteger();
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        // When routes are read on another thread while they change
+        final Thread reader = new Thread(() -> {
+            while (running.get()) {
+                final Set<Socket> route = router.getRoute("#KEEP");
+                if (!route.contains(bursty) || !route.contains(socket)) {
+                    misses.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 20000; i++) {
+                final String channel = CHANNELS.get(i % CHANNELS.size());
+                activate(socket, channel);
+                bursty.whitelist = (i % 3 == 0) ? Collections.emptyList() : Arrays.asList("#keep", channel);
+                router.updateAll();
+                deactivate(null, channel);
+                router.update(socket);
+            }
+        } finally {
+            running.set(false);
+            reader.join();
+        }
+
+        // Then the reader always saw both sockets
+        assertEquals(0, misses.get());
+        assertRoutes();
+    }
+
+    private Socket attach(final String name, final boolean autoburst) {
+        final Socket socket = new Socket(name, autoburst);
+        sockets.add(socket);
+        router.update(socket);
+        return socket;
+    }
+
+    private void detach(final Socket socket) {
+        socket.open = false;
+        activated.remove(socket);
+        router.remove(socket);
+    }
+
+    private void activate(final Socket socket, final String channel) {
+        activated.computeIfAbsent(socket, s -> new LinkedHashSet<>()).add(channel);
+        router.activate(socket, channel);
+    }
+
+    private void deactivate(final Socket socket, final String channel) {
+        activated.entrySet().stream()
+                .filter(e -> socket == null || e.getKey() == socket)
+                .forEach(e -> e.getValue().removeIf(channel::equalsIgnoreCase));
+        router.deactivate(socket, channel);
+    }
+
+    /**
+     * Checks that a line for each channel reaches exactly the open sockets
+     * that the old check allows.
+     */
+    private void assertRoutes() {
+        for (String channel : CHANNELS) {
+            for (String name : Arrays.asList(channel, channel.toUpperCase(), channel.toLowerCase())) {
+                final Set<Socket> expected = new HashSet<>();
+                final Set<Socket> actual = new HashSet<>();
+                final Set<Socket> route = router.getRoute(name);
+                for (Socket socket : sockets) {
+                    if (socket.open && oldAllowed(socket, name)) {
+                        expected.add(socket);
+                    }
+                    if (router.isRouted(socket, route)) {
+                        actual.add(socket);
+                    }
+                }
+                assertEquals(name, expected, actual);
+            }
+        }
+    }
+
+    private boolean oldAllowed(final Socket socket, final String channel) {
+        if (socket.autoburst) {
+            if (socket.whitelist.isEmpty()) {
+                return true;
+            }
+            return socket.whitelist.stream().anyMatch(c -> c.toLowerCase().equals(channel.toLowerCase()));
+        }
+        return activated.containsKey(socket) && activated.get(socket).stream().anyMatch(channel::equalsIgnoreCase);
+    }
+
+    private static String randomCase(final Random random, final String channel) {
+        final StringBuilder builder = new StringBuilder();
+        for (char c : channel.toCharArray()) {
+            builder.append(random.nextBoolean() ? Character.toUpperCase(c) : Character.toLowerCase(c));
+        }
+        return builder.toString();
+    }
+
+    private static class Socket {
+        private final String name;
+        private boolean open = true;
+        private boolean autoburst;
+        private List<String> whitelist = Collections.emptyList();
+
+        Socket(final String name, final boolean autoburst) {
+            this.name = name;
+            this.autoburst = autoburst;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.dfbnc.servers.irc;
+
+import com.dfbnc.config.Config;
+import com.dfbnc.config.ConfigFileConfig;
+import com.dmdirc.util.io.InvalidConfigFileException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ChannelWhitelist}.
+ */
+public class ChannelWhitelistTest {
+
+    /**
+     * Tests that channel names are lower-cased with the given function.
+     */
+    @Test
+    public void testLowerCasesChannels() {
+        // Given a case mapping that also folds [ into {
+        final ChannelWhitelist whitelist = new ChannelWhitelist(Arrays.asList("#DFBnc", "#Foo[1]"),
+                name -> name.toLowerCase().replace('[', '{').replace(']', '}'));
+
+        // Then the channels are stored using that mapping
+        assertEquals(new HashSet<>(Arrays.asList("#dfbnc", "#foo{1}")), whitelist.getChannels());
+    }
+
+    /**
+     * Tests that a cached whitelist is reused until the config list it was
+     * built from is changed.
+     */
+    @Test
+    public void testCachedUntilConfigChanges() throws IOException, InvalidConfigFileException {
+        // Given a whitelist built from a config
+        final Config config = new ConfigFileConfig(new ByteArrayInputStream(new byte[0]));
+        config.setOption("irc", "channelwhitelist", Arrays.asList("#one", "#two"));
+        final ChannelWhitelist whitelist = new ChannelWhitelist(config.listKey("irc", "channelwhitelist").get(), String::toLowerCase);
+
+        // Then it can be reused while the config is unchanged
+        assertTrue(whitelist.isBuiltFrom(config.listKey("irc", "channelwhitelist").get()));
+
+        // But not once the config changes, even to an equal list
+        config.setOption("irc", "channelwhitelist", Arrays.asList("#one", "#two"));
+        final List<String> changed = config.listKey("irc", "channelwhitelist").get();
+        assertFalse(whitelist.isBuiltFrom(changed));
+        assertEquals(whitelist.getChannels(), new ChannelWhitelist(changed, String::toLowerCase).getChannels());
+    }
+}
@@ -0,0 +1,177 @@
+package com.dfbnc.servers.irc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link HighlightMatcher}.
+ * <p>
+ * Each test checks the matcher against the per-rule check that was used
+ * before the rules were compiled: each rule is lower-cased, wrapped in
+ * {@code .*} and matched against the lower-cased line, and invalid rules
+ * are ignored.
+ */
+public class HighlightMatcherTest {
+
+    private static final List<String> LINES = Arrays.asList(
+            "", "Hello there", "hey NICK, are you around?", "dfbnc is great",
+            "a.b", "axb", "[nick]", "nick", "nicknick", "foo(bar)", "1+1=2",
+            "cost is $5", "^caret", "a|b", "tab\there", "back\\slash",
+            "dfbnc\u2028next line", "ends with nick\r", "ÄÖÜ umlauts", "ärger");
+
+    /**
+     * Tests plain text rules.
+     */
+    @Test
+    public void testLiteralRules() {
+        assertSameAsOld(Arrays.asList("nick", "dfbnc"));
+        assertSameAsOld(Arrays.asList("NICK", "Hello", "there "));
+        assertSameAsOld(Collections.singletonList("hey nick, are"));
+        assertSameAsOld(Collections.singletonList("1=2"));
+        assertSameAsOld(Collections.singletonList("äRGER"));
+    }
+
+    /**
+     * Tests rules that use regular expressions.
+     */
+    @Test
+    public void testRegexRules() {
+        assertSameAsOld(Collections.singletonList("a.b"));
+        assertSameAsOld(Collections.singletonList("\\[nick\\]"));
+        assertSameAsOld(Collections.singletonList("\\bnick\\b"));
+        assertSameAsOld(Collections.singletonList("^nick$"));
+        assertSameAsOld(Collections.singletonList("(nick){2}"));
+        assertSameAsOld(Collections.singletonList("foo\\(bar\\)"));
+        assertSameAsOld(Collections.singletonList("1\\+1"));
+        assertSameAsOld(Collections.singletonList("\\$\\d"));
+        assertSameAsOld(Collections.singletonList("a\\|b"));
+        assertSameAsOld(Collections.singletonList("nick|dfbnc"));
+        assertSameAsOld(Collections.singletonList("[A-Z]+ing"));
+        assertSameAsOld(Collections.singletonList("\\Qa.b\\E"));
+        assertSameAsOld(Collections.singletonList("(?-i)NICK"));
+    }
+
+    /**
+     * Tests rules with back references, which can't be combined.
+     */
+    @Test
+    public void testBackReferences() {
+        assertSameAsOld(Collections.singletonList("(nick)\\1"));
+        assertSameAsOld(Arrays.asList("(a)x(b)", "(nick)\\1", "(?<n>dfbnc)\\k<n>"));
+        assertSameAsOld(Arrays.asList("(he)(y)", "(nick)\\1"));
+    }
+
+    /**
+     * Tests that an empty rule matches every line, as it did before.
+     */
+    @Test
+    public void testEmptyRule() {
+        assertSameAsOld(Collections.singletonList(""));
+        assertSameAsOld(Arrays.asList("", "nick"));
+        assertSameAsOld(Arrays.asList("(a)\\1", "", "[oops"));
+        assertTrue(new HighlightMatcher(Collections.singletonList("")).matches("anything at all"));
+    }
+
+    /**
+     * Tests rules with quoting, which can't be combined.
+     */
+    @Test
+    public void testQuotedRules() {
+        assertSameAsOld(Arrays.asList("\\Qa.b", "nick"));
+        assertSameAsOld(Arrays.asList("\\Q(\\E", "a.b", "x|y"));
+        assertSameAsOld(Arrays.asList("nick|\\Q", "dfbnc"));
+    }
+
+    /**
+     * Tests that invalid rules are ignored without affecting other rules.
+     */
+    @Test
+    public void testInvalidRules() {
+        assertSameAsOld(Collections.singletonList("[nick"));
+        assertSameAsOld(Arrays.asList("(nick", "dfbnc", "a.b"));
+        assertSameAsOld(Arrays.asList("*", "nick|", "\\Qnick", "hello"));
+        assertSameAsOld(Arrays.asList("(?<n>a)", "(?<n>b)", "\\b"));
+
+        // And a list of only invalid rules never matches
+        final List<String> invalid = Arrays.asList("[", "(", "*", "a{");
+        final HighlightMatcher matcher = new HighlightMatcher(invalid);
+        for (String line : LINES) {
+            assertFalse(line, oldMatches(invalid, line));
+            assertFalse(line, matcher.matches(line));
+        }
+    }
+
+    /**
+     * Tests a mix of plain text, regex, back reference and invalid rules.
+     */
+    @Test
+    public void testMixedRules() {
+        assertSameAsOld(Arrays.asList("NICK", "^caret", "(a)\\1", "[oops", "d.bnc", "tab"));
+
+        // And each kind of rule can cause a match on its own
+        final HighlightMatcher matcher = new HighlightMatcher(Arrays.asList("Umlauts", "^\\[", "(l)\\1", "[oops"));
+        assertTrue(matcher.matches("ÄÖÜ UMLAUTS"));
+        assertTrue(matcher.matches("[nick]"));
+        assertTrue(matcher.matches("hello"));
+        assertFalse(matcher.matches("helo [oops"));
+    }
+
+    /**
+     * Tests random rule lists built from plain text, metacharacters and
+     * broken syntax.
+     */
+    @Test
+    public void testRandomRules() {
+        final List<String> parts = Arrays.asList("nick", "NiCk", "a", "b", "x", " ", ".", "*", "+", "?",
+                "[", "]", "(", ")", "|", "^", "$", "\\b", "\\.", "\\1", "{2}", "\\", "é", "É");
+        final Random random = new Random(24);
+        for (int i = 0; i < 500; i++) {
+            final List<String> rules = new ArrayList<>();
+            final int count = 1 + random.nextInt(4);
+            for (int j = 0; j < count; j++) {
+                final StringBuilder rule = new StringBuilder();
+                final int length = 1 + random.nextInt(4);
+                for (int k = 0; k < length; k++) {
+                    rule.append(parts.get(random.nextInt(parts.size())));
+                }
+                rules.add(rule.toString());
+            }
+
+            final List<String> lines = new ArrayList<>(LINES);
+            lines.addAll(rules);
+            lines.add("nick (nick) [a]b nicknick éx");
+            assertSameAsOld(rules, lines);
+        }
+    }
+
+    private static void assertSameAsOld(final List<String> rules) {
+        assertSameAsOld(rules, LINES);
+    }
+
+    private static void assertSameAsOld(final List<String> rules, final List<String> lines) {
+        final HighlightMatcher matcher = new HighlightMatcher(rules);
+        for (String line : lines) {
+            assertEquals(rules + " on " + line, oldMatches(rules, line), matcher.matches(line));
+        }
+    }
+
+    private static boolean oldMatches(final List<String> rules, final String line) {
+        for (final String h : rules) {
+            try {
+                if (line.toLowerCase().matches(".*" + h.toLowerCase() + ".*")) {
+                    return true;
+                }
+            } catch (final Exception e) { }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package com.dfbnc.servers.irc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LineFanOut}.
+ */
+public class LineFanOutTest {
+
+    private static final List<String> SOCKETS = Arrays.asList("synced", "unsynced", "highlighted", "also highlighted");
+
+    /**
+     * Tests that the line is sent, in order, to every socket that can be
+     * sent it, and no others.
+     */
+    @Test
+    public void testSendsToAllowedSockets() {
+        final List<String> sent = new ArrayList<>();
+        final List<String> checked = new ArrayList<>();
+
+        LineFanOut.forward(SOCKETS, socket -> !socket.equals("unsynced"), sent::add,
+                socket -> { checked.add(socket); return false; }, () -> "notice", (socket, notice) -> { });
+
+        assertEquals(Arrays.asList("synced", "highlighted", "also highlighted"), sent);
+        // Sockets that aren't sent the line aren't checked for highlights.
+        assertEquals(sent, checked);
+    }
+
+    /**
+     * Tests that the highlight notice is built once per line and shared by
+     * every socket that it highlights.
+     */
+    @Test
+    public void testHighlightBuiltOnce() {
+        // Given a line that highlights two sockets
+        final AtomicInteger built = new AtomicInteger();
+        final List<String> notified = new ArrayList<>();
+
+        // When it is forwarded
+        LineFanOut.forward(SOCKETS, socket -> true, socket -> { },
+                socket -> socket.contains("highlighted"), () -> "notice " + built.incrementAndGet(),
+                (socket, notice) -> notified.add(socket + ": " + notice));
+
+        // Then the notice was built once, and sent to both
+        assertEquals(1, built.get());
+        assertEquals(Arrays.asList("highlighted: notice 1", "also highlighted: notice 1"), notified);
+    }
+
+    /**
+     * Tests that no highlight work is done for lines that can't highlight,
+     * or that don't highlight anyone.
+     */
+    @Test
+    public void testNoHighlight() {
+        final AtomicInteger built = new AtomicInteger();
+        final List<String> sent = new ArrayList<>();
+
+        LineFanOut.forward(SOCKETS, socket -> true, sent::add, null, () -> "notice " + built.incrementAndGet(),
+                (socket, notice) -> { throw new AssertionError(); });
+        LineFanOut.forward(SOCKETS, socket -> true, sent::add, socket -> false, () -> "notice " + built.incrementAndGet(),
+                (socket, notice) -> { throw new AssertionError(); });
+
+        assertEquals(0, built.get());
+        assertEquals(SOCKETS.size() * 2, sent.size());
+        assertTrue(sent.containsAll(SOCKETS));
+    }
+}
@@ -0,0 +1,201 @@
+package com.dfbnc.servers.irc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PacedBurst}.
+ */
+public class PacedBurstTest {
+
+    private ManualExecutor executor;
+
+    private List<String> sent;
+
+    private AtomicReference<Boolean> finished;
+
+    private boolean active;
+
+    @Before
+    public void setUp() {
+        executor = new ManualExecutor();
+        sent = new ArrayList<>();
+        finished = new AtomicReference<>();
+        active = true;
+    }
+
+    /**
+     * Tests that items with the latest activity are sent first.
+     */
+    @Test
+    public void testOrdering() {
+        // Given items with different activity times
+        final List<String> items = Arrays.asList("3:old", "9:newest", "5:middle", "0:idle");
+        final PacedBurst<String> burst = newBurst(1000, 40, items);
+
+        // When the burst is run
+        burst.start(1500);
+        executor.runAll();
+
+        // Then the items are sent newest first
+        assertEquals(Arrays.asList("9:newest", "5:middle", "3:old", "0:idle"), sent);
+        assertEquals(Boolean.TRUE, finished.get());
+    }
+
+    /**
+     * Tests that each slice stops once it has produced enough output, and
+     * that the next slice waits for the pause.
+     */
+    @Test
+    public void testPacing() {
+        // Given seven items that each produce 40 characters, and slices of 100
+        final List<String> items = Arrays.asList("7:a", "6:b", "5:c", "4:d", "3:e", "2:f", "1:g");
+        final PacedBurst<String> burst = newBurst(100, 40, items);
+
+        // When the burst is started
+        burst.start(1500);
+
+        // Then nothing is sent until the first slice runs
+        assertEquals(Collections.singletonList(1500L), executor.delays);
+        assertTrue(sent.isEmpty());
+
+        // And each slice sends three items before pausing
+        executor.runNext();
+        assertEquals(Arrays.asList("7:a", "6:b", "5:c"), sent);
+        assertNull(finished.get());
+        executor.runNext();
+        assertEquals(6, sent.size());
+        executor.runNext();
+        assertEquals(7, sent.size());
+        assertEquals(Arrays.asList(1500L, 10L, 10L), executor.delays);
+        assertEquals(Boolean.TRUE, finished.get());
+    }
+
+    /**
+     * Tests that the burst is abandoned if it stops being active.
+     */
+    @Test
+    public void testAbandoned() {
+        // Given a burst that has sent one slice
+        final PacedBurst<String> burst = newBurst(40, 40, Arrays.asList("2:a", "1:b"));
+        burst.start(0);
+        executor.runNext();
+
+        // When the client goes away
+        active = false;
+        executor.runAll();
+
+        // Then nothing else is sent
+        assertEquals(Collections.singletonList("2:a"), sent);
+        assertEquals(Boolean.FALSE, finished.get());
+    }
+
+    /**
+     * Tests that the burst is abandoned if the executor has been shut down.
+     */
+    @Test
+    public void testShutdown() {
+        // Given an executor that has been shut down
+        executor.shutdown();
+
+        // When a burst is started
+        newBurst(40, 40, Arrays.asList("2:a", "1:b")).start(0);
+
+        // Then nothing is sent
+        assertTrue(sent.isEmpty());
+        assertEquals(Boolean.FALSE, finished.get());
+    }
+
+    /**
+     * Tests that a burst that blocks on a slow client doesn't hold up a
+     * burst on another executor.
+     */
+    @Test
+    public void testSlowClientDoesNotBlockOthers() throws InterruptedException {
+        final ScheduledThreadPoolExecutor slowExecutor = new ScheduledThreadPoolExecutor(1);
+        final ScheduledThreadPoolExecutor fastExecutor = new ScheduledThreadPoolExecutor(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        try {
+            // Given a burst whose sends block
+            new PacedBurst<>(slowExecutor, 100, 10, Collections.singletonList("slow"), s -> 0, () -> true, s -> {
+                try {
+                    release.await();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return 1;
+            }, done -> { }).start(0);
+
+            // When another handler's burst runs on its own executor
+            new PacedBurst<>(fastExecutor, 100, 10, Arrays.asList("a", "b"), s -> 0, () -> true, s -> 1,
+                    done -> fastDone.countDown()).start(0);
+
+            // Then it finishes while the slow one is still blocked
+            assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            slowExecutor.shutdownNow();
+            fastExecutor.shutdownNow();
+        }
+    }
+
+    private PacedBurst<String> newBurst(final long sliceSize, final long itemSize, final List<String> items) {
+        return new PacedBurst<>(executor, sliceSize, 10, items,
+                item -> Long.parseLong(item.substring(0, item.indexOf(':'))),
+                () -> active,
+                item -> {
+                    sent.add(item);
+                    return itemSize;
+                },
+                finished::set);
+    }
+
+    /**
+     * Executor that records scheduled tasks and runs them when asked.
+     */
+    private static class ManualExecutor extends ScheduledThreadPoolExecutor {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        private final List<Long> delays = new ArrayList<>();
+
+        ManualExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+            if (isShutdown()) {
+                return super.schedule(command, delay, unit);
+            }
+            tasks.add(command);
+            delays.add(unit.toMillis(delay));
+            return null;
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.dfbnc.servers.logging;
+
+import com.dfbnc.config.ConfigFileConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for the log file paths given by {@link LogFileLocator}.
+ */
+public class LogFileLocatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogFileLocator locator;
+
+    private File logs;
+
+    @Before
+    public void setUp() throws Exception {
+        final ConfigFileConfig config = new ConfigFileConfig(new ByteArrayInputStream(new byte[0]));
+        locator = new LogFileLocator(folder.getRoot(), () -> config);
+        logs = locator.getLogDirectory();
+    }
+
+    /**
+     * Tests that repeated lookups reuse the cached path.
+     */
+    @Test
+    public void testPathCached() {
+        // Given the path for a channel
+        final String path = locator.getLogFile("#dfbnc");
+
+        // Then it is in the log directory, and reused next time
+        assertEquals(new File(logs, "#dfbnc.log").getPath(), path);
+        assertSame(path, locator.getLogFile("#dfbnc"));
+    }
+
+    /**
+     * Tests that names differing only in case share a file.
+     */
+    @Test
+    public void testCaseInsensitive() {
+        assertEquals(locator.getLogFile("#dfbnc"), locator.getLogFile("#DFBnc"));
+    }
+
+    /**
+     * Tests that characters that are not safe in file names are replaced.
+     */
+    @Test
+    public void testSanitised() {
+        assertEquals(new File(logs, "a_b_c.log").getPath(), locator.getLogFile("a/b\\c"));
+    }
+
+    /**
+     * Tests that a missing descriptor gets its own file.
+     */
+    @Test
+    public void testNullDescriptor() {
+        assertEquals(new File(logs, "null.log").getPath(), locator.getLogFile((String) null));
+    }
+
+    /**
+     * Tests that paths stay correct once the cache has been cleared for
+     * growing too large.
+     */
+    @Test
+    public void testPathsCorrectAfterCacheCleared() {
+        // Given more targets than the cache holds
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(new File(logs, "user" + i + ".log").getPath(), locator.getLogFile("User" + i));
+        }
+
+        // Then earlier targets still get the right path
+        assertEquals(new File(logs, "user0.log").getPath(), locator.getLogFile("User0"));
+        assertEquals(new File(logs, "#dfbnc.log").getPath(), locator.getLogFile("#DFBnc"));
+    }
+}
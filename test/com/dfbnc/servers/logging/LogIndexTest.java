@@ -0,0 +1,203 @@
+package com.dfbnc.servers.logging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogIndex}.
+ */
+public class LogIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    private String log1;
+
+    private String log2;
+
+    private LogIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new File(folder.getRoot(), "logindex");
+        log1 = new File(folder.getRoot(), "log1.log").getPath();
+        log2 = new File(folder.getRoot(), "log2.log").getPath();
+        index = LogIndex.open(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    /**
+     * Tests that lines can be found before and after they are flushed.
+     */
+    @Test
+    public void testAddFlushSearch() throws IOException {
+        // Given lines in two log files
+        append(log1, "hello world");
+        append(log1, "goodbye world");
+        append(log2, "Hello again");
+
+        // Then they can be found while still in memory, newest first
+        assertLines(index.search("hello", 10), "Hello again", "hello world");
+        assertLines(index.search("world GOODBYE", 10), "goodbye world");
+
+        // And the same lines are found once flushed
+        index.flush();
+        assertTrue(new File(directory, "files").exists());
+        assertLines(index.search("hello", 10), "Hello again", "hello world");
+        assertLines(index.search("world", 1), "goodbye world");
+        assertLines(index.search("missing", 10));
+    }
+
+    /**
+     * Tests that the list of files is only written when the index is
+     * flushed.
+     */
+    @Test
+    public void testFilesOnlySavedOnFlush() throws IOException {
+        // When lines are added for new files
+        append(log1, "hello world");
+        append(log2, "hello again");
+
+        // Then the list of files isn't written until the index is flushed
+        assertFalse(new File(directory, "files").exists());
+        index.flush();
+        assertTrue(new File(directory, "files").exists());
+    }
+
+    /**
+     * Tests that segments are merged, and lines can still be found.
+     */
+    @Test
+    public void testMerge() throws IOException {
+        // When lines are flushed to many segments
+        for (int i = 0; i < 40; i++) {
+            append(log1, "line number" + i + " common");
+            index.flush();
+        }
+
+        // Then only a few segments are kept
+        final File[] segments = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        assertTrue(segments.length <= 6);
+        assertEquals(0, directory.listFiles((dir, name) -> name.endsWith(".tmp")).length);
+
+        // And every line can still be found
+        assertEquals(40, index.search("common", 100).size());
+        assertLines(index.search("number7", 10), "line number7 common");
+    }
+
+    /**
+     * Tests that lines from a rotated file are no longer found, and that the
+     * new file with the same name gets a new ID.
+     */
+    @Test
+    public void testRotatedFile() throws IOException {
+        // Given a file that has been indexed and flushed
+        append(log1, "old content here");
+        append(log1, "more old content");
+        index.flush();
+
+        // When it is rotated and written to again
+        new File(log1).delete();
+        index.fileRotated(log1);
+        append(log1, "new content");
+        index.flush();
+
+        // Then only lines from the new file are found
+        assertLines(index.search("content", 10), "new content");
+        assertLines(index.search("old", 10));
+
+        // And that is still the case after the segments are merged
+        for (int i = 0; i < 4; i++) {
+            append(log2, "filler" + i);
+            index.flush();
+        }
+        assertLines(index.search("content", 10), "new content");
+    }
+
+    /**
+     * Tests that an existing index can be opened again.
+     */
+    @Test
+    public void testReopen() throws IOException {
+        // Given an index that has been closed, with lines still in memory
+        append(log1, "hello world");
+        index.flush();
+        append(log1, "hello there");
+        index.close();
+
+        // When it is opened again and more lines are added
+        index = LogIndex.open(directory);
+        append(log2, "hello from another file");
+
+        // Then all of the lines are found, in the right files
+        final List<LogIndex.Match> matches = index.search("hello", 10);
+        assertLines(matches, "hello from another file", "hello there", "hello world");
+        assertEquals(log2, matches.get(0).getFilename());
+        assertEquals(log1, matches.get(1).getFilename());
+    }
+
+    /**
+     * Tests that opening a directory that is already open shares the index.
+     */
+    @Test
+    public void testSharedWhileOpen() throws IOException {
+        // When the directory is opened again while still open
+        final LogIndex second = LogIndex.open(new File(folder.getRoot(), "./logindex"));
+
+        // Then the same index is used
+        assertSame(index, second);
+
+        // And it stays open until both have closed it
+        second.close();
+        assertSame(index, LogIndex.open(directory));
+        index.close();
+    }
+
+    /**
+     * Append a line to a log file and add it to the index.
+     *
+     * @param filename File to append to
+     * @param line Line to append
+     */
+    private void append(final String filename, final String line) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            final long offset = file.length();
+            file.seek(offset);
+            file.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            index.add(filename, offset, line);
+        }
+    }
+
+    /**
+     * Check that the given matches are for the given lines, in order.
+     *
+     * @param matches Matches to check
+     * @param lines Expected lines
+     */
+    private static void assertLines(final List<LogIndex.Match> matches, final String... lines) {
+        assertEquals(lines.length, matches.size());
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], matches.get(i).getLine());
+        }
+    }
+}
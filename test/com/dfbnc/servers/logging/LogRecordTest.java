@@ -0,0 +1,43 @@
+package com.dfbnc.servers.logging;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link LogRecord}.
+ */
+public class LogRecordTest {
+
+    /**
+     * Tests that records can be read back in the order they were written.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        // Given two encoded records
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new LogRecord(1234L, LogRecord.Type.MESSAGE, "#dfbnc", "nick!user@host", "hello ☃").toBytes());
+        out.write(new LogRecord(5678L, LogRecord.Type.KICK, "#dfbnc", null, "victim reason").toBytes());
+
+        // When they are read back
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        final LogRecord first = LogRecord.read(in);
+        final LogRecord second = LogRecord.read(in);
+
+        // Then they are unchanged, and the stream then ends
+        assertEquals(1234L, first.getTime());
+        assertEquals(LogRecord.Type.MESSAGE, first.getType());
+        assertEquals("#dfbnc", first.getTarget());
+        assertEquals("nick!user@host", first.getSource());
+        assertEquals("hello ☃", first.getPayload());
+        assertEquals(LogRecord.Type.KICK, second.getType());
+        assertEquals("", second.getSource());
+        assertNull(LogRecord.read(in));
+    }
+}
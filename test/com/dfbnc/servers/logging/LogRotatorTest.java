@@ -0,0 +1,141 @@
+package com.dfbnc.servers.logging;
+
+import com.dfbnc.config.Config;
+import com.dfbnc.config.ConfigFileConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogRotator}.
+ */
+public class LogRotatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Config config;
+
+    private LogFileLocator locator;
+
+    private File logs;
+
+    private long start;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new ConfigFileConfig(new ByteArrayInputStream(new byte[0]));
+        config.setOption("server", "logsegments", 0);
+        locator = new LogFileLocator(folder.getRoot(), () -> config);
+        logs = locator.getLogDirectory();
+        start = locator.getSegmentTime(new File(logs, "test.20200101-120000.log").getPath());
+    }
+
+    /**
+     * Tests that a segment left uncompressed is compressed and listed.
+     */
+    @Test
+    public void testUncompressedSegment() throws IOException {
+        // Given a segment that was rotated but not compressed, and a
+        // partial compression of it
+        final File segment = new File(logs, "test.20200101-120000.log");
+        Files.write(segment.toPath(), "line one\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(logs, segment.getName() + ".gz.tmp").toPath(), new byte[]{1, 2});
+
+        // When segments are recovered
+        new LogRotator(locator).recoverSegments();
+
+        // Then it is compressed and added to the manifest
+        final File compressed = new File(logs, segment.getName() + ".gz");
+        assertFalse(segment.exists());
+        assertFalse(new File(logs, segment.getName() + ".gz.tmp").exists());
+        assertEquals("line one\n", readCompressed(compressed));
+        final List<String> manifest = readManifest();
+        assertEquals(1, manifest.size());
+        assertTrue(manifest.get(0).startsWith(start + " "));
+        assertTrue(manifest.get(0).endsWith(" " + compressed.length() + " " + compressed.getName()));
+    }
+
+    /**
+     * Tests that compressed segments missing from the manifest are added in
+     * order, without repeating those already listed.
+     */
+    @Test
+    public void testUnlistedSegments() throws IOException {
+        // Given one listed segment, and an older and a newer one that aren't
+        final File listed = writeCompressed("test.20200102-120000.log.gz");
+        Files.write(new File(logs, "test.manifest").toPath(),
+                (start + 86400000L + " " + (start + 90000000L) + " " + listed.length() + " " + listed.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+        writeCompressed("test.20200101-120000.log.gz");
+        writeCompressed("test.20200103-120000-1.log.gz");
+        // And one that was compressed but not removed
+        Files.write(new File(logs, "test.20200103-120000-1.log").toPath(), new byte[]{1});
+
+        // When segments are recovered, twice
+        new LogRotator(locator).recoverSegments();
+        new LogRotator(locator).recoverSegments();
+
+        // Then each segment is listed once, oldest first
+        final List<String> manifest = readManifest();
+        assertEquals(3, manifest.size());
+        assertTrue(manifest.get(0).endsWith(" test.20200101-120000.log.gz"));
+        assertTrue(manifest.get(1).endsWith(" test.20200102-120000.log.gz"));
+        assertTrue(manifest.get(2).endsWith(" test.20200103-120000-1.log.gz"));
+        assertFalse(new File(logs, "test.20200103-120000-1.log").exists());
+    }
+
+    /**
+     * Tests that live log files are left alone.
+     */
+    @Test
+    public void testLogFilesIgnored() throws IOException {
+        final File log = new File(logs, "#channel.log");
+        Files.write(log.toPath(), "line\n".getBytes(StandardCharsets.UTF_8));
+
+        new LogRotator(locator).recoverSegments();
+
+        assertTrue(log.exists());
+        assertEquals(1, logs.listFiles().length);
+    }
+
+    private File writeCompressed(final String name) throws IOException {
+        final File file = new File(logs, name);
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(name.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private String readCompressed(final File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            final byte[] buffer = new byte[1024];
+            int length = 0;
+            for (int read; (read = in.read(buffer, length, buffer.length - length)) > 0;) {
+                length += read;
+            }
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private List<String> readManifest() throws IOException {
+        return Files.readAllLines(new File(logs, "test.manifest").toPath(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,261 @@
+package com.dfbnc.servers.logging;
+
+import com.dfbnc.config.Config;
+import com.dfbnc.config.ConfigFileConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogWriter}.
+ */
+public class LogWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Config config;
+
+    private Config globalConfig;
+
+    private LogFileLocator locator;
+
+    private LogWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new ConfigFileConfig(new ByteArrayInputStream(new byte[0]));
+        config.setOption("server", "logdurability", "flush");
+        config.setOption("server", "logmaxopenfiles", 10);
+        config.setOption("server", "logidletime", 60);
+        config.setOption("server", "logindex", false);
+        config.setOption("server", "logrotate", "none");
+        globalConfig = new ConfigFileConfig(new ByteArrayInputStream(new byte[0]));
+        globalConfig.setOption("general", "logmaxopenfiles", 100);
+        locator = new LogFileLocator(folder.getRoot(), () -> config);
+        writer = new LogWriter("Test Log Writer", config, () -> globalConfig, locator);
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdown();
+        LogWriter.awaitShutdown(5000);
+    }
+
+    /**
+     * Tests that shutting down doesn't wait for queued lines to be written,
+     * and that they are all written once the writer has finished.
+     */
+    @Test
+    public void testShutdownDoesNotBlock() throws IOException {
+        // Given a writer with lines queued
+        final String file = locator.getLogFile("#channel");
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            if (writer.write(file, "", "line " + i)) {
+                expected.add("line " + i);
+            }
+        }
+
+        // When it is shut down
+        writer.shutdown();
+
+        // Then it stops accepting lines straight away
+        assertFalse(writer.write(file, "", "too late"));
+
+        // And once it has finished, everything queued before was written
+        LogWriter.awaitShutdown(5000);
+        assertFalse(writer.isAlive());
+        assertEquals(expected, read(file));
+    }
+
+    /**
+     * Tests that the writer thread doesn't stop the JVM from exiting.
+     */
+    @Test
+    public void testDaemonThread() {
+        // Given a running writer
+        final List<Thread> threads = new ArrayList<>();
+        Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("Test Log Writer"))
+                .forEach(threads::add);
+
+        // Then its thread is a daemon
+        assertFalse(threads.isEmpty());
+        threads.forEach(t -> assertTrue(t.isDaemon()));
+    }
+
+    /**
+     * Tests that closing a file while the queue is full isn't lost.
+     */
+    @Test
+    public void testShutdownWhenQueueFull() throws IOException {
+        // Given a writer whose queue has overflowed
+        final String file = locator.getLogFile("busy");
+        int dropped = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (!writer.write(file, "", "x")) {
+                dropped++;
+            }
+        }
+
+        // When it is shut down
+        writer.shutdown();
+        LogWriter.awaitShutdown(5000);
+
+        // Then the shutdown was still handled and the drops were counted
+        assertFalse(writer.isAlive());
+        assertEquals(dropped, writer.getDroppedLines());
+        assertEquals(20000 - dropped, read(file).size());
+    }
+
+    /**
+     * Tests that lines for several files are written in batches, each file
+     * keeping its lines in order, and reach the disk without waiting for the
+     * writer to stop.
+     */
+    @Test
+    public void testBatchedWrites() throws IOException, InterruptedException {
+        // Given lines for several files queued together, more than fit in
+        // one batch
+        final List<String> files = Arrays.asList(locator.getLogFile("#one"), locator.getLogFile("#two"), locator.getLogFile("user"));
+        final List<List<String>> expected = new ArrayList<>();
+        files.forEach(file -> expected.add(new ArrayList<>()));
+        for (int i = 0; i < 1500; i++) {
+            final int target = i % files.size();
+            if (writer.write(files.get(target), "[prefix] ", "line " + i)) {
+                expected.get(target).add("[prefix] line " + i);
+            }
+        }
+
+        // Then with flush durability, every line is on disk shortly after,
+        // in the order it was queued
+        for (int i = 0; i < files.size(); i++) {
+            for (int tries = 0; tries < 50 && read(files.get(i)).size() < expected.get(i).size(); tries++) {
+                Thread.sleep(100);
+            }
+            assertEquals(expected.get(i), read(files.get(i)));
+        }
+        assertTrue(writer.isAlive());
+    }
+
+    /**
+     * Tests that a close request is handled in order with the lines around
+     * it.
+     */
+    @Test
+    public void testCloseIsOrdered() throws IOException {
+        // Given a file that is closed and then written to again
+        final String file = locator.getLogFile("#channel");
+        writer.write(file, "", "before");
+        writer.close(file);
+        writer.write(file, "", "after");
+
+        // When the writer finishes
+        writer.shutdown();
+        LogWriter.awaitShutdown(5000);
+
+        // Then both lines were written, in order
+        assertEquals(Arrays.asList("before", "after"), read(file));
+    }
+
+    /**
+     * Tests that when too many files are open, the least recently used one
+     * is closed to make room.
+     */
+    @Test
+    public void testLeastRecentlyUsedFileClosed() throws IOException {
+        // Given a writer that can only keep two files open
+        config.setOption("server", "logmaxopenfiles", 2);
+        final List<String> closed = new CopyOnWriteArrayList<>();
+        final LogWriter lruWriter = new LogWriter("LRU Log Writer", config, () -> globalConfig, locator, closed::add);
+        final String first = locator.getLogFile("first");
+        final String second = locator.getLogFile("second");
+        final String third = locator.getLogFile("third");
+
+        // When three files are written to, using the first again before
+        // opening the third
+        lruWriter.write(first, "", "1");
+        lruWriter.write(second, "", "2");
+        lruWriter.write(first, "", "3");
+        lruWriter.write(third, "", "4");
+        lruWriter.shutdown();
+        LogWriter.awaitShutdown(5000);
+
+        // Then the second file was closed to make room, and the rest were
+        // closed in least recently used order when the writer stopped
+        assertEquals(Arrays.asList(second, first, third), closed);
+        assertEquals(Arrays.asList("1", "3"), read(first));
+        assertEquals(Arrays.asList("2"), read(second));
+        assertEquals(Arrays.asList("4"), read(third));
+    }
+
+    /**
+     * Tests that the limit on open files across all writers is applied.
+     */
+    @Test
+    public void testGlobalOpenFileLimit() throws IOException {
+        // Given only one file may be open across all writers
+        globalConfig.setOption("general", "logmaxopenfiles", 1);
+        final List<String> closed = new CopyOnWriteArrayList<>();
+        final LogWriter lruWriter = new LogWriter("LRU Log Writer", config, () -> globalConfig, locator, closed::add);
+        final String first = locator.getLogFile("first");
+        final String second = locator.getLogFile("second");
+
+        // When two files are written to
+        lruWriter.write(first, "", "1");
+        lruWriter.write(second, "", "2");
+        lruWriter.write(first, "", "3");
+        lruWriter.shutdown();
+        LogWriter.awaitShutdown(5000);
+
+        // Then each file was closed before the other was opened
+        assertEquals(Arrays.asList(first, second, first), closed);
+        assertEquals(Arrays.asList("1", "3"), read(first));
+    }
+
+    /**
+     * Tests that files are closed once they have been idle for too long.
+     */
+    @Test
+    public void testIdleFileClosed() throws InterruptedException {
+        // Given a writer that closes files as soon as they are idle
+        config.setOption("server", "logidletime", 0);
+        final List<String> closed = new CopyOnWriteArrayList<>();
+        final LogWriter idleWriter = new LogWriter("Idle Log Writer", config, () -> globalConfig, locator, closed::add);
+        final String file = locator.getLogFile("#channel");
+
+        // When a line is written and nothing else happens
+        idleWriter.write(file, "", "line");
+        for (int i = 0; i < 50 && closed.isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+
+        // Then the file is closed without the writer stopping
+        assertEquals(Arrays.asList(file), closed);
+        assertTrue(idleWriter.isAlive());
+        idleWriter.shutdown();
+        LogWriter.awaitShutdown(5000);
+    }
+
+    private static List<String> read(final String file) throws IOException {
+        final File f = new File(file);
+        return f.exists() ? Files.readAllLines(f.toPath(), StandardCharsets.UTF_8) : Arrays.asList();
+    }
+}
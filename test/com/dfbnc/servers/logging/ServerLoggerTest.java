@@ -0,0 +1,76 @@
+package com.dfbnc.servers.logging;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for the timestamps written by {@link ServerLogger}.
+ */
+public class ServerLoggerTest {
+
+    /**
+     * Tests that the prefix matches the format used before the formatters
+     * were replaced.
+     */
+    @Test
+    public void testPrefixMatchesOldFormat() {
+        final SimpleDateFormat old = new SimpleDateFormat("[dd/MM/yyyy HH:mm:ss]");
+        final Random random = new Random(10);
+        for (int i = 0; i < 1000; i++) {
+            final long time = Math.abs(random.nextLong()) % 4102444800000L;
+            assertEquals(old.format(new Date(time)) + " ", ServerLogger.getLogPrefix(time));
+        }
+    }
+
+    /**
+     * Tests that the prefix is reused within a second, and changes with it.
+     */
+    @Test
+    public void testPrefixCachedPerSecond() {
+        // Given the prefix for the start of a second
+        final String prefix = ServerLogger.getLogPrefix(1500000000000L);
+
+        // Then the same instance is used for the rest of that second
+        assertSame(prefix, ServerLogger.getLogPrefix(1500000000999L));
+
+        // But not for the next second
+        final SimpleDateFormat old = new SimpleDateFormat("[dd/MM/yyyy HH:mm:ss]");
+        assertEquals(old.format(new Date(1500000001000L)) + " ", ServerLogger.getLogPrefix(1500000001000L));
+    }
+
+    /**
+     * Tests that threads logging at different times each get the right
+     * prefix.
+     */
+    @Test
+    public void testConcurrentPrefixes() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long base = 1500000000000L + t * 86400000L;
+            results.add(executor.submit(() -> {
+                final SimpleDateFormat old = new SimpleDateFormat("[dd/MM/yyyy HH:mm:ss]");
+                for (int i = 0; i < 5000; i++) {
+                    final long time = base + i * 250L;
+                    assertEquals(old.format(new Date(time)) + " ", ServerLogger.getLogPrefix(time));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,98 @@
+package com.dfbnc.sockets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ChatHistoryRequest}.
+ */
+public class ChatHistoryRequestTest {
+
+    private static final String EARLY = "timestamp=2019-01-01T00:00:00.000Z";
+
+    private static final long EARLY_TIME = 1546300800000L;
+
+    private static final String LATE = "timestamp=2019-01-02T00:00:00.000Z";
+
+    private static final long LATE_TIME = 1546387200000L;
+
+    private static ChatHistoryRequest parse(final String... line) {
+        return ChatHistoryRequest.parse(line);
+    }
+
+    @Test
+    public void testLatest() {
+        // When the latest messages are requested with no reference
+        final ChatHistoryRequest request = parse("CHATHISTORY", "latest", "#channel", "*", "50");
+
+        // Then the newest messages are sent with no time limits
+        assertEquals("#channel", request.getTarget());
+        assertEquals(0, request.getAfter());
+        assertEquals(0, request.getBefore());
+        assertEquals(50, request.getLimit());
+        assertTrue(request.isNewest());
+
+        // And a reference limits how far back they go
+        assertEquals(EARLY_TIME, parse("CHATHISTORY", "LATEST", "#channel", EARLY, "50").getAfter());
+    }
+
+    @Test
+    public void testBefore() {
+        final ChatHistoryRequest request = parse("CHATHISTORY", "BEFORE", "#channel", LATE, "10");
+
+        assertEquals(0, request.getAfter());
+        assertEquals(LATE_TIME, request.getBefore());
+        assertEquals(10, request.getLimit());
+        assertTrue(request.isNewest());
+    }
+
+    @Test
+    public void testAfter() {
+        final ChatHistoryRequest request = parse("CHATHISTORY", "AFTER", "#channel", EARLY, "10");
+
+        assertEquals(EARLY_TIME, request.getAfter());
+        assertEquals(0, request.getBefore());
+        assertFalse(request.isNewest());
+    }
+
+    @Test
+    public void testBetween() {
+        // When the references are in order
+        final ChatHistoryRequest forwards = parse("CHATHISTORY", "BETWEEN", "#channel", EARLY, LATE, "10");
+
+        // Then the oldest messages are sent
+        assertEquals(EARLY_TIME, forwards.getAfter());
+        assertEquals(LATE_TIME, forwards.getBefore());
+        assertFalse(forwards.isNewest());
+
+        // And when they are reversed, the same range is used but the newest
+        // messages are sent
+        final ChatHistoryRequest backwards = parse("CHATHISTORY", "BETWEEN", "#channel", LATE, EARLY, "10");
+        assertEquals(EARLY_TIME, backwards.getAfter());
+        assertEquals(LATE_TIME, backwards.getBefore());
+        assertTrue(backwards.isNewest());
+    }
+
+    @Test
+    public void testUnsupportedReferences() {
+        assertNull(parse("CHATHISTORY", "BEFORE", "#channel", "msgid=abc123", "10"));
+        assertNull(parse("CHATHISTORY", "AFTER", "#channel", "2019-01-01T00:00:00.000Z", "10"));
+        assertNull(parse("CHATHISTORY", "LATEST", "#channel", "msgid=abc123", "10"));
+        assertNull(parse("CHATHISTORY", "BETWEEN", "#channel", EARLY, "msgid=abc123", "10"));
+        assertNull(parse("CHATHISTORY", "BEFORE", "#channel", "timestamp=yesterday", "10"));
+    }
+
+    @Test
+    public void testInvalidRequests() {
+        assertNull(parse("CHATHISTORY"));
+        assertNull(parse("CHATHISTORY", "TARGETS", EARLY, LATE, "10"));
+        assertNull(parse("CHATHISTORY", "BEFORE", "#channel", LATE));
+        assertNull(parse("CHATHISTORY", "BETWEEN", "#channel", EARLY, LATE));
+        assertNull(parse("CHATHISTORY", "BEFORE", "#channel", LATE, "0"));
+        assertNull(parse("CHATHISTORY", "BEFORE", "#channel", LATE, "lots"));
+    }
+}
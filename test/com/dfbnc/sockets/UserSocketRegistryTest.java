@@ -0,0 +1,128 @@
+package com.dfbnc.sockets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link UserSocketRegistry}.
+ */
+public class UserSocketRegistryTest {
+
+    private UserSocketRegistry<Object, String> registry;
+
+    @Before
+    public void setUp() {
+        registry = new UserSocketRegistry<>();
+    }
+
+    /**
+     * Tests that sockets can be looked up by ID and by account.
+     */
+    @Test
+    public void testLookup() {
+        // Given two sockets, one of which has authenticated
+        final Object first = new Object();
+        final Object second = new Object();
+        final String firstID = registry.register(first);
+        final String secondID = registry.register(second);
+        registry.setAccount(firstID, first, "account");
+
+        // Then both can be found by ID, but only one by account
+        assertSame(first, registry.get(firstID));
+        assertSame(second, registry.get(secondID));
+        assertEquals(2, registry.getAll().size());
+        assertEquals(Collections.singletonList(first), registry.getAll("account"));
+        assertTrue(registry.getAll("other").isEmpty());
+
+        // And once unregistered, neither lookup finds it
+        registry.unregister(firstID, first, "account");
+        assertNull(registry.get(firstID));
+        assertEquals(Collections.singletonList(second), registry.getAll());
+        assertTrue(registry.getAll("account").isEmpty());
+    }
+
+    /**
+     * Tests that a socket that is unregistered before its account is set
+     * is not left behind under the account.
+     */
+    @Test
+    public void testUnregisteredBeforeAccountSet() {
+        // Given a socket that closes before it knew its account
+        final Object socket = new Object();
+        final String id = registry.register(socket);
+        registry.unregister(id, socket, null);
+
+        // When its account is then set
+        registry.setAccount(id, socket, "account");
+
+        // Then it is not found under the account
+        assertTrue(registry.getAll("account").isEmpty());
+    }
+
+    /**
+     * Tests that sockets registering, authenticating and unregistering on
+     * several threads at once get unique IDs and are all cleaned up.
+     */
+    @Test
+    public void testConcurrentChanges() throws Exception {
+        // Given several threads that each register many sockets, keeping
+        // every other one
+        final int threads = 8;
+        final int perThread = 2000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Map<String, String> kept = new ConcurrentHashMap<>();
+        final List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String account = "account" + (t % 2);
+            results.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    final Object socket = new Object();
+                    final String id = registry.register(socket);
+                    registry.setAccount(id, socket, account);
+                    assertSame(socket, registry.get(id));
+                    registry.getAll(account);
+                    if (i % 2 == 0) {
+                        kept.put(id, account);
+                    } else {
+                        registry.unregister(id, socket, account);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        // When they all run at once
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        // Then every kept socket is still there with a unique ID, and
+        // nothing that was unregistered is left behind
+        assertEquals(threads * perThread / 2, kept.size());
+        assertEquals(kept.size(), registry.getAll().size());
+        assertEquals(kept.size(), registry.getAll("account0").size() + registry.getAll("account1").size());
+        kept.forEach((id, account) -> registry.unregister(id, registry.get(id), account));
+        assertTrue(registry.getAll().isEmpty());
+        assertTrue(registry.getAll("account0").isEmpty());
+        assertTrue(registry.getAll("account1").isEmpty());
+    }
+}
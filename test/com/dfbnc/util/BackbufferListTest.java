@@ -0,0 +1,212 @@
+package com.dfbnc.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link BackbufferList}.
+ */
+public class BackbufferListTest {
+
+    private BackbufferList list;
+
+    private AtomicInteger renders;
+
+    private Function<BackbufferMessage, String> renderer;
+
+    @Before
+    public void setUp() {
+        list = new BackbufferList(3);
+        renders = new AtomicInteger();
+        renderer = message -> {
+            renders.incrementAndGet();
+            return "rendered " + message.getMessage();
+        };
+    }
+
+    /**
+     * Tests searching an empty list.
+     */
+    @Test
+    public void testFindSequenceEmpty() {
+        // Given a list that has had everything evicted
+        list.add(1000, "test1");
+        list.clear();
+
+        // Then every search gives the next sequence number
+        assertEquals(1, list.findSequence(0));
+        assertEquals(1, list.findSequence(5000));
+        assertEquals(0, list.getLatestTime());
+    }
+
+    /**
+     * Tests searching for times outside of the range of the list.
+     */
+    @Test
+    public void testFindSequenceOutOfRange() {
+        // Given a list with some messages
+        list.add(1000, "test1");
+        list.add(2000, "test2");
+
+        // Then times before the oldest message give the oldest message
+        assertEquals(0, list.findSequence(0));
+        assertEquals(0, list.findSequence(1000));
+
+        // And times after the newest message give the next sequence number
+        assertEquals(2, list.findSequence(2001));
+        assertEquals(2000, list.getLatestTime());
+    }
+
+    /**
+     * Tests that searching for a time shared by several messages finds the
+     * first of them.
+     */
+    @Test
+    public void testFindSequenceDuplicateTimes() {
+        // Given messages that share times
+        list.setCapacity(6);
+        list.add(1000, "test1");
+        list.add(2000, "test2");
+        list.add(2000, "test3");
+        list.add(2000, "test4");
+        list.add(3000, "test5");
+
+        // Then the first message with the time is found
+        assertEquals(1, list.findSequence(2000));
+        assertEquals(1, list.findSequence(1500));
+        assertEquals(4, list.findSequence(2001));
+    }
+
+    /**
+     * Tests searching lists that have wrapped and evicted messages.
+     */
+    @Test
+    public void testFindSequenceWrapped() {
+        final BackbufferList[] lists = {list, new CompactBackbufferList(3)};
+        for (BackbufferList wrapped : lists) {
+            // Given a list that has wrapped
+            for (int i = 1; i <= 5; i++) {
+                wrapped.add(i * 1000, "test" + i);
+            }
+
+            // Then evicted times give the oldest remaining message
+            assertEquals(2, wrapped.findSequence(1000));
+            assertEquals(2, wrapped.findSequence(3000));
+
+            // And times in the list are found by sequence number
+            assertEquals(3, wrapped.findSequence(3500));
+            assertEquals(4, wrapped.findSequence(5000));
+            assertEquals(5, wrapped.findSequence(6000));
+        }
+    }
+
+    /**
+     * Tests that renderings are shared between calls for the same profile.
+     */
+    @Test
+    public void testRenderingIsCached() {
+        // Given a message
+        list.add(1000, "test1");
+
+        // When it is rendered twice for the same profile
+        final String first = list.getRendered(0, 1, renderer);
+        final String second = list.getRendered(0, 1, renderer);
+
+        // Then it is only rendered once
+        assertEquals("rendered test1", first);
+        assertSame(first, second);
+        assertEquals(1, renders.get());
+    }
+
+    /**
+     * Tests that evicted messages release their renderings.
+     */
+    @Test
+    public void testEvictedMessagesReleaseRenderings() {
+        // Given a full list where every message has been rendered
+        list.add(1000, "test1");
+        list.add(2000, "test2");
+        list.add(3000, "test3");
+        for (long sequence = 0; sequence < 3; sequence++) {
+            list.getRendered(sequence, 1, renderer);
+            list.getRendered(sequence, 2, renderer);
+        }
+
+        // When two messages are evicted
+        list.add(4000, "test4");
+        list.add(5000, "test5");
+
+        // Then only the renderings of the remaining message are kept
+        assertEquals(2, list.getRenderedCount());
+        assertNull(list.getRendered(0, 1, renderer));
+
+        // And clearing the list releases the rest
+        list.clear();
+        assertEquals(0, list.getRenderedCount());
+    }
+
+    /**
+     * Tests that only a limited number of renderings are kept per profile.
+     */
+    @Test
+    public void testRenderingsAreBounded() {
+        // Given a large list where every message has been rendered
+        list.setCapacity(1000);
+        for (int i = 0; i < 1000; i++) {
+            list.add(i, "test" + i);
+            list.getRendered(i, 1, renderer);
+        }
+
+        // Then only some of the renderings are kept
+        assertEquals(list.getRenderCacheSize(), list.getRenderedCount());
+
+        // And the most recent ones are still cached
+        list.getRendered(999, 1, renderer);
+        assertEquals(1000, renders.get());
+    }
+
+    /**
+     * Tests that renderings for unused profiles can be discarded.
+     */
+    @Test
+    public void testRetainRendered() {
+        // Given a message rendered for two profiles
+        list.add(1000, "test1");
+        list.getRendered(0, 1, renderer);
+        list.getRendered(0, 2, renderer);
+
+        // When only one profile is still in use
+        list.retainRendered(Collections.singleton(2));
+
+        // Then only its rendering is kept
+        assertEquals(1, list.getRenderedCount());
+        list.getRendered(0, 2, renderer);
+        assertEquals(2, renders.get());
+    }
+
+    /**
+     * Tests that compact lists do not hold on to renderings.
+     */
+    @Test
+    public void testCompactListsDoNotCache() {
+        // Given a compact list with a message
+        final BackbufferList compact = new CompactBackbufferList(3);
+        compact.add(1000, "test1");
+
+        // When it is rendered twice
+        compact.getRendered(0, 1, renderer);
+        compact.getRendered(0, 1, renderer);
+
+        // Then it is rendered each time and nothing is kept
+        assertEquals(2, renders.get());
+        assertEquals(0, compact.getRenderedCount());
+    }
+}
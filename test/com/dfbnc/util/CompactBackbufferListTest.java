@@ -0,0 +1,113 @@
+package com.dfbnc.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CompactBackbufferList}.
+ */
+public class CompactBackbufferListTest {
+
+    private CompactBackbufferList list;
+
+    @Before
+    public void setUp() {
+        list = new CompactBackbufferList(3);
+    }
+
+    /**
+     * Tests that messages are read back in order once the list has wrapped.
+     */
+    @Test
+    public void testWrapAround() {
+        // When more messages are added than the list can hold
+        for (int i = 1; i <= 7; i++) {
+            list.add(i * 1000, "test" + i);
+        }
+
+        // Then only the newest messages remain, in order
+        assertEquals(3, list.size());
+        assertEquals(4, list.getFirstSequence());
+        assertMessage(5000, "test5", list.get(0));
+        assertMessage(6000, "test6", list.get(1));
+        assertMessage(7000, "test7", list.get(2));
+    }
+
+    /**
+     * Tests that space used by evicted messages is reclaimed.
+     */
+    @Test
+    public void testEvictedMessagesAreReclaimed() {
+        // When many more messages are added than the list can hold
+        final StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            message.append('x');
+        }
+        for (int i = 0; i < 10000; i++) {
+            list.add(i, message.toString() + i);
+        }
+
+        // Then the byte array only grows to fit the messages that remain
+        assertTrue(list.getSlabSize() < 3 * 210 * 4);
+        assertMessage(9999, message.toString() + 9999, list.get(2));
+    }
+
+    /**
+     * Tests that messages that are not ASCII survive being stored.
+     */
+    @Test
+    public void testNonAsciiRoundTrip() {
+        // Given messages using multi-byte characters
+        final String[] messages = {"café ünïcödé", "日本語のメッセージ", "emoji 😀🎉", ""};
+
+        // When they are added to a list that has to compact and wrap
+        list.setCapacity(2);
+        for (int i = 0; i < messages.length; i++) {
+            list.add(i, messages[i]);
+        }
+
+        // Then they are read back unchanged
+        assertMessage(2, messages[2], list.get(0));
+        assertMessage(3, messages[3], list.get(1));
+    }
+
+    /**
+     * Tests that messages survive the capacity being changed.
+     */
+    @Test
+    public void testSetCapacity() {
+        // Given a list that has wrapped
+        for (int i = 1; i <= 5; i++) {
+            list.add(i, "test" + i);
+        }
+
+        // When the capacity is increased and more messages are added
+        list.setCapacity(5);
+        list.add(6, "test6");
+
+        // Then the existing messages are kept in order
+        assertEquals(4, list.size());
+        assertMessage(3, "test3", list.get(0));
+        assertMessage(6, "test6", list.get(3));
+
+        // And reducing it keeps the newest
+        list.setCapacity(2);
+        assertMessage(5, "test5", list.get(0));
+        assertMessage(6, "test6", list.get(1));
+    }
+
+    /**
+     * Checks that a message has the given time and text.
+     *
+     * @param time Expected time
+     * @param message Expected text
+     * @param actual Message to check
+     */
+    private static void assertMessage(final long time, final String message, final BackbufferMessage actual) {
+        assertEquals(time, actual.getTime());
+        assertEquals(message, actual.getMessage());
+    }
+}
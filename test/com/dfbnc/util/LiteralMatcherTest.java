@@ -0,0 +1,60 @@
+package com.dfbnc.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LiteralMatcher}.
+ */
+public class LiteralMatcherTest {
+
+    /**
+     * Tests that any of the literals is found anywhere in the text.
+     */
+    @Test
+    public void testContainsAny() {
+        // Given a matcher with overlapping literals
+        final LiteralMatcher matcher = new LiteralMatcher(Arrays.asList("he", "she", "hers", "nick"));
+
+        // Then text containing any of them matches
+        assertTrue(matcher.containsAny("ushers"));
+        assertTrue(matcher.containsAny("hey nick!"));
+        assertTrue(matcher.containsAny("nick"));
+        assertTrue(matcher.containsAny("ashe"));
+
+        // And text containing none of them does not
+        assertFalse(matcher.containsAny("nic k"));
+        assertFalse(matcher.containsAny(""));
+    }
+
+    /**
+     * Tests that a literal is found after a partial match of another fails.
+     */
+    @Test
+    public void testFollowsFailureLinks() {
+        // Given a matcher where one literal is a suffix of a longer prefix
+        final LiteralMatcher matcher = new LiteralMatcher(Arrays.asList("abcd", "bce"));
+
+        // Then the shorter literal is found after the longer one fails
+        assertTrue(matcher.containsAny("xabce"));
+        assertFalse(matcher.containsAny("xabcx"));
+    }
+
+    /**
+     * Tests that an empty matcher never matches.
+     */
+    @Test
+    public void testEmpty() {
+        // Given a matcher with no literals
+        final LiteralMatcher matcher = new LiteralMatcher(Collections.emptyList());
+
+        // Then nothing matches
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.containsAny("anything"));
+    }
+}
@@ -0,0 +1,322 @@
+package com.dfbnc.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MappedBackbufferList}.
+ */
+public class MappedBackbufferListTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "test.bbuf");
+    }
+
+    /**
+     * Tests that messages can be read back after the file is opened again.
+     */
+    @Test
+    public void testReopen() throws IOException {
+        // Given a list with some messages
+        final MappedBackbufferList list = new MappedBackbufferList(5, file);
+        list.add(1000, "test1");
+        list.add(2000, "test2");
+        list.add(3000, "test3");
+
+        // When the file is opened again
+        final MappedBackbufferList reopened = new MappedBackbufferList(5, file);
+
+        // Then the same messages are there
+        assertEquals(3, reopened.size());
+        assertEquals(list.getFirstSequence(), reopened.getFirstSequence());
+        assertMessage(1000, "test1", reopened.get(0));
+        assertMessage(3000, "test3", reopened.get(2));
+
+        // And new messages follow on from them
+        reopened.add(4000, "test4");
+        assertEquals(4, reopened.getNextSequence());
+        assertMessage(4000, "test4", reopened.getSequence(3));
+    }
+
+    /**
+     * Tests that the oldest messages are evicted once the list has wrapped,
+     * including after it is opened again.
+     */
+    @Test
+    public void testWrapAround() throws IOException {
+        // When more messages are added than the list can hold
+        final MappedBackbufferList list = new MappedBackbufferList(3, file);
+        for (int i = 1; i <= 50; i++) {
+            list.add(i * 1000, "test" + i);
+        }
+
+        // Then only the newest messages remain, in order
+        assertEquals(3, list.size());
+        assertEquals(47, list.getFirstSequence());
+        assertMessage(48000, "test48", list.get(0));
+        assertMessage(50000, "test50", list.get(2));
+
+        // And they are still in order after the file is opened again
+        final MappedBackbufferList reopened = new MappedBackbufferList(3, file);
+        assertEquals(3, reopened.size());
+        assertEquals(47, reopened.getFirstSequence());
+        assertMessage(48000, "test48", reopened.get(0));
+        assertMessage(50000, "test50", reopened.get(2));
+    }
+
+    /**
+     * Tests that the oldest messages are evicted once the message space has
+     * wrapped, even if there are free positions.
+     */
+    @Test
+    public void testMessageSpaceWrapAround() throws IOException {
+        // Given messages that fill the message space many times over
+        final MappedBackbufferList list = new MappedBackbufferList(100, file);
+        final String padding = repeat('x', 4000);
+        for (int i = 0; i < 200; i++) {
+            list.add(i, padding + i);
+        }
+
+        // Then the newest messages are all intact
+        assertTrue(list.size() < 100);
+        for (int i = 0; i < list.size(); i++) {
+            final BackbufferMessage message = list.get(i);
+            assertEquals(padding + message.getTime(), message.getMessage());
+        }
+        assertMessage(199, padding + 199, list.get(list.size() - 1));
+    }
+
+    /**
+     * Tests opening an existing file with a different capacity.
+     */
+    @Test
+    public void testChangeCapacity() throws IOException {
+        // Given a file with some messages
+        final MappedBackbufferList list = new MappedBackbufferList(5, file);
+        for (int i = 1; i <= 5; i++) {
+            list.add(i * 1000, "test" + i);
+        }
+
+        // When it is opened with a smaller capacity
+        final MappedBackbufferList smaller = new MappedBackbufferList(2, file);
+
+        // Then only the newest messages are kept
+        assertEquals(2, smaller.size());
+        assertMessage(4000, "test4", smaller.get(0));
+        assertMessage(5000, "test5", smaller.get(1));
+
+        // And when it is opened with a larger capacity and filled
+        final MappedBackbufferList larger = new MappedBackbufferList(40, file);
+        for (int i = 6; i <= 40; i++) {
+            larger.add(i * 1000, "test" + i);
+        }
+
+        // Then the messages it had are kept along with the new ones
+        assertEquals(37, larger.size());
+        assertMessage(4000, "test4", larger.get(0));
+        assertMessage(40000, "test40", larger.get(36));
+        assertEquals(37, new MappedBackbufferList(40, file).size());
+    }
+
+    /**
+     * Tests that messages larger than the space allowed per position are
+     * stored, and messages larger than the whole message space are cut short.
+     */
+    @Test
+    public void testLargeMessages() throws IOException {
+        // Given a message larger than the space per position
+        final MappedBackbufferList list = new MappedBackbufferList(3, file);
+        final String large = repeat('x', 5000);
+        list.add(1000, large);
+        list.add(2000, "test2");
+
+        // Then it is stored whole
+        assertMessage(1000, large, list.get(0));
+        assertMessage(2000, "test2", list.get(1));
+
+        // And a message larger than the message space is cut short
+        final String huge = repeat('y', 1 << 20);
+        list.add(3000, huge);
+        final BackbufferMessage message = list.getSequence(2);
+        assertTrue(message.getMessage().length() < huge.length());
+        assertTrue(huge.startsWith(message.getMessage()));
+    }
+
+    /**
+     * Tests that a truncated file is replaced rather than read.
+     */
+    @Test
+    public void testTruncatedFile() throws IOException {
+        // Given a file that has been cut short
+        final MappedBackbufferList list = new MappedBackbufferList(5, file);
+        list.add(1000, "test1");
+        list.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        // When it is opened again
+        final MappedBackbufferList reopened = new MappedBackbufferList(5, file);
+
+        // Then it is empty, and can be used as normal
+        assertTrue(reopened.isEmpty());
+        reopened.add(2000, "test2");
+        assertMessage(2000, "test2", new MappedBackbufferList(5, file).get(0));
+    }
+
+    /**
+     * Tests that a file that isn't a backbuffer file is replaced.
+     */
+    @Test
+    public void testGarbageFile() throws IOException {
+        // Given a file with something else in it
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write("This is not a backbuffer".getBytes());
+        }
+
+        // When it is opened
+        final MappedBackbufferList list = new MappedBackbufferList(5, file);
+
+        // Then it is empty, and can be used as normal
+        assertTrue(list.isEmpty());
+        list.add(1000, "test1");
+        assertMessage(1000, "test1", new MappedBackbufferList(5, file).get(0));
+    }
+
+    /**
+     * Tests that index entries pointing outside the message space are
+     * ignored.
+     */
+    @Test
+    public void testCorruptEntry() throws IOException {
+        // Given a file where one index entry has been damaged
+        final MappedBackbufferList list = new MappedBackbufferList(5, file);
+        list.add(1000, "test1");
+        list.add(2000, "test2");
+        list.add(3000, "test3");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Offset of the second entry, after the header and first entry.
+            raf.seek(24 + 24 + 16);
+            raf.writeInt(Integer.MAX_VALUE - 10);
+        }
+
+        // When it is opened again
+        final MappedBackbufferList reopened = new MappedBackbufferList(5, file);
+
+        // Then the other messages can still be read
+        assertEquals(2, reopened.size());
+        assertMessage(1000, "test1", reopened.get(0));
+        assertMessage(3000, "test3", reopened.get(1));
+    }
+
+    /**
+     * Checks that a message has the given time and text.
+     *
+     * @param time Expected time
+     * @param message Expected text
+     * @param actual Message to check
+     */
+    /**
+     * Tests that opening a file that another list is using takes it over, so
+     * that the old list can no longer change the file.
+     */
+    @Test
+    public void testTakeOver() throws IOException {
+        // Given a list that is using a file
+        final MappedBackbufferList old = new MappedBackbufferList(5, file);
+        old.add(1000, "test1");
+
+        // When another list opens the same file
+        final MappedBackbufferList current = new MappedBackbufferList(5, new File(file.getParentFile(), "." + File.separator + file.getName()));
+
+        // Then the old list is closed but still works in memory
+        assertFalse(old.isOpen());
+        assertTrue(current.isOpen());
+        old.add(2000, "old2");
+        assertEquals(2, old.size());
+
+        // And only the new list's changes reach the file
+        current.add(3000, "test3");
+        current.flush();
+        final MappedBackbufferList reopened = new MappedBackbufferList(5, file);
+        assertEquals(2, reopened.size());
+        assertMessage(1000, "test1", reopened.get(0));
+        assertMessage(3000, "test3", reopened.get(1));
+    }
+
+    /**
+     * Tests that a closed list keeps working without writing to its file.
+     */
+    @Test
+    public void testClose() throws IOException {
+        // Given a list that has been closed
+        final MappedBackbufferList list = new MappedBackbufferList(5, file);
+        list.add(1000, "test1");
+        list.close();
+
+        // When it is changed, including growing it
+        list.add(2000, "test2");
+        list.setCapacity(50);
+        list.add(3000, "test3");
+
+        // Then it still works in memory
+        assertEquals(3, list.size());
+        assertMessage(3000, "test3", list.get(2));
+
+        // And the file has what was there when it was closed
+        final MappedBackbufferList reopened = new MappedBackbufferList(5, file);
+        assertEquals(1, reopened.size());
+        assertMessage(1000, "test1", reopened.get(0));
+    }
+
+    /**
+     * Tests that messages that are too large are cut between characters.
+     */
+    @Test
+    public void testTruncateAtCharacter() throws IOException {
+        // Given a message that would be cut in the middle of a character
+        final MappedBackbufferList list = new MappedBackbufferList(1, file);
+        final String start = repeat('a', 65535);
+        list.add(1000, start + "\u00e9\u00e9");
+
+        // Then the whole character is dropped
+        assertMessage(1000, start, list.get(0));
+        assertMessage(1000, start, new MappedBackbufferList(1, file).get(0));
+    }
+
+    private static void assertMessage(final long time, final String message, final BackbufferMessage actual) {
+        assertEquals(time, actual.getTime());
+        assertEquals(message, actual.getMessage());
+    }
+
+    /**
+     * Get a string made of the given character repeated.
+     *
+     * @param c Character to repeat
+     * @param count Number of times to repeat it
+     * @return The string
+     */
+    private static String repeat(final char c, final int count) {
+        final StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
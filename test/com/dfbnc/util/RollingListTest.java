@@ -0,0 +1,102 @@
+package com.dfbnc.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RollingList}.
+ */
+public class RollingListTest {
+
+    private RollingList<String> list;
+
+    @Before
+    public void setUp() {
+        list = new RollingList<>(3);
+    }
+
+    /**
+     * Tests that the oldest items are evicted once the list is full.
+     */
+    @Test
+    public void testEvictsOldestItems() {
+        // When more items are added than the list can hold
+        list.add("test1");
+        list.add("test2");
+        list.add("test3");
+        list.add("test4");
+
+        // Then only the newest items remain, in order
+        assertEquals(3, list.size());
+        assertEquals("test2", list.get(0));
+        assertEquals("test4", list.get(2));
+        assertEquals(1, list.getFirstSequence());
+        assertEquals(4, list.getNextSequence());
+    }
+
+    /**
+     * Tests that reducing the capacity keeps the newest items.
+     */
+    @Test
+    public void testSetCapacity() {
+        // Given a full list
+        list.add("test1");
+        list.add("test2");
+        list.add("test3");
+
+        // When the capacity is reduced and more items are added
+        list.setCapacity(2);
+        list.add("test4");
+
+        // Then only the newest items remain
+        assertEquals(2, list.size());
+        assertEquals("test3", list.get(0));
+        assertEquals("test4", list.get(1));
+    }
+
+    /**
+     * Tests that snapshots ignore items added after they are taken, and skip
+     * items that have since been evicted.
+     */
+    @Test
+    public void testSnapshot() {
+        // Given a snapshot of the newest two items
+        list.add("test1");
+        list.add("test2");
+        list.add("test3");
+        final RollingList.Snapshot<String> snapshot = list.snapshot(2);
+
+        // When more items are added that evict one of them
+        list.add("test4");
+        list.add("test5");
+
+        // Then only the remaining item from the snapshot is returned
+        final List<String> items = new ArrayList<>();
+        snapshot.forEach(items::add);
+        assertEquals(2, snapshot.size());
+        assertEquals(1, items.size());
+        assertEquals("test3", items.get(0));
+    }
+
+    /**
+     * Tests that a list with no capacity holds nothing.
+     */
+    @Test
+    public void testZeroCapacity() {
+        // Given a list with no capacity
+        list.setCapacity(0);
+
+        // When an item is added
+        list.add("test1");
+
+        // Then it is not kept
+        assertTrue(list.isEmpty());
+        assertTrue(list.snapshot().isEmpty());
+    }
+}